@@ -73,7 +73,7 @@ public class GFSBackupPlugin extends JavaPlugin {
             scheduler = new BackupScheduler(backupManager, config);
             scheduler.start();
 
-            webServer = new WebServer(backupManager, config);
+            webServer = new WebServer(backupManager, scheduler.getJobQueue(), config);
             webServer.start();
 
             logger.info("WorldKeeper started successfully");
@@ -111,6 +111,9 @@ public class GFSBackupPlugin extends JavaPlugin {
             if (webServer != null) {
                 webServer.stop();
             }
+            if (backupManager != null) {
+                backupManager.shutdown();
+            }
         } catch (Exception e) {
             logger.error("Error during plugin shutdown", e);
         }
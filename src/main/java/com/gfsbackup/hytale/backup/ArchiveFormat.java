@@ -0,0 +1,47 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupFormat;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A self-contained, single-file archive of the world folder. Chunked backups are not an
+ * ArchiveFormat: they are a manifest over a shared chunk store and are handled by
+ * {@link ChunkStore}.
+ */
+public interface ArchiveFormat {
+
+    /**
+     * Writes {@code archiveFile} from {@code sourceFolder}. The returned checksum covers the
+     * archive bytes exactly as written, so it matches {@link ZipUtility#calculateChecksum}.
+     */
+    ArchiveResult create(File sourceFolder, File archiveFile, int threads, CompressionPolicy policy) throws IOException;
+
+    /**
+     * Extracts the whole archive. {@code threads} is a hint (0 = one per core) and
+     * {@code progress} may be null.
+     */
+    void extract(File archiveFile, File destFolder, int threads, ExtractionProgress progress) throws IOException;
+
+    /**
+     * Extracts {@code path} and, if it is a directory, everything below it, using the
+     * archive's index where it has one. Returns the number of files written.
+     */
+    int extractPath(File archiveFile, String path, File destFolder, int threads, ExtractionProgress progress) throws IOException;
+
+    String getContentType();
+
+    static ArchiveFormat forFormat(BackupFormat format) {
+        switch (format) {
+            case ZIP:
+                return ZipArchiveFormat.INSTANCE;
+            case TAR_ZSTD:
+                return TarArchiveFormat.ZSTD;
+            case TAR_LZ4:
+                return TarArchiveFormat.LZ4;
+            default:
+                throw new IllegalArgumentException(format + " is not a single-file archive format");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.gfsbackup.hytale.backup;
+
+public class ArchiveResult {
+    private final int entryCount;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long elapsedMillis;
+    private final String checksum;
+    private final long storedBytes;
+    private final long cpuSavedMillis;
+    private final String listingChecksum;
+
+    public ArchiveResult(int entryCount, long uncompressedBytes, long compressedBytes, long elapsedMillis, String checksum) {
+        this(entryCount, uncompressedBytes, compressedBytes, elapsedMillis, checksum, 0, 0);
+    }
+
+    public ArchiveResult(int entryCount, long uncompressedBytes, long compressedBytes, long elapsedMillis, String checksum,
+                         long storedBytes, long cpuSavedMillis) {
+        this(entryCount, uncompressedBytes, compressedBytes, elapsedMillis, checksum, storedBytes, cpuSavedMillis, null);
+    }
+
+    private ArchiveResult(int entryCount, long uncompressedBytes, long compressedBytes, long elapsedMillis, String checksum,
+                          long storedBytes, long cpuSavedMillis, String listingChecksum) {
+        this.entryCount = entryCount;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.elapsedMillis = elapsedMillis;
+        this.checksum = checksum;
+        this.storedBytes = storedBytes;
+        this.cpuSavedMillis = cpuSavedMillis;
+        this.listingChecksum = listingChecksum;
+    }
+
+    /**
+     * A snapshot's result: no content checksum, only the hash of its file listing.
+     */
+    static ArchiveResult snapshot(int entryCount, long totalBytes, long copiedBytes, long elapsedMillis, String listingChecksum) {
+        return new ArchiveResult(entryCount, totalBytes, copiedBytes, elapsedMillis, null, 0, 0, listingChecksum);
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * SHA-256 of the archive's contents, or null for a snapshot.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * For a snapshot, a hash of its sorted (path, size, mtime) listing; null otherwise.
+     * It tells whether files were added, removed or touched, not whether their bytes are
+     * intact, so it is never presented as a checksum.
+     */
+    public String getListingChecksum() {
+        return listingChecksum;
+    }
+
+    /**
+     * Bytes written without compression because the policy judged them incompressible.
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public long getCpuSavedMillis() {
+        return cpuSavedMillis;
+    }
+
+    public double getCompressionRatio() {
+        if (uncompressedBytes <= 0) {
+            return 1;
+        }
+        return (double) compressedBytes / uncompressedBytes;
+    }
+
+    public double getThroughputMBps() {
+        if (elapsedMillis <= 0) {
+            return 0;
+        }
+        return (uncompressedBytes / (1024.0 * 1024.0)) / (elapsedMillis / 1000.0);
+    }
+}
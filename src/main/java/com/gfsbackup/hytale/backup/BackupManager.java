@@ -1,10 +1,14 @@
 package com.gfsbackup.hytale.backup;
 
 import com.gfsbackup.hytale.config.BackupConfig;
+import com.gfsbackup.hytale.config.BackupFormat;
+import com.gfsbackup.hytale.retention.ArchiveLocks;
 import com.gfsbackup.hytale.retention.BackupIndex;
 import com.gfsbackup.hytale.retention.BackupMetadata;
 import com.gfsbackup.hytale.retention.BackupTier;
+import com.gfsbackup.hytale.retention.ReclaimQueue;
 import com.gfsbackup.hytale.retention.RetentionPolicy;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hypixel.hytale.server.core.command.system.CommandManager;
 import com.hypixel.hytale.server.core.console.ConsoleSender;
 import org.slf4j.Logger;
@@ -12,11 +16,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class BackupManager {
     private static final Logger logger = LoggerFactory.getLogger(BackupManager.class);
@@ -28,9 +46,36 @@ public class BackupManager {
     private final File worldFolder;
     private final BackupIndex index;
     private final RetentionPolicy retentionPolicy;
+    private final ReclaimQueue reclaimQueue;
     private final HookExecutor hookExecutor;
+    private final ChunkStore chunkStore;
+    private final IncrementalBackup incrementalBackup;
+    private final SnapshotStore snapshotStore;
+    private final IndexReconciler reconciler;
 
+    private final StagingArea stagingArea;
+    private final ExecutorService backgroundWorker;
+    private final ExecutorService reclaimWorker;
+    private final DirtyTracker dirtyTracker;
+
+    // Guarded by captureLock
+    private WorldFingerprint worldState;
+    private String lastFingerprint;
+
+    // Lock order: captureLock, then an archive's lock, then backupLock, then chunkStoreLock.
+    // A reclaim pass takes chunkStoreLock on its own, after its archive locks are released.
+    // backupLock covers changes to the index and is only held for short index transactions
+    // and retention; long archive work holds just the locks of the archives it touches.
     private final Object backupLock = new Object();
+    private final Object captureLock = new Object();
+    private final Object chunkStoreLock = new Object();
+    private final Object restoreLock = new Object();
+    private final ArchiveLocks archiveLocks = new ArchiveLocks();
+    // Archives being written that aren't in the index yet, so cleanup leaves them alone
+    private final Map<String, BackupFormat> inProgress = new ConcurrentHashMap<>();
+    // Each tier's own I/O buckets, charged on top of the shared ones by work on that tier
+    private final Map<BackupTier, IoThrottle.Limit> tierLimits = new EnumMap<>(BackupTier.class);
+    private volatile ExtractionProgress restoreProgress;
 
     public BackupManager(BackupConfig config, File serverDirectory) throws IOException {
         this.config = config;
@@ -44,136 +89,666 @@ public class BackupManager {
         this.index = new BackupIndex(indexFile);
         this.index.load();
 
-        this.retentionPolicy = new RetentionPolicy(config, index, backupFolder);
+        this.reclaimWorker = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-reclaim-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        this.reclaimQueue = new ReclaimQueue(index, backupFolder, archiveLocks, reclaimWorker);
+        this.retentionPolicy = new RetentionPolicy(config, index, reclaimQueue);
         this.hookExecutor = new HookExecutor(serverDirectory);
+        this.chunkStore = new ChunkStore(new File(backupFolder, "chunks"));
+        this.incrementalBackup = new IncrementalBackup(backupFolder);
+        this.reclaimQueue.setListener(this::reclaimed);
+        this.snapshotStore = new SnapshotStore();
+        this.stagingArea = new StagingArea(new File(backupFolder, ".staging"));
+        this.stagingArea.cleanup();
+        this.backgroundWorker = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-archive-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        this.dirtyTracker = startDirtyTracker();
+
+        IoThrottle.READ.configure(config.getAdvanced().getReadLimitMBps(), config.getAdvanced().isBurstWhenIdle());
+        IoThrottle.WRITE.configure(config.getAdvanced().getWriteLimitMBps(), config.getAdvanced().isBurstWhenIdle());
+        IoThrottle.OPS.configure(config.getAdvanced().getIoOpsLimit(), config.getAdvanced().isBurstWhenIdle());
+        for (BackupTier tier : BackupTier.values()) {
+            double limit = settingsForTier(tier).getIoLimitMBps();
+            if (limit > 0) {
+                tierLimits.put(tier, new IoThrottle.Limit(limit, config.getAdvanced().isBurstWhenIdle()));
+            }
+        }
+        DirectIo.setEnabled(config.getAdvanced().isDirectIo());
+
+        this.reconciler = new IndexReconciler(backupFolder, index, chunkStore, incrementalBackup,
+                config.getAdvanced().getCompressionThreads());
+        reconcileIndex();
+        // Deletions retention queued before the last shutdown
+        reclaimQueue.schedule();
     }
 
     public BackupMetadata createBackup() throws Exception {
-        synchronized (backupLock) {
-            logger.info("Starting backup creation...");
+        return createBackup(false);
+    }
 
-            hookExecutor.executePreBackupHooks(config.getHooks().getPreBackup());
+    /**
+     * Creates a backup and waits for it to be archived. With {@code skipIfUnchanged} and
+     * {@code skipUnchanged} on, returns null instead when the world is exactly as it was at
+     * the latest backup.
+     */
+    public BackupMetadata createBackup(boolean skipIfUnchanged) throws Exception {
+        try {
+            return createBackupAsync(skipIfUnchanged).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
 
-            if (config.getAdvanced().isServerSaveBeforeBackup()) {
-                try {
-                    logger.info("Triggering server save before backup...");
-                    CommandManager.get().handleCommand(ConsoleSender.INSTANCE, "save");
-                    Thread.sleep(2000);
-                } catch (Exception e) {
-                    logger.warn("Server save command failed, proceeding with backup anyway", e);
+    public CompletableFuture<BackupMetadata> createBackupAsync() throws Exception {
+        return createBackupAsync(false);
+    }
+
+    /**
+     * Runs the capture phase and returns as soon as the world has been copied into staging.
+     * Compression, checksumming, indexing and retention run afterwards on the background
+     * worker; the returned future completes with the indexed backup, or with null when the
+     * backup was skipped because the world had not changed.
+     */
+    public CompletableFuture<BackupMetadata> createBackupAsync(boolean skipIfUnchanged) throws Exception {
+        return createBackupAsync(skipIfUnchanged, new BackupProgress());
+    }
+
+    /**
+     * As {@link #createBackupAsync(boolean)}, reporting each phase to {@code progress}.
+     */
+    public CompletableFuture<BackupMetadata> createBackupAsync(boolean skipIfUnchanged, BackupProgress progress)
+            throws Exception {
+        Capture capture;
+        synchronized (captureLock) {
+            try (IoThrottle.Scope ioLimit = limitIo(BackupTier.SON);
+                 IoThrottle.Scope metered = progress.meter()) {
+                capture = capture(skipIfUnchanged, progress);
+            }
+        }
+
+        if (capture == null) {
+            progress.phase(BackupProgress.Phase.DONE);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (capture.source == worldFolder) {
+            // Staging is off: archive straight from the world, as before
+            return CompletableFuture.completedFuture(finishBackup(capture));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return finishBackup(capture);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, backgroundWorker);
+    }
+
+    /**
+     * Phase one: save, then copy the world somewhere it can't change. This is the only part
+     * of a staged backup that reads live world files.
+     */
+    private Capture capture(boolean skipIfUnchanged, BackupProgress progress) throws Exception {
+        logger.info("Starting backup creation...");
+
+        hookExecutor.executePreBackupHooks(config.getHooks().getPreBackup());
+
+        int threads = config.getAdvanced().getCompressionThreads();
+        long saveWaitMillis = 0;
+        if (config.getAdvanced().isServerSaveBeforeBackup()) {
+            try {
+                logger.info("Triggering server save before backup...");
+                CommandManager.get().handleCommand(ConsoleSender.INSTANCE, "save");
+                saveWaitMillis = new SaveWaiter(worldFolder, dirtyTracker, threads).awaitQuiet(
+                        config.getAdvanced().getSaveSettleMillis(),
+                        config.getAdvanced().getSaveTimeoutMillis());
+                logger.info("World settled {} ms after save", saveWaitMillis);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.warn("Server save command failed, proceeding with backup anyway", e);
+            }
+        }
+
+        String fingerprint = null;
+        String baseFingerprint = lastFingerprint;
+        Set<String> changed = null;
+        if (config.getAdvanced().isSkipUnchanged() || dirtyTracker != null) {
+            long start = System.currentTimeMillis();
+            changed = refreshWorldState(threads);
+            fingerprint = worldState.digest();
+            lastFingerprint = fingerprint;
+            logger.debug("World fingerprint {} computed in {} ms ({})", fingerprint, System.currentTimeMillis() - start,
+                    changed != null ? changed.size() + " changed files" : "full scan");
+
+            if (skipIfUnchanged && config.getAdvanced().isSkipUnchanged()) {
+                synchronized (backupLock) {
+                    BackupMetadata latest = findLatestBackup();
+                    if (latest != null && !latest.isMissing() && fingerprint.equals(latest.getFingerprint())) {
+                        index.recordUnchanged(System.currentTimeMillis());
+                        index.save();
+                        logger.info("World unchanged since {}, skipping backup", latest.getFilename());
+                        return null;
+                    }
                 }
             }
+        }
 
-            String filename = FILENAME_FORMAT.format(new Date()) + ".zip";
-            File backupFile = new File(backupFolder, filename);
+        BackupFormat format = formatForTier(BackupTier.SON);
+        ensureSpaceFor(format);
 
-            logger.info("Creating backup: {}", filename);
-            ZipUtility.createZip(worldFolder, backupFile);
+        long createdAt = System.currentTimeMillis();
+        String timestamp = FILENAME_FORMAT.format(new Date(createdAt));
+        Capture capture = new Capture(timestamp + format.getExtension(), format, createdAt, progress);
+        capture.saveWaitMillis = saveWaitMillis;
 
-            if (config.getAdvanced().isDeleteEmptyBackups() && backupFile.length() < 1024) {
-                logger.warn("Backup is too small ({}  bytes), deleting", backupFile.length());
-                backupFile.delete();
-                throw new IOException("Backup file is empty or too small");
+        BackupMetadata latest = findLatestBackup();
+        progress.expect(latest != null ? latest.getUncompressedBytes() : 0);
+        progress.phase(BackupProgress.Phase.CAPTURING);
+
+        if (format == BackupFormat.SNAPSHOT) {
+            // A snapshot is already an unchanging copy; it is its own capture
+            File previous;
+            synchronized (backupLock) {
+                previous = findPreviousSnapshot();
+            }
+            try (ArchiveLocks.Hold hold = archiveLocks.read(previous != null ? List.of(previous.getName()) : List.of())) {
+                capture.result = snapshotStore.create(worldFolder, new File(backupFolder, capture.filename),
+                        previous != null && previous.isDirectory() ? previous : null, threads);
             }
+        } else if (config.getAdvanced().isStagedCapture()) {
+            capture.staged = stagingArea.capture(worldFolder, timestamp, threads);
+            capture.source = capture.staged;
+        } else {
+            capture.source = worldFolder;
+        }
 
-            String checksum = ZipUtility.calculateChecksum(backupFile);
+        if (changed != null) {
+            // Files written while the world was being copied may be in the capture in either
+            // state, so archive them too. They stay in the tracker and the fingerprint stays
+            // the one from before the copy, so the next backup looks at them again
+            Set<String> duringCopy = dirtyTracker != null ? dirtyTracker.peek() : null;
+            if (duringCopy != null) {
+                changed.addAll(duringCopy);
+                capture.changedFiles = changed;
+                capture.baseFingerprint = baseFingerprint;
+                capture.directories = worldState.directories();
+            }
+        }
+        capture.fingerprint = fingerprint;
+        capture.captureMillis = System.currentTimeMillis() - createdAt;
+        return capture;
+    }
 
-            BackupMetadata metadata = new BackupMetadata(
-                    filename,
-                    BackupTier.SON,
-                    System.currentTimeMillis(),
-                    backupFile.length(),
-                    checksum
-            );
+    /**
+     * Makes room for the next backup before any of it is written: retires backups, cheapest
+     * to lose first, until its predicted size fits both the total byte budget and the disk
+     * with {@code minFreeSpaceMB} to spare. Fails the backup up front if even that leaves
+     * too little space for it.
+     */
+    private void ensureSpaceFor(BackupFormat format) throws IOException {
+        long predicted = retentionPolicy.predictNextBackupSize(format);
+        long headroom = config.getAdvanced().getMinFreeSpaceMB() * 1024 * 1024;
+        long totalLimit = config.getAdvanced().getMaxTotalSizeMB() * 1024 * 1024;
+        long needed = predicted + headroom - backupFolder.getUsableSpace();
+        if (needed > 0 && index.snapshot().getPendingDeletions() > 0) {
+            // Expired backups still waiting for the reclaim queue may be enough
+            reclaimQueue.reclaimNow();
+            needed = predicted + headroom - backupFolder.getUsableSpace();
+        }
+        if (totalLimit > 0) {
+            needed = Math.max(needed, index.getTotalSizeBytes() + predicted - totalLimit);
+        }
+        if (needed <= 0) {
+            return;
+        }
+
+        logger.warn("Next backup is expected to take {} MB, freeing {} MB first",
+                predicted / (1024 * 1024), needed / (1024 * 1024));
+        synchronized (backupLock) {
+            if (retentionPolicy.evict(needed) > 0) {
+                index.save();
+            }
+        }
+        reclaimQueue.reclaimNow();
+
+        long usable = backupFolder.getUsableSpace();
+        if (usable < predicted) {
+            throw new IOException(String.format("Not enough disk space for the next backup: about %d MB needed, %d MB free",
+                    predicted / (1024 * 1024), usable / (1024 * 1024)));
+        }
+        if (usable < predicted + headroom) {
+            logger.warn("Only {} MB will be left free after the next backup", (usable - predicted) / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Phase two: build the archive from the capture, then index it and apply retention.
+     */
+    private BackupMetadata finishBackup(Capture capture) throws Exception {
+        String filename = capture.filename;
+        BackupFormat format = capture.format;
+        File backupFile = new File(backupFolder, filename);
+
+        inProgress.put(filename, format);
+        try (IoThrottle.Scope metered = capture.progress.meter()) {
+            return finishBackup(capture, filename, format, backupFile);
+        } finally {
+            inProgress.remove(filename);
+        }
+    }
+
+    private BackupMetadata finishBackup(Capture capture, String filename, BackupFormat format, File backupFile)
+            throws Exception {
+        int threads = ParallelZipWriter.resolveThreads(config.getAdvanced().getCompressionThreads());
+        logger.info("Creating {} backup: {} ({} compression threads)", format, filename, threads);
+        CompressionPolicy policy = CompressionPolicy.fromConfig(config.getAdvanced());
+        List<String> parentChain = new ArrayList<>();
+        ArchiveResult result = capture.result;
+        if (result == null) {
+            capture.progress.phase(BackupProgress.Phase.ARCHIVING);
+            try (IoThrottle.Scope ioLimit = limitIo(BackupTier.SON)) {
+                result = archive(capture, backupFile, parentChain, threads, policy);
+            }
+        }
+        logger.info("Compressed {} entries, {} MB -> {} MB in {} ms ({} MB/s)",
+                result.getEntryCount(),
+                result.getUncompressedBytes() / (1024 * 1024),
+                result.getCompressedBytes() / (1024 * 1024),
+                result.getElapsedMillis(),
+                String.format("%.1f", result.getThroughputMBps()));
+        if (result.getStoredBytes() > 0) {
+            logger.info("Stored {} MB of incompressible data as-is (ratio {}, ~{} ms of compression saved)",
+                    result.getStoredBytes() / (1024 * 1024),
+                    String.format("%.2f", result.getCompressionRatio()),
+                    result.getCpuSavedMillis());
+        }
 
+        // An incremental of an idle world is legitimately tiny
+        // A snapshot of a static world legitimately copies nothing, so judge it by what it holds
+        boolean tooSmall = format == BackupFormat.SNAPSHOT
+                ? result.getUncompressedBytes() == 0
+                : backupFile.length() < 1024;
+        if (config.getAdvanced().isDeleteEmptyBackups() && parentChain.isEmpty() && tooSmall) {
+            logger.warn("Backup is too small ({}  bytes), deleting", result.getCompressedBytes());
+            deleteBackupFile(backupFile);
+            throw new IOException("Backup file is empty or too small");
+        }
+
+        String checksum = result.getChecksum();
+        long sizeBytes = result.getCompressedBytes();
+
+        BackupMetadata metadata = new BackupMetadata(
+                filename,
+                BackupTier.SON,
+                capture.createdAt,
+                sizeBytes,
+                checksum
+        );
+        metadata.setFormat(format);
+        metadata.setListingChecksum(result.getListingChecksum());
+        metadata.setUncompressedBytes(result.getUncompressedBytes());
+        metadata.setCompressionSavedMillis(result.getCpuSavedMillis());
+        metadata.setCaptureMillis(capture.captureMillis);
+        metadata.setSaveWaitMillis(capture.saveWaitMillis);
+        metadata.setFingerprint(capture.fingerprint);
+        if (!parentChain.isEmpty()) {
+            metadata.setParentChain(parentChain);
+        }
+
+        capture.progress.phase(BackupProgress.Phase.FINISHING);
+        synchronized (backupLock) {
             index.addBackup(metadata);
             index.save();
 
-            logger.info("Backup created successfully: {} ({} bytes)", filename, backupFile.length());
+            logger.info("Backup created successfully: {} ({} bytes, world captured in {} ms)",
+                    filename, sizeBytes, capture.captureMillis);
 
             retentionPolicy.apply();
             index.save();
+        }
+        // Conversions re-encode whole archives, so they only lock the archive being converted
+        applyTierFormats();
+        // Chunks of retired chunked backups are collected by the reclaim queue once their manifests are gone
+        synchronized (backupLock) {
+            releaseIncrementalArchives();
+        }
+        reclaimQueue.schedule();
+
+        if (capture.staged != null) {
+            stagingArea.release(capture.staged);
+        }
 
-            hookExecutor.executePostBackupHooks(
-                    config.getHooks().getPostBackup(),
-                    backupFile.getAbsolutePath(),
-                    filename,
-                    BackupTier.SON.name(),
-                    backupFile.length()
-            );
+        hookExecutor.executePostBackupHooks(
+                config.getHooks().getPostBackup(),
+                backupFile.getAbsolutePath(),
+                filename,
+                BackupTier.SON.name(),
+                sizeBytes
+        );
 
-            return metadata;
+        capture.progress.phase(BackupProgress.Phase.DONE);
+        return metadata;
+    }
+
+    /**
+     * Builds the archive for a staged or live capture. Fills {@code parentChain} for incrementals.
+     */
+    private ArchiveResult archive(Capture capture, File backupFile, List<String> parentChain, int threads,
+                                  CompressionPolicy policy) throws IOException {
+        BackupFormat format = capture.format;
+        if (format == BackupFormat.CHUNKED) {
+            // Chunk garbage collection waits for this, and then counts the new manifest as
+            // live through inProgress until it is indexed
+            synchronized (chunkStoreLock) {
+                return chunkStore.store(capture.source, backupFile, threads);
+            }
+        }
+        if (format == BackupFormat.ZIP && config.getAdvanced().isIncrementalBackups()) {
+            BackupMetadata parent;
+            synchronized (backupLock) {
+                parent = findIncrementalParent();
+            }
+            List<String> chain = new ArrayList<>();
+            if (parent != null) {
+                chain.add(parent.getFilename());
+                chain.addAll(parent.getParentChain());
+            }
+            // Read locks keep the archives this one builds on from being deleted meanwhile
+            try (ArchiveLocks.Hold hold = archiveLocks.read(chain)) {
+                synchronized (backupLock) {
+                    if (parent != null && index.getBackupByFilename(parent.getFilename()) != parent) {
+                        logger.info("Parent backup {} was deleted, taking a full backup instead", parent.getFilename());
+                        parent = null;
+                        chain.clear();
+                    }
+                }
+                parentChain.addAll(chain);
+                // The tracked change set is only valid against the backup taken at the state it
+                // was measured from; anything else falls back to comparing every file
+                boolean tracked = parent != null && capture.changedFiles != null
+                        && capture.baseFingerprint != null && capture.baseFingerprint.equals(parent.getFingerprint());
+                return incrementalBackup.create(capture.source, backupFile,
+                        parent != null ? parent.getFilename() : null, threads, policy,
+                        tracked ? capture.changedFiles : null, capture.directories);
+            }
+        }
+        return ArchiveFormat.forFormat(format).create(capture.source, backupFile, threads, policy);
+    }
+
+    /**
+     * Waits for queued background work to finish, up to a limit, and folds the index journal
+     * into its snapshot, on plugin shutdown.
+     */
+    public void shutdown() {
+        if (dirtyTracker != null) {
+            dirtyTracker.close();
+        }
+        backgroundWorker.shutdown();
+        try {
+            if (!backgroundWorker.awaitTermination(2, TimeUnit.MINUTES)) {
+                logger.warn("Background backup work still running at shutdown, abandoning it");
+                backgroundWorker.shutdownNow();
+            }
+            // Whatever isn't deleted by then stays pending in the index for the next start
+            reclaimWorker.shutdown();
+            reclaimWorker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            backgroundWorker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            index.compact();
+        } catch (IOException e) {
+            logger.warn("Failed to compact the backup index journal, it will be replayed on the next start", e);
         }
     }
 
     public void restoreBackup(String filename) throws Exception {
-        synchronized (backupLock) {
+        synchronized (restoreLock) {
             logger.info("Restoring backup: {}", filename);
 
-            BackupMetadata metadata = index.getBackupByFilename(filename);
+            BackupMetadata metadata = index.snapshot().get(filename);
             if (metadata == null) {
                 throw new IOException("Backup not found: " + filename);
             }
-
-            File backupFile = new File(backupFolder, filename);
-            if (!backupFile.exists()) {
-                throw new IOException("Backup file does not exist: " + filename);
+            try (ArchiveLocks.Hold hold = lockForReading(metadata)) {
+                restoreBackup(metadata);
             }
+        }
+    }
+
+    private void restoreBackup(BackupMetadata metadata) throws Exception {
+        String filename = metadata.getFilename();
+
+        File backupFile = new File(backupFolder, filename);
+        if (!backupFile.exists()) {
+            throw new IOException("Backup file does not exist: " + filename);
+        }
+
+        // TODO: Implement server stop/start when Hytale API is available
+        // For now, just extract to a temporary location
+        File tempRestoreFolder = new File(serverDirectory, "temp-restore");
+        if (tempRestoreFolder.exists()) {
+            deleteDirectory(tempRestoreFolder);
+        }
+
+        ExtractionProgress progress = new ExtractionProgress();
+        restoreProgress = progress;
+        long start = System.currentTimeMillis();
+        extractBackup(metadata, tempRestoreFolder, progress);
+        logger.info("Extracted {} files ({} MB) in {} ms",
+                progress.getEntriesDone(), progress.getBytesDone() / (1024 * 1024), System.currentTimeMillis() - start);
+
+        logger.info("Backup extracted to: {}", tempRestoreFolder.getAbsolutePath());
+        logger.warn("Manual intervention required: Stop server, replace world folder, and restart");
+    }
+
+    /**
+     * Restores one file or directory from a backup into temp-restore, without extracting
+     * the rest of the archive. {@code path} is relative to the world folder, with '/' separators.
+     * Returns the number of files restored.
+     */
+    public int restorePath(String filename, String path) throws Exception {
+        String normalized = path.replace('\\', '/').replaceAll("^/+|/+$", "");
+        if (normalized.isEmpty() || normalized.equals("..") || normalized.startsWith("../") || normalized.contains("/../")) {
+            throw new IOException("Invalid path: " + path);
+        }
+
+        synchronized (restoreLock) {
+            logger.info("Restoring {} from backup {}", normalized, filename);
 
-            // TODO: Implement server stop/start when Hytale API is available
-            // For now, just extract to a temporary location
-            File tempRestoreFolder = new File(serverDirectory, "temp-restore");
-            if (tempRestoreFolder.exists()) {
-                deleteDirectory(tempRestoreFolder);
+            BackupMetadata metadata = index.snapshot().get(filename);
+            if (metadata == null) {
+                throw new IOException("Backup not found: " + filename);
             }
+            try (ArchiveLocks.Hold hold = lockForReading(metadata)) {
+                return restorePath(metadata, normalized);
+            }
+        }
+    }
+
+    private int restorePath(BackupMetadata metadata, String normalized) throws Exception {
+        String filename = metadata.getFilename();
+
+        File backupFile = new File(backupFolder, filename);
+        if (!backupFile.exists()) {
+            throw new IOException("Backup file does not exist: " + filename);
+        }
 
-            ZipUtility.extractZip(backupFile, tempRestoreFolder);
+        File tempRestoreFolder = new File(serverDirectory, "temp-restore");
+        if (tempRestoreFolder.exists()) {
+            deleteDirectory(tempRestoreFolder);
+        }
 
-            logger.info("Backup extracted to: {}", tempRestoreFolder.getAbsolutePath());
-            logger.warn("Manual intervention required: Stop server, replace world folder, and restart");
+        ExtractionProgress progress = new ExtractionProgress();
+        restoreProgress = progress;
+        long start = System.currentTimeMillis();
+        int threads = config.getAdvanced().getCompressionThreads();
+        int restored;
+        try (IoThrottle.Scope ioLimit = limitIo(metadata.getTier())) {
+            if (metadata.getFormat() == BackupFormat.CHUNKED) {
+                restored = chunkStore.restorePath(backupFile, normalized, tempRestoreFolder, threads, progress);
+            } else if (metadata.getFormat() == BackupFormat.SNAPSHOT) {
+                restored = snapshotStore.restorePath(backupFile, normalized, tempRestoreFolder, threads, progress);
+            } else if (metadata.isIncremental()) {
+                restored = incrementalBackup.restorePath(filename, normalized, tempRestoreFolder, threads, progress);
+            } else {
+                restored = ArchiveFormat.forFormat(metadata.getFormat())
+                        .extractPath(backupFile, normalized, tempRestoreFolder, threads, progress);
+            }
         }
+
+        if (restored == 0) {
+            throw new IOException("No files matching " + normalized + " in backup " + filename);
+        }
+        logger.info("Restored {} files ({} KB) matching {} to {} in {} ms",
+                restored, progress.getBytesDone() / 1024, normalized,
+                tempRestoreFolder.getAbsolutePath(), System.currentTimeMillis() - start);
+        return restored;
     }
 
+    /**
+     * Deletes a backup. Waits for restores and downloads of this backup to finish, but not
+     * for a backup being created or work on other archives.
+     */
     public void deleteBackup(String filename) throws IOException {
-        synchronized (backupLock) {
-            logger.info("Deleting backup: {}", filename);
-
+        logger.info("Deleting backup: {}", filename);
+        try (ArchiveLocks.Hold hold = archiveLocks.write(filename)) {
             BackupMetadata metadata = index.getBackupByFilename(filename);
             if (metadata == null) {
                 throw new IOException("Backup not found in index: " + filename);
             }
 
+            // Nothing can start building on this archive while the write lock is held
             File backupFile = new File(backupFolder, filename);
-            if (backupFile.exists()) {
-                if (backupFile.delete()) {
+            if (isNeededByIncrementalChain(metadata)) {
+                logger.info("Archive {} kept on disk until the incremental backups built on it are deleted", filename);
+            } else if (backupFile.exists()) {
+                if (deleteBackupFile(backupFile)) {
                     logger.info("Backup file deleted: {}", filename);
                 } else {
                     throw new IOException("Failed to delete backup file: " + filename);
                 }
             }
 
-            index.removeBackup(metadata);
-            index.save();
+            synchronized (backupLock) {
+                index.removeBackup(metadata);
+                index.save();
+
+                if (metadata.getFormat() == BackupFormat.CHUNKED) {
+                    collectChunkGarbage();
+                }
+                releaseIncrementalArchives();
+            }
         }
+        reclaimQueue.schedule();
     }
 
+    public void exportBackupAsZip(String filename, OutputStream out) throws IOException {
+        BackupMetadata metadata = index.snapshot().get(filename);
+        if (metadata == null) {
+            throw new IOException("Backup not found: " + filename);
+        }
+        try (ArchiveLocks.Hold hold = lockForReading(metadata);
+             IoThrottle.Scope ioLimit = limitIo(metadata.getTier())) {
+            if (metadata.isIncremental()) {
+                incrementalBackup.exportZip(filename, out);
+            } else if (metadata.getFormat() == BackupFormat.SNAPSHOT) {
+                snapshotStore.exportZip(new File(backupFolder, filename), out, config.getAdvanced().getCompressionThreads());
+            } else {
+                chunkStore.exportZip(new File(backupFolder, filename), out);
+            }
+        }
+    }
+
+    /**
+     * Applies the I/O limit of the backup's tier until the scope is closed, for callers
+     * that stream backup files themselves.
+     */
+    public IoThrottle.Scope limitIoFor(BackupMetadata metadata) {
+        return limitIo(metadata.getTier());
+    }
+
+    /**
+     * Keeps the backup, and the archives an incremental reads from, from being deleted or
+     * converted until the hold is closed. Fails if the backup was deleted before the lock
+     * was granted.
+     */
+    public ArchiveLocks.Hold lockForReading(BackupMetadata metadata) throws IOException {
+        List<String> archives = new ArrayList<>();
+        archives.add(metadata.getFilename());
+        archives.addAll(metadata.getParentChain());
+        ArchiveLocks.Hold hold = archiveLocks.read(archives);
+        if (index.getBackupByFilename(metadata.getFilename()) == null) {
+            hold.close();
+            throw new IOException("Backup not found: " + metadata.getFilename());
+        }
+        return hold;
+    }
+
+    /**
+     * Progress of the running restore, or of the last one if none is running. Null before the first restore.
+     */
+    public ExtractionProgress getRestoreProgress() {
+        return restoreProgress;
+    }
+
+    /**
+     * The backups as of the latest index save. Never blocks; the list and its entries are
+     * immutable copies.
+     */
     public List<BackupMetadata> getAllBackups() {
-        return index.getAllBackups();
+        return index.snapshot().getAllBackups();
     }
 
     public BackupMetadata getBackupByFilename(String filename) {
-        return index.getBackupByFilename(filename);
+        return index.snapshot().get(filename);
     }
 
     public Map<String, Object> getBackupStats() {
+        BackupIndex.Snapshot snapshot = index.snapshot();
         Map<String, Object> stats = new HashMap<>();
-        stats.put("totalBackups", index.getTotalBackups());
-        stats.put("totalSizeBytes", index.getTotalSizeBytes());
-        stats.put("lastBackup", index.getLastBackup());
+        stats.put("totalBackups", snapshot.getTotalBackups());
+        stats.put("totalSizeBytes", snapshot.getTotalSizeBytes());
+        stats.put("lastBackup", snapshot.getLastBackup());
+        stats.put("unchangedSkips", snapshot.getUnchangedSkips());
+        stats.put("lastUnchanged", snapshot.getLastUnchanged());
+
+        stats.put("sonCount", snapshot.countByTier(BackupTier.SON));
+        stats.put("fatherCount", snapshot.countByTier(BackupTier.FATHER));
+        stats.put("grandfatherCount", snapshot.countByTier(BackupTier.GRANDFATHER));
+        stats.put("sonSizeBytes", snapshot.getSizeBytesByTier(BackupTier.SON));
+        stats.put("fatherSizeBytes", snapshot.getSizeBytesByTier(BackupTier.FATHER));
+        stats.put("grandfatherSizeBytes", snapshot.getSizeBytesByTier(BackupTier.GRANDFATHER));
+        stats.put("freeSpaceBytes", backupFolder.getUsableSpace());
+        stats.put("predictedNextBackupBytes", retentionPolicy.predictNextBackupSize(formatForTier(BackupTier.SON)));
+
+        ExtractionProgress progress = restoreProgress;
+        if (progress != null) {
+            stats.put("restoreProgress", progress.toMap());
+        }
+        Map<String, Object> ioThrottle = IoThrottle.metrics();
+        Map<String, Object> tiers = new HashMap<>();
+        tierLimits.forEach((tier, limit) -> tiers.put(tier.name(), limit.toMap()));
+        ioThrottle.put("tiers", tiers);
+        stats.put("ioThrottle", ioThrottle);
 
-        stats.put("sonCount", index.getBackupsByTier(BackupTier.SON).size());
-        stats.put("fatherCount", index.getBackupsByTier(BackupTier.FATHER).size());
-        stats.put("grandfatherCount", index.getBackupsByTier(BackupTier.GRANDFATHER).size());
+        Map<String, Object> reclaim = reclaimQueue.metrics();
+        reclaim.put("pendingDeletions", snapshot.getPendingDeletions());
+        reclaim.put("pendingDeletionBytes", snapshot.getPendingDeletionBytes());
+        stats.put("reclaim", reclaim);
 
         return stats;
     }
@@ -191,23 +766,45 @@ public class BackupManager {
         snapshots.put("enabled", son.isEnabled());
         snapshots.put("intervalMinutes", son.getIntervalMinutes());
         snapshots.put("retentionCount", son.getRetentionCount());
+        snapshots.put("format", formatForTier(BackupTier.SON).name());
+        snapshots.put("maxSizeMB", son.getMaxSizeMB());
         summary.put("snapshots", snapshots);
 
         Map<String, Object> dailies = new HashMap<>();
         dailies.put("enabled", father.isEnabled());
         dailies.put("intervalMinutes", father.getIntervalMinutes());
         dailies.put("retentionCount", father.getRetentionCount());
+        dailies.put("format", formatForTier(BackupTier.FATHER).name());
+        dailies.put("maxSizeMB", father.getMaxSizeMB());
         summary.put("dailies", dailies);
 
         Map<String, Object> archives = new HashMap<>();
         archives.put("enabled", grandfather.isEnabled());
         archives.put("intervalMinutes", grandfather.getIntervalMinutes());
         archives.put("retentionCount", grandfather.getRetentionCount());
+        archives.put("format", formatForTier(BackupTier.GRANDFATHER).name());
+        archives.put("maxSizeMB", grandfather.getMaxSizeMB());
         summary.put("archives", archives);
 
         Map<String, Object> advanced = new HashMap<>();
         advanced.put("serverSaveBeforeBackup", config.getAdvanced().isServerSaveBeforeBackup());
+        advanced.put("saveSettleMillis", config.getAdvanced().getSaveSettleMillis());
+        advanced.put("saveTimeoutMillis", config.getAdvanced().getSaveTimeoutMillis());
         advanced.put("asyncBackup", config.getAdvanced().isAsyncBackup());
+        advanced.put("backupFormat", config.getAdvanced().getBackupFormat().name());
+        advanced.put("incrementalBackups", config.getAdvanced().isIncrementalBackups());
+        advanced.put("compressionThreads", ParallelZipWriter.resolveThreads(config.getAdvanced().getCompressionThreads()));
+        advanced.put("adaptiveCompression", config.getAdvanced().isAdaptiveCompression());
+        advanced.put("stagedCapture", config.getAdvanced().isStagedCapture());
+        advanced.put("skipUnchanged", config.getAdvanced().isSkipUnchanged());
+        advanced.put("watchWorld", config.getAdvanced().isWatchWorld());
+        advanced.put("readLimitMBps", config.getAdvanced().getReadLimitMBps());
+        advanced.put("writeLimitMBps", config.getAdvanced().getWriteLimitMBps());
+        advanced.put("ioOpsLimit", config.getAdvanced().getIoOpsLimit());
+        advanced.put("burstWhenIdle", config.getAdvanced().isBurstWhenIdle());
+        advanced.put("directIo", config.getAdvanced().isDirectIo());
+        advanced.put("maxTotalSizeMB", config.getAdvanced().getMaxTotalSizeMB());
+        advanced.put("minFreeSpaceMB", config.getAdvanced().getMinFreeSpaceMB());
         summary.put("advanced", advanced);
 
         return summary;
@@ -217,6 +814,363 @@ public class BackupManager {
         return new File(backupFolder, filename);
     }
 
+    /**
+     * The format backups in {@code tier} are kept in: the tier's own setting, falling back
+     * to {@code advanced.backupFormat}.
+     */
+    private BackupFormat formatForTier(BackupTier tier) {
+        BackupConfig.TierSettings settings = settingsForTier(tier);
+        return settings.getFormat() != null ? settings.getFormat() : config.getAdvanced().getBackupFormat();
+    }
+
+    private IoThrottle.Scope limitIo(BackupTier tier) {
+        return IoThrottle.limit(tierLimits.get(tier));
+    }
+
+    private BackupConfig.TierSettings settingsForTier(BackupTier tier) {
+        switch (tier) {
+            case FATHER:
+                return config.getTiers().getFather();
+            case GRANDFATHER:
+                return config.getTiers().getGrandfather();
+            default:
+                return config.getTiers().getSon();
+        }
+    }
+
+    private void extractBackup(BackupMetadata metadata, File destFolder, ExtractionProgress progress) throws IOException {
+        File backupFile = new File(backupFolder, metadata.getFilename());
+        int threads = config.getAdvanced().getCompressionThreads();
+        try (IoThrottle.Scope ioLimit = limitIo(metadata.getTier())) {
+            if (metadata.getFormat() == BackupFormat.CHUNKED) {
+                chunkStore.restore(backupFile, destFolder, threads, progress);
+            } else if (metadata.getFormat() == BackupFormat.SNAPSHOT) {
+                snapshotStore.restore(backupFile, destFolder, threads, progress);
+            } else if (metadata.isIncremental()) {
+                incrementalBackup.restore(metadata.getFilename(), destFolder, threads, progress);
+            } else {
+                ArchiveFormat.forFormat(metadata.getFormat()).extract(backupFile, destFolder, threads, progress);
+            }
+        }
+    }
+
+    /**
+     * Rewrites backups that were promoted into a tier configured with a different format.
+     * Incremental backups and the archives they build on keep their format, since other
+     * backups read files straight out of them.
+     */
+    private void applyTierFormats() {
+        for (BackupMetadata backup : index.getAllBackups()) {
+            BackupFormat target = formatForTier(backup.getTier());
+            if (backup.getFormat() == target || backup.isIncremental()) {
+                continue;
+            }
+            try (ArchiveLocks.Hold hold = archiveLocks.tryWrite(backup.getFilename())) {
+                if (hold == null) {
+                    logger.info("Backup {} is in use, converting it to {} later", backup.getFilename(), target);
+                    continue;
+                }
+                // Checked under the write lock: no new incremental can pick it as a parent now
+                if (index.getBackupByFilename(backup.getFilename()) != backup || isNeededByIncrementalChain(backup)) {
+                    continue;
+                }
+                convertBackup(backup, target);
+            } catch (IOException e) {
+                logger.warn("Failed to convert backup {} to {}, keeping it as {}",
+                        backup.getFilename(), target, backup.getFormat(), e);
+            }
+        }
+    }
+
+    /**
+     * Must hold the backup's write lock.
+     */
+    private void convertBackup(BackupMetadata backup, BackupFormat target) throws IOException {
+        BackupFormat previous = backup.getFormat();
+        String oldFilename = backup.getFilename();
+        String baseName = oldFilename.endsWith(previous.getExtension())
+                ? oldFilename.substring(0, oldFilename.length() - previous.getExtension().length())
+                : oldFilename;
+        String filename = baseName + target.getExtension();
+        File targetFile = new File(backupFolder, filename);
+        File staging = new File(backupFolder, ".convert-" + baseName);
+
+        logger.info("Converting {} backup {} to {} for the {} tier", previous, oldFilename, target, backup.getTier());
+        deleteDirectory(staging);
+        inProgress.put(filename, target);
+        try (IoThrottle.Scope ioLimit = limitIo(backup.getTier())) {
+            extractBackup(backup, staging, null);
+
+            int threads = config.getAdvanced().getCompressionThreads();
+            ArchiveResult result;
+            if (target == BackupFormat.CHUNKED) {
+                synchronized (chunkStoreLock) {
+                    result = chunkStore.store(staging, targetFile, threads);
+                }
+            } else if (target == BackupFormat.SNAPSHOT) {
+                File previousSnapshot;
+                synchronized (backupLock) {
+                    previousSnapshot = findPreviousSnapshot();
+                }
+                // Already holding this backup's lock, so link against the previous snapshot only
+                // if it is free right now; otherwise copy everything
+                ArchiveLocks.Hold hold = previousSnapshot != null ? archiveLocks.tryRead(previousSnapshot.getName()) : null;
+                try {
+                    result = snapshotStore.create(staging, targetFile,
+                            hold != null && previousSnapshot.isDirectory() ? previousSnapshot : null, threads);
+                } finally {
+                    if (hold != null) {
+                        hold.close();
+                    }
+                }
+            } else {
+                result = ArchiveFormat.forFormat(target).create(staging, targetFile, threads,
+                        CompressionPolicy.fromConfig(config.getAdvanced()));
+            }
+
+            synchronized (backupLock) {
+                backup.setFilename(filename);
+                backup.setFormat(target);
+                backup.setSizeBytes(result.getCompressedBytes());
+                backup.setChecksum(result.getChecksum());
+                backup.setListingChecksum(result.getListingChecksum());
+                backup.setUncompressedBytes(result.getUncompressedBytes());
+                backup.setCompressionSavedMillis(result.getCpuSavedMillis());
+                index.updateBackup(backup);
+                index.save();
+            }
+        } finally {
+            inProgress.remove(filename);
+            deleteDirectory(staging);
+        }
+
+        // Only drop the old archive once the index points at the new one
+        deleteBackupFile(new File(backupFolder, oldFilename));
+        if (previous == BackupFormat.CHUNKED) {
+            synchronized (backupLock) {
+                collectChunkGarbage();
+            }
+        }
+        logger.info("Converted {} -> {} ({} bytes)", oldFilename, filename, backup.getSizeBytes());
+    }
+
+    /**
+     * The newest backup, if a new incremental can be built on it without the chain
+     * growing past {@code fullBackupEvery}. Null means the next backup should be full.
+     */
+    private BackupMetadata findIncrementalParent() {
+        BackupMetadata latest = index.getLatestBackup();
+
+        if (latest == null
+                || latest.isMissing()
+                || latest.getFormat() != BackupFormat.ZIP
+                || !incrementalBackup.hasManifest(latest.getFilename())
+                || latest.getParentChain().size() + 1 >= config.getAdvanced().getFullBackupEvery()) {
+            return null;
+        }
+        return latest;
+    }
+
+    /**
+     * Checks the index against the backup folder. Archives adopted from the folder are read
+     * through for their checksums on the background worker, so startup doesn't wait on them.
+     */
+    private void reconcileIndex() {
+        IndexReconciler.Result result;
+        try {
+            result = reconciler.reconcile();
+        } catch (IOException e) {
+            logger.warn("Could not check the backup index against the backup folder", e);
+            return;
+        }
+        List<BackupMetadata> unverified = new ArrayList<>(result.getUnverified());
+        if (!unverified.isEmpty()) {
+            backgroundWorker.execute(() -> verifyAdopted(unverified));
+        }
+    }
+
+    /**
+     * Fills in the checksums of archives adopted from the backup folder, and drops any that
+     * turn out to be cut short after all.
+     */
+    private void verifyAdopted(List<BackupMetadata> adopted) {
+        for (BackupMetadata backup : adopted) {
+            String filename = backup.getFilename();
+            try (ArchiveLocks.Hold hold = archiveLocks.read(List.of(filename))) {
+                synchronized (backupLock) {
+                    if (index.getBackupByFilename(filename) != backup) {
+                        // Deleted or converted in the meantime
+                        continue;
+                    }
+                }
+
+                IndexReconciler.Verified verified;
+                try (IoThrottle.Scope ioLimit = limitIo(backup.getTier())) {
+                    verified = reconciler.verify(backup);
+                } catch (IOException e) {
+                    logger.warn("Adopted backup {} could not be read through, removing it from the index", filename, e);
+                    verified = null;
+                }
+
+                synchronized (backupLock) {
+                    if (index.getBackupByFilename(filename) != backup) {
+                        continue;
+                    }
+                    if (verified == null) {
+                        index.removeBackup(backup);
+                    } else {
+                        backup.setChecksum(verified.getChecksum());
+                        backup.setListingChecksum(verified.getListingChecksum());
+                        backup.setSizeBytes(verified.getSizeBytes());
+                        if (backup.getFormat() == BackupFormat.SNAPSHOT) {
+                            backup.setUncompressedBytes(verified.getSizeBytes());
+                        }
+                        index.updateBackup(backup);
+                    }
+                    index.save();
+                }
+            } catch (IOException e) {
+                logger.error("Failed to save the backup index", e);
+            }
+        }
+        reconciler.saveCache();
+    }
+
+    private DirtyTracker startDirtyTracker() {
+        if (!config.getAdvanced().isWatchWorld() || !worldFolder.isDirectory()) {
+            return null;
+        }
+        try {
+            DirtyTracker tracker = new DirtyTracker(worldFolder);
+            tracker.start();
+            return tracker;
+        } catch (IOException e) {
+            logger.warn("Could not watch the world folder for changes, backups will scan it instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Brings {@link #worldState} up to date. Returns the files changed since the previous
+     * call, or null when the world had to be walked in full because nothing tracked it.
+     */
+    private Set<String> refreshWorldState(int threads) throws IOException {
+        Set<String> dirty = dirtyTracker != null ? dirtyTracker.take() : null;
+        if (dirty != null && worldState != null) {
+            return worldState.update(dirty);
+        }
+        worldState = WorldFingerprint.scan(worldFolder, threads);
+        return null;
+    }
+
+    private BackupMetadata findLatestBackup() {
+        return index.getLatestBackup();
+    }
+
+    /**
+     * The newest snapshot directory still on disk, for a new snapshot to link against.
+     */
+    private File findPreviousSnapshot() {
+        return index.getAllBackups().stream()
+                .filter(b -> b.getFormat() == BackupFormat.SNAPSHOT)
+                .sorted(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed())
+                .map(b -> new File(backupFolder, b.getFilename()))
+                .filter(File::isDirectory)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private boolean deleteBackupFile(File backupFile) {
+        if (!backupFile.isDirectory()) {
+            return backupFile.delete();
+        }
+        try {
+            SnapshotStore.delete(backupFile);
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to delete snapshot directory {}", backupFile.getName(), e);
+            return false;
+        }
+    }
+
+    private boolean isNeededByIncrementalChain(BackupMetadata backup) {
+        return index.isChainParent(backup.getFilename());
+    }
+
+    private void releaseIncrementalArchives() {
+        Set<String> live = new HashSet<>(inProgress.keySet());
+        // Retired archives are deleted by the reclaim queue, outside backupLock
+        live.addAll(index.getPendingDeletions().keySet());
+        for (BackupMetadata backup : index.getAllBackups()) {
+            live.add(backup.getFilename());
+            live.addAll(backup.getParentChain());
+        }
+        Map<String, Long> released = incrementalBackup.collectOrphans(live);
+        if (released.isEmpty()) {
+            return;
+        }
+        // Chain bases are usually full archives, so they go through the reclaim queue too
+        released.forEach((filename, sizeBytes) -> {
+            logger.info("Incremental archive no longer needed by any chain, retiring it: {}", filename);
+            index.retireArchive(filename, sizeBytes);
+        });
+        try {
+            index.save();
+        } catch (IOException e) {
+            logger.warn("Failed to save the backup index after retiring released incremental archives", e);
+        }
+    }
+
+    /**
+     * Cleans up after archives the reclaim queue deleted: their incremental manifests, and
+     * the chunks only deleted chunk manifests referenced.
+     */
+    private void reclaimed(List<String> filenames) {
+        boolean manifests = false;
+        for (String filename : filenames) {
+            incrementalBackup.deleteManifest(filename);
+            manifests |= filename.endsWith(BackupFormat.CHUNKED.getExtension());
+        }
+        if (manifests) {
+            collectChunkGarbage();
+        }
+    }
+
+    private void collectChunkGarbage() {
+        synchronized (chunkStoreLock) {
+            try {
+                chunkStore.collectGarbage(liveChunkManifests(index, backupFolder, inProgress));
+            } catch (IOException e) {
+                logger.warn("Chunk garbage collection failed, unreferenced chunks will be retried next time", e);
+            }
+        }
+    }
+
+    /**
+     * Every chunk manifest whose chunks must stay: indexed chunked backups, retired ones the
+     * reclaim queue hasn't deleted yet because someone may still be reading them, and ones
+     * being stored. Must hold chunkStoreLock, so only complete in-progress manifests exist.
+     */
+    static List<File> liveChunkManifests(BackupIndex index, File backupFolder, Map<String, BackupFormat> inProgress) {
+        List<File> liveManifests = index.getAllBackups().stream()
+                .filter(b -> b.getFormat() == BackupFormat.CHUNKED)
+                .map(b -> new File(backupFolder, b.getFilename()))
+                .collect(Collectors.toCollection(ArrayList::new));
+        for (String filename : index.getPendingDeletions().keySet()) {
+            File manifest = new File(backupFolder, filename);
+            if (filename.endsWith(BackupFormat.CHUNKED.getExtension()) && manifest.isFile()) {
+                liveManifests.add(manifest);
+            }
+        }
+        inProgress.forEach((filename, format) -> {
+            File manifest = new File(backupFolder, filename);
+            if (format == BackupFormat.CHUNKED && manifest.isFile()) {
+                liveManifests.add(manifest);
+            }
+        });
+        return liveManifests;
+    }
+
     private void deleteDirectory(File directory) {
         if (directory.exists()) {
             File[] files = directory.listFiles();
@@ -232,4 +1186,27 @@ public class BackupManager {
             directory.delete();
         }
     }
+
+    private static class Capture {
+        final String filename;
+        final BackupFormat format;
+        final long createdAt;
+        final BackupProgress progress;
+        File source;
+        File staged;
+        ArchiveResult result;
+        String fingerprint;
+        String baseFingerprint;
+        Set<String> changedFiles;
+        List<String> directories;
+        long captureMillis;
+        long saveWaitMillis;
+
+        Capture(String filename, BackupFormat format, long createdAt, BackupProgress progress) {
+            this.filename = filename;
+            this.format = format;
+            this.createdAt = createdAt;
+            this.progress = progress;
+        }
+    }
 }
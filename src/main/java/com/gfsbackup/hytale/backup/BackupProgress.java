@@ -0,0 +1,120 @@
+package com.gfsbackup.hytale.backup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live phase and throughput of one backup, for status polling while it runs.
+ *
+ * Bytes are what this backup's own threads read through {@link IoThrottle#READ}, which
+ * every copy and archive read goes through, while a {@link #meter()} scope is open.
+ * Restores, downloads or another backup running at the same time don't count. The
+ * expected total is what the latest backup held uncompressed, so the ETA is only an
+ * estimate: a hard-linked capture reads less than that, and a full backup after an
+ * incremental reads more.
+ */
+public class BackupProgress {
+
+    public enum Phase {
+        // Hooks, save, fingerprint and making room on disk
+        PREPARING,
+        CAPTURING,
+        ARCHIVING,
+        // Indexing, retention, tier conversions and post-backup hooks
+        FINISHING,
+        DONE
+    }
+
+    private final long startedAt = System.currentTimeMillis();
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile Phase phase = Phase.PREPARING;
+    private volatile long phaseStartedAt = startedAt;
+    private volatile long phaseBaseline;
+    private volatile long expectedBytes;
+    // Frozen once the backup is done
+    private volatile long finishedAt;
+    private volatile long finalBytes;
+
+    synchronized void phase(Phase next) {
+        long now = System.currentTimeMillis();
+        long total = bytesRead.sum();
+        if (next == Phase.DONE) {
+            finalBytes = total;
+            finishedAt = now;
+        }
+        phaseBaseline = total;
+        phaseStartedAt = now;
+        phase = next;
+    }
+
+    /**
+     * Counts this thread's reads, and those of threads it starts, until closed.
+     */
+    IoThrottle.Scope meter() {
+        return IoThrottle.meter(bytesRead);
+    }
+
+    /**
+     * Sets how many bytes the capture and archive phases are each expected to read; 0 if unknown.
+     */
+    void expect(long bytes) {
+        expectedBytes = bytes;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Bytes read in the current phase, or by the whole backup once it is done.
+     */
+    public synchronized long getBytesDone() {
+        if (phase == Phase.DONE) {
+            return finalBytes;
+        }
+        return bytesRead.sum() - phaseBaseline;
+    }
+
+    public long getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    /**
+     * Read rate over the current phase, or over the whole backup once it is done.
+     */
+    public double getThroughputMBps() {
+        long elapsed = phase == Phase.DONE ? finishedAt - startedAt : System.currentTimeMillis() - phaseStartedAt;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return getBytesDone() / (1024.0 * 1024.0) / (elapsed / 1000.0);
+    }
+
+    /**
+     * Estimated time left in a capture or archive phase, or -1 outside those phases or
+     * before anything has been read.
+     */
+    public long getEtaMillis() {
+        Phase current = phase;
+        long done = getBytesDone();
+        long elapsed = System.currentTimeMillis() - phaseStartedAt;
+        if ((current != Phase.CAPTURING && current != Phase.ARCHIVING) || expectedBytes <= 0 || done <= 0) {
+            return -1;
+        }
+        return Math.max(expectedBytes - done, 0) * elapsed / done;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("phase", phase.name());
+        map.put("bytesDone", getBytesDone());
+        map.put("expectedBytes", expectedBytes);
+        map.put("throughputMBps", getThroughputMBps());
+        map.put("etaMillis", getEtaMillis());
+        long end = phase == Phase.DONE ? finishedAt : System.currentTimeMillis();
+        map.put("phaseMillis", end - phaseStartedAt);
+        map.put("elapsedMillis", end - startedAt);
+        return map;
+    }
+}
@@ -0,0 +1,434 @@
+package com.gfsbackup.hytale.backup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Deduplicating backup storage. World files are cut into content-defined chunks
+ * (gear-hash CDC, 16 KB min / 64 KB target / 256 KB max) and every unique chunk is stored
+ * once under {@code chunks/<aa>/<sha256>}, deflated. A backup is just a small JSON manifest
+ * listing each file's chunks, so a region file that changed in one place only costs the
+ * chunks around the change.
+ */
+public class ChunkStore {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+
+    static final int MIN_CHUNK = 16 * 1024;
+    static final int AVG_CHUNK = 64 * 1024;
+    static final int MAX_CHUNK = 256 * 1024;
+    private static final long MASK_HARD = -1L << (64 - 18);
+    private static final long MASK_EASY = -1L << (64 - 14);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6f5de1a5L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final File chunkFolder;
+    private final Gson gson = new Gson();
+    // Reset per chunk; one native zlib context per thread instead of one per chunk
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public ChunkStore(File chunkFolder) {
+        this.chunkFolder = chunkFolder;
+    }
+
+    public ArchiveResult store(File sourceFolder, File manifestFile, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        Path sourcePath = sourceFolder.toPath();
+        chunkFolder.mkdirs();
+
+        Manifest manifest = new Manifest();
+        manifest.createdAt = start;
+        List<Path> files = new ArrayList<>();
+
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(sourcePath)) {
+                    manifest.directories.add(entryName(sourcePath, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        AtomicLong totalBytes = new AtomicLong();
+        AtomicLong writtenBytes = new AtomicLong();
+        ExecutorService pool = newPool(threads);
+        try {
+            List<Future<FileEntry>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(pool.submit(() -> storeFile(sourcePath, file, totalBytes, writtenBytes)));
+            }
+            for (Future<FileEntry> future : futures) {
+                manifest.files.add(await(future));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        byte[] manifestBytes = gson.toJson(manifest).getBytes(StandardCharsets.UTF_8);
+        Files.write(manifestFile.toPath(), manifestBytes);
+
+        MessageDigest digest = ZipUtility.newDigest();
+        digest.update(manifestBytes);
+
+        logger.info("Chunk store: {} MB scanned, {} MB of new chunks written",
+                totalBytes.get() / (1024 * 1024), writtenBytes.get() / (1024 * 1024));
+
+        return new ArchiveResult(
+                manifest.files.size() + manifest.directories.size(),
+                totalBytes.get(),
+                writtenBytes.get() + manifestBytes.length,
+                System.currentTimeMillis() - start,
+                ZipUtility.formatChecksum(digest.digest())
+        );
+    }
+
+    public void restore(File manifestFile, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        Manifest manifest = readManifest(manifestFile);
+        restoreFiles(manifest.directories, manifest.files, destFolder, threads, progress);
+    }
+
+    /**
+     * Restores {@code path} and, if it is a directory, everything below it. Only the chunks
+     * of matching files are read. Returns the number of files written.
+     */
+    public int restorePath(File manifestFile, String path, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        Manifest manifest = readManifest(manifestFile);
+        List<String> directories = manifest.directories.stream()
+                .filter(directory -> ZipUtility.isUnderPath(directory, path))
+                .collect(Collectors.toList());
+        List<FileEntry> files = manifest.files.stream()
+                .filter(entry -> ZipUtility.isUnderPath(entry.path, path))
+                .collect(Collectors.toList());
+        restoreFiles(directories, files, destFolder, threads, progress);
+        return files.size();
+    }
+
+    private void restoreFiles(List<String> directories, List<FileEntry> files, File destFolder, int threads,
+                              ExtractionProgress progress) throws IOException {
+        // Manifests may be adopted from the backup folder, so no path may leave the destination
+        Path destPath = destFolder.toPath().toAbsolutePath().normalize();
+        List<Path> directoryTargets = new ArrayList<>(directories.size());
+        for (String directory : directories) {
+            directoryTargets.add(ZipUtility.resolveEntry(destPath, directory));
+        }
+        Map<FileEntry, Path> targets = new HashMap<>();
+        for (FileEntry entry : files) {
+            targets.put(entry, ZipUtility.resolveEntry(destPath, entry.path));
+        }
+        Files.createDirectories(destPath);
+        for (Path directory : directoryTargets) {
+            Files.createDirectories(directory);
+        }
+        if (progress != null) {
+            progress.expect(files.size(), files.stream().mapToLong(entry -> entry.size).sum());
+        }
+
+        ExecutorService pool = newPool(threads);
+        try {
+            List<Future<FileEntry>> futures = new ArrayList<>(files.size());
+            for (FileEntry entry : files) {
+                futures.add(pool.submit(() -> {
+                    Path target = targets.get(entry);
+                    Files.createDirectories(target.getParent());
+                    try (OutputStream out = new BufferedOutputStream(IoThrottle.WRITE.wrap(Files.newOutputStream(target)), 256 * 1024)) {
+                        copyChunks(entry, out);
+                    }
+                    Files.setLastModifiedTime(target, FileTime.fromMillis(entry.lastModified));
+                    if (progress != null) {
+                        progress.addBytes(entry.size);
+                        progress.entryDone();
+                    }
+                    return entry;
+                }));
+            }
+            for (Future<FileEntry> future : futures) {
+                await(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+    }
+
+    public void exportZip(File manifestFile, OutputStream out) throws IOException {
+        Manifest manifest = readManifest(manifestFile);
+
+        ZipOutputStream zos = new ZipOutputStream(out);
+        for (String directory : manifest.directories) {
+            zos.putNextEntry(new ZipEntry(directory + "/"));
+            zos.closeEntry();
+        }
+        for (FileEntry entry : manifest.files) {
+            ZipEntry zipEntry = new ZipEntry(entry.path);
+            zipEntry.setTime(entry.lastModified);
+            zos.putNextEntry(zipEntry);
+            copyChunks(entry, zos);
+            zos.closeEntry();
+        }
+        zos.finish();
+    }
+
+    /**
+     * Deletes every chunk that none of the given manifests reference. A manifest that
+     * cannot be read aborts the pass rather than risk deleting chunks it still needs.
+     */
+    public long collectGarbage(Collection<File> liveManifests) throws IOException {
+        if (!chunkFolder.exists()) {
+            return 0;
+        }
+
+        Set<String> live = new HashSet<>();
+        for (File manifestFile : liveManifests) {
+            if (!manifestFile.exists()) {
+                continue;
+            }
+            for (FileEntry entry : readManifest(manifestFile).files) {
+                live.addAll(entry.chunks);
+            }
+        }
+
+        long freed = 0;
+        int deleted = 0;
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunkFolder.toPath())) {
+            for (Path prefix : prefixes) {
+                if (!Files.isDirectory(prefix)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : chunks) {
+                        if (!live.contains(chunk.getFileName().toString())) {
+                            freed += Files.size(chunk);
+                            Files.deleteIfExists(chunk);
+                            deleted++;
+                        }
+                    }
+                }
+            }
+        }
+
+        logger.info("Chunk garbage collection removed {} chunks ({} MB), {} chunks still referenced",
+                deleted, freed / (1024 * 1024), live.size());
+        return freed;
+    }
+
+    /**
+     * Whether {@code manifestFile} parses and every chunk it lists is still in the store, so
+     * the backup could be restored. Used to vet a manifest that the index doesn't know about.
+     */
+    public boolean isComplete(File manifestFile) {
+        Manifest manifest;
+        try {
+            manifest = readManifest(manifestFile);
+        } catch (IOException | JsonParseException e) {
+            return false;
+        }
+        for (FileEntry entry : manifest.files) {
+            for (String hash : entry.chunks) {
+                if (!Files.isRegularFile(chunkPath(hash))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private FileEntry storeFile(Path sourcePath, Path file, AtomicLong totalBytes, AtomicLong writtenBytes) throws IOException {
+        FileEntry entry = new FileEntry();
+        entry.path = entryName(sourcePath, file);
+        entry.lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        MessageDigest digest = ZipUtility.newDigest();
+        byte[] buffer = new byte[MAX_CHUNK * 2];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+
+        try (InputStream in = IoThrottle.READ.wrap(Files.newInputStream(file))) {
+            while (true) {
+                if (!eof && end - start < MAX_CHUNK) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    while (end < buffer.length) {
+                        int read = in.read(buffer, end, buffer.length - end);
+                        if (read < 0) {
+                            eof = true;
+                            break;
+                        }
+                        end += read;
+                    }
+                }
+                if (start == end) {
+                    break;
+                }
+
+                int length = cutPoint(buffer, start, end - start);
+                digest.update(buffer, start, length);
+                String hash = toHex(digest.digest());
+                writtenBytes.addAndGet(writeChunk(hash, buffer, start, length));
+                entry.chunks.add(hash);
+                entry.size += length;
+                start += length;
+            }
+        }
+
+        totalBytes.addAndGet(entry.size);
+        return entry;
+    }
+
+    static int cutPoint(byte[] data, int offset, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int limit = Math.min(length, MAX_CHUNK);
+        int normal = Math.min(AVG_CHUNK, limit);
+
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_HARD) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_EASY) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private long writeChunk(String hash, byte[] data, int offset, int length) throws IOException {
+        Path target = chunkPath(hash);
+        if (Files.exists(target)) {
+            return 0;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        try (OutputStream out = new DeflaterOutputStream(IoThrottle.WRITE.wrap(Files.newOutputStream(temp)), deflater, 64 * 1024)) {
+            out.write(data, offset, length);
+        }
+        long size = Files.size(temp);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    private void copyChunks(FileEntry entry, OutputStream out) throws IOException {
+        Inflater inflater = inflaters.get();
+        for (String hash : entry.chunks) {
+            inflater.reset();
+            try (InputStream in = new InflaterInputStream(IoThrottle.READ.wrap(Files.newInputStream(chunkPath(hash))), inflater, 64 * 1024)) {
+                in.transferTo(out);
+            } catch (NoSuchFileException e) {
+                throw new IOException("Missing chunk " + hash + " for " + entry.path, e);
+            }
+        }
+    }
+
+    private Path chunkPath(String hash) {
+        return chunkFolder.toPath().resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Manifest readManifest(File manifestFile) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+            Manifest manifest = gson.fromJson(reader, Manifest.class);
+            if (manifest == null) {
+                throw new IOException("Empty chunk manifest: " + manifestFile.getName());
+            }
+            return manifest;
+        }
+    }
+
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(ParallelZipWriter.resolveThreads(threads),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-chunk-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing chunks");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Chunk task failed", cause);
+        }
+    }
+
+    private static String entryName(Path sourcePath, Path path) {
+        return sourcePath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    static class Manifest {
+        int version = 1;
+        long createdAt;
+        List<String> directories = new ArrayList<>();
+        List<FileEntry> files = new ArrayList<>();
+    }
+
+    static class FileEntry {
+        String path;
+        long size;
+        long lastModified;
+        List<String> chunks = new ArrayList<>();
+    }
+}
@@ -0,0 +1,101 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupConfig;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Picks a compression level per entry. Glob rules from the config win; otherwise, when
+ * adaptive compression is on, the first 64 KB of the data is trial-deflated at the fastest
+ * level and the estimated ratio decides between storing it, a fast deflate and the default
+ * level. Region blobs and images that are already compressed end up stored instead of
+ * burning CPU on the game host for a 1% gain.
+ */
+public class CompressionPolicy {
+    public static final int STORE = 0;
+    public static final CompressionPolicy DEFAULT = new CompressionPolicy(false, List.of());
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int MIN_SAMPLE = 256;
+    private static final double STORE_THRESHOLD = 0.95;
+    private static final double FAST_THRESHOLD = 0.80;
+
+    private static final ThreadLocal<Deflater> PROBE = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<byte[]> PROBE_BUFFER = ThreadLocal.withInitial(() -> new byte[SAMPLE_SIZE + 1024]);
+
+    private final boolean adaptive;
+    private final List<Rule> rules;
+
+    public CompressionPolicy(boolean adaptive, List<BackupConfig.CompressionRule> configuredRules) {
+        this.adaptive = adaptive;
+        this.rules = new ArrayList<>();
+        for (BackupConfig.CompressionRule rule : configuredRules) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rule.getPattern());
+            rules.add(new Rule(matcher, Math.max(STORE, Math.min(Deflater.BEST_COMPRESSION, rule.getLevel()))));
+        }
+    }
+
+    public static CompressionPolicy fromConfig(BackupConfig.AdvancedConfig advanced) {
+        List<BackupConfig.CompressionRule> rules = advanced.getCompressionRules();
+        return new CompressionPolicy(advanced.isAdaptiveCompression(), rules != null ? rules : List.of());
+    }
+
+    /**
+     * Returns {@link #STORE} or a deflate level for {@code data}, which is either a whole file
+     * or one slice of a large file.
+     */
+    public int levelFor(String name, byte[] data, int length) {
+        if (!rules.isEmpty()) {
+            Path path = Paths.get(name);
+            for (Rule rule : rules) {
+                if (rule.matcher.matches(path)) {
+                    return rule.level;
+                }
+            }
+        }
+
+        if (!adaptive || length < MIN_SAMPLE) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+
+        double ratio = estimateRatio(data, Math.min(length, SAMPLE_SIZE));
+        if (ratio >= STORE_THRESHOLD) {
+            return STORE;
+        }
+        if (ratio >= FAST_THRESHOLD) {
+            return Deflater.BEST_SPEED;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    static double estimateRatio(byte[] data, int length) {
+        Deflater probe = PROBE.get();
+        byte[] buffer = PROBE_BUFFER.get();
+
+        probe.reset();
+        probe.setInput(data, 0, length);
+        probe.finish();
+
+        int written = 0;
+        while (!probe.finished() && written < buffer.length) {
+            written += probe.deflate(buffer, written, buffer.length - written);
+        }
+        return (double) written / length;
+    }
+
+    private static final class Rule {
+        final PathMatcher matcher;
+        final int level;
+
+        Rule(PathMatcher matcher, int level) {
+            this.matcher = matcher;
+            this.level = level;
+        }
+    }
+}
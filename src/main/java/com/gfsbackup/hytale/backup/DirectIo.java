@@ -0,0 +1,285 @@
+package com.gfsbackup.hytale.backup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Optional {@code O_DIRECT} reads and writes for the archive pipeline. Streaming a whole
+ * world through the page cache on every backup evicts the game server's hot pages; with
+ * direct I/O the backup bypasses the cache entirely. Transfers go through pooled,
+ * block-aligned direct buffers, since the kernel rejects unaligned direct transfers.
+ *
+ * Support is probed once per file store. On filesystems without it (tmpfs, some network
+ * mounts, non-Linux) the first attempt logs once and everything falls back to buffered
+ * I/O.
+ */
+public final class DirectIo {
+    private static final Logger logger = LoggerFactory.getLogger(DirectIo.class);
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_ALIGNMENT = 4096;
+    private static final int MAX_POOLED = 32;
+
+    private static final Map<FileStore, Integer> ALIGNMENT = new ConcurrentHashMap<>();
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    // Looked up by name so the build doesn't depend on an internal JDK API; null where it is missing
+    private static final OpenOption DIRECT = lookupDirect();
+    private static volatile boolean enabled;
+
+    private DirectIo() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        DirectIo.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads up to {@code length} bytes at {@code position} into the start of {@code dst}.
+     * Returns the number read, short only at end of file.
+     */
+    static int read(Path file, long position, byte[] dst, int length) throws IOException {
+        int alignment = enabled ? alignment(file) : 0;
+        if (alignment == 0) {
+            return readBuffered(file, position, dst, length);
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, DIRECT);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            unsupported(file, e);
+            return readBuffered(file, position, dst, length);
+        }
+
+        ByteBuffer buffer = borrow(alignment);
+        try (channel) {
+            long offset = position - position % alignment;
+            int skip = (int) (position - offset);
+            int copied = 0;
+            while (copied < length) {
+                int wanted = roundUp(skip + length - copied, alignment);
+                int requested = Math.min(wanted, buffer.capacity());
+                buffer.clear();
+                buffer.limit(requested);
+                int read = channel.read(buffer, offset);
+                if (read <= skip) {
+                    break;
+                }
+                int usable = Math.min(read - skip, length - copied);
+                buffer.flip();
+                buffer.position(skip);
+                buffer.get(dst, copied, usable);
+                copied += usable;
+                if (read < requested) {
+                    break;
+                }
+                offset += read;
+                skip = 0;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    static byte[] readAll(Path file) throws IOException {
+        if (!enabled) {
+            return Files.readAllBytes(file);
+        }
+        long size = Files.size(file);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("File too large to read at once: " + file);
+        }
+        byte[] data = new byte[(int) size];
+        int read = read(file, 0, data, data.length);
+        return read == data.length ? data : Arrays.copyOf(data, read);
+    }
+
+    /**
+     * Opens {@code file} for writing, with direct I/O if it is enabled and supported there.
+     */
+    public static OutputStream newOutputStream(File file) throws IOException {
+        Path path = file.toPath();
+        if (enabled) {
+            // Probe the directory's store; the file itself may not exist yet
+            int alignment = alignment(path.toAbsolutePath().getParent());
+            if (alignment > 0) {
+                try {
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, DIRECT);
+                    return new DirectOutputStream(channel, alignment);
+                } catch (UnsupportedOperationException | IOException e) {
+                    unsupported(path.toAbsolutePath().getParent(), e);
+                }
+            }
+        }
+        return new FileOutputStream(file);
+    }
+
+    private static int readBuffered(Path file, long position, byte[] dst, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(dst, 0, length);
+            int total = 0;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * The transfer alignment for {@code path}'s file store, or 0 if direct I/O is known not
+     * to work there.
+     */
+    private static int alignment(Path path) throws IOException {
+        if (DIRECT == null) {
+            return 0;
+        }
+        FileStore store = Files.getFileStore(path);
+        return ALIGNMENT.computeIfAbsent(store, s -> {
+            try {
+                long blockSize = s.getBlockSize();
+                return blockSize > 0 && blockSize <= BUFFER_SIZE && Long.bitCount(blockSize) == 1
+                        ? (int) blockSize
+                        : DEFAULT_ALIGNMENT;
+            } catch (IOException | UnsupportedOperationException e) {
+                return DEFAULT_ALIGNMENT;
+            }
+        });
+    }
+
+    private static OpenOption lookupDirect() {
+        try {
+            return (OpenOption) Class.forName("com.sun.nio.file.ExtendedOpenOption").getField("DIRECT").get(null);
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            logger.info("Direct I/O is not available in this JVM ({}), using buffered I/O", e.toString());
+            return null;
+        }
+    }
+
+    private static void unsupported(Path path, Exception e) {
+        try {
+            FileStore store = Files.getFileStore(path);
+            Integer previous = ALIGNMENT.put(store, 0);
+            if (previous == null || previous != 0) {
+                logger.info("Direct I/O not available on {} ({}), using buffered I/O there", store, e.toString());
+            }
+        } catch (IOException ignored) {
+            // The next call will probe again
+        }
+    }
+
+    private static ByteBuffer borrow(int alignment) {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer != null && buffer.alignmentOffset(0, alignment) == 0) {
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(BUFFER_SIZE + alignment).alignedSlice(alignment);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (POOL.size() < MAX_POOLED) {
+            POOL.offer(buffer);
+        }
+    }
+
+    private static int roundUp(long value, int alignment) {
+        long rounded = (value + alignment - 1) / alignment * alignment;
+        return (int) Math.min(rounded, Integer.MAX_VALUE - alignment);
+    }
+
+    /**
+     * Collects writes into an aligned buffer and writes it out in whole blocks. The final
+     * partial block is zero-padded to the alignment and the file truncated back to the
+     * real length on close.
+     */
+    private static final class DirectOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final int alignment;
+        private final ByteBuffer buffer;
+        private long length;
+        private boolean closed;
+
+        DirectOutputStream(FileChannel channel, int alignment) {
+            this.channel = channel;
+            this.alignment = alignment;
+            this.buffer = borrow(alignment);
+            this.buffer.clear();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+                length += count;
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (channel) {
+                int tail = buffer.position();
+                if (tail > 0) {
+                    int padded = roundUp(tail, alignment);
+                    while (buffer.position() < padded) {
+                        buffer.put((byte) 0);
+                    }
+                    drain();
+                    channel.truncate(length);
+                }
+            } finally {
+                release(buffer);
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.gfsbackup.hytale.backup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the set of world paths touched since the last {@link #take()}, fed by a
+ * {@link WatchService} registered on every directory of the world. Watches are not
+ * recursive on most platforms, so new directories are registered as they appear and their
+ * contents marked dirty in case files landed before the watch did.
+ *
+ * The set is only trusted while nothing was lost: before the first take, after an
+ * {@code OVERFLOW}, or when a watch could not be registered, {@link #take()} returns null
+ * and the caller falls back to a full walk, which becomes the new baseline.
+ */
+public class DirtyTracker implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DirtyTracker.class);
+
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+    private Set<String> dirty = new HashSet<>();
+    private boolean trusted;
+    private volatile boolean running = true;
+    private volatile long lastChange = System.nanoTime();
+
+    public DirtyTracker(File worldFolder) throws IOException {
+        this.root = worldFolder.toPath();
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Registers the whole tree and starts listening. Changes made before the first
+     * {@link #take()} are not tracked individually; that take reports null.
+     */
+    public void start() throws IOException {
+        try {
+            registerTree(root, false);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        // Created here rather than in the constructor so the thread never sees a half-built tracker
+        new ThreadFactoryBuilder()
+                .setNameFormat("gfs-watch-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(this::watch)
+                .start();
+        logger.info("Watching {} directories under {} for changes", keys.size(), root);
+    }
+
+    /**
+     * Returns the relative, '/'-separated paths changed since the previous call and starts
+     * a new set, or null when changes may have been missed since then.
+     */
+    public synchronized Set<String> take() {
+        Set<String> taken = dirty;
+        boolean complete = trusted;
+        dirty = new HashSet<>();
+        trusted = running;
+        return complete ? taken : null;
+    }
+
+    /**
+     * Returns the paths changed since the previous {@link #take()} without starting a new
+     * set, so the next take still reports them, or null when changes may have been missed.
+     */
+    public synchronized Set<String> peek() {
+        return trusted ? new HashSet<>(dirty) : null;
+    }
+
+    /**
+     * The {@link System#nanoTime()} of the latest event seen, tracked or not, or of the
+     * tracker's creation if there was none.
+     */
+    public long lastChangeNanos() {
+        return lastChange;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        invalidate();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close world watch service", e);
+        }
+    }
+
+    private void watch() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+
+            Path dir = keys.get(key);
+            lastChange = System.nanoTime();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    overflowed();
+                    continue;
+                }
+
+                Path child = dir.resolve((Path) event.context());
+                markDirty(child);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        registerTree(child, true);
+                    } catch (IOException e) {
+                        logger.warn("Failed to watch new world directory {}, next backup will rescan", child, e);
+                        invalidate();
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                // The directory is gone; its deletion was reported by its parent
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void registerTree(Path start, boolean markContents) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, dir);
+                if (markContents) {
+                    markDirty(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (markContents) {
+                    markDirty(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Events were dropped; the next take can't be trusted.
+     */
+    void overflowed() {
+        logger.debug("World watch overflowed, next backup will rescan");
+        invalidate();
+    }
+
+    private synchronized void markDirty(Path path) {
+        dirty.add(root.relativize(path).toString().replace(File.separatorChar, '/'));
+    }
+
+    private synchronized void invalidate() {
+        trusted = false;
+    }
+}
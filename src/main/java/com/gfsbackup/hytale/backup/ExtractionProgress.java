@@ -0,0 +1,78 @@
+package com.gfsbackup.hytale.backup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters for an extraction, updated by the worker threads as data hits the disk.
+ */
+public class ExtractionProgress {
+    private final long startedAt = System.currentTimeMillis();
+    private volatile int totalEntries;
+    private volatile long totalBytes;
+    private final AtomicInteger entriesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private volatile boolean finished;
+
+    /**
+     * Adds to the expected totals; restores that read several archives call this once per archive.
+     */
+    synchronized void expect(int entries, long bytes) {
+        totalEntries += entries;
+        totalBytes += bytes;
+    }
+
+    void addBytes(long bytes) {
+        bytesDone.addAndGet(bytes);
+    }
+
+    void entryDone() {
+        entriesDone.incrementAndGet();
+    }
+
+    void finish() {
+        finished = true;
+    }
+
+    public int getTotalEntries() {
+        return totalEntries;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getEntriesDone() {
+        return entriesDone.get();
+    }
+
+    public long getBytesDone() {
+        return bytesDone.get();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public double getFraction() {
+        long total = totalBytes;
+        if (total <= 0) {
+            return finished ? 1 : 0;
+        }
+        return Math.min(1, (double) bytesDone.get() / total);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("entriesDone", getEntriesDone());
+        map.put("totalEntries", totalEntries);
+        map.put("bytesDone", getBytesDone());
+        map.put("totalBytes", totalBytes);
+        map.put("fraction", getFraction());
+        map.put("elapsedMillis", System.currentTimeMillis() - startedAt);
+        map.put("finished", finished);
+        return map;
+    }
+}
@@ -0,0 +1,309 @@
+package com.gfsbackup.hytale.backup;
+
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Incremental zip backups. Every backup made with incremental mode on gets a manifest in
+ * {@code manifests/<backup>.json} describing the full world state: path, size, mtime and
+ * CRC-32 of each file, plus the archive that holds its bytes. A child backup only archives
+ * files whose size or mtime differ from its parent's manifest; everything else keeps
+ * pointing at an older archive. Deleted files simply drop out of the manifest.
+ *
+ * Because the manifest is complete, restoring any backup reads each file straight from the
+ * archive that owns it rather than replaying the chain in order.
+ */
+public class IncrementalBackup {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalBackup.class);
+
+    private final File backupFolder;
+    private final File manifestFolder;
+    private final Gson gson = new Gson();
+
+    public IncrementalBackup(File backupFolder) {
+        this.backupFolder = backupFolder;
+        this.manifestFolder = new File(backupFolder, "manifests");
+    }
+
+    public boolean hasManifest(String filename) {
+        return manifestFile(filename).exists();
+    }
+
+    /**
+     * Writes {@code zipFile} containing only what changed since {@code parentFilename}
+     * (or everything when it is null) and records the new manifest.
+     */
+    public ArchiveResult create(File worldFolder, File zipFile, String parentFilename, int threads,
+                                CompressionPolicy policy) throws IOException {
+        return create(worldFolder, zipFile, parentFilename, threads, policy, null, null);
+    }
+
+    /**
+     * With {@code changed} set, only those paths are looked at: every other file is taken
+     * from the parent manifest as-is and the world is not walked. {@code changed} must list
+     * every file added, modified or removed since the parent, and {@code directories} the
+     * current directory tree; both typically come from a {@link DirtyTracker}.
+     */
+    public ArchiveResult create(File worldFolder, File zipFile, String parentFilename, int threads,
+                                CompressionPolicy policy, Set<String> changed,
+                                Collection<String> directories) throws IOException {
+        FileManifest parent = parentFilename != null ? readManifest(parentFilename) : new FileManifest();
+        FileManifest manifest = new FileManifest();
+        String source = zipFile.getName();
+        int[] unchanged = {0};
+
+        BiPredicate<String, BasicFileAttributes> include = (name, attrs) -> {
+            long size = attrs.size();
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            FileState previous = parent.files.get(name);
+
+            if (previous != null && previous.size == size && previous.lastModified == lastModified) {
+                manifest.files.put(name, previous);
+                unchanged[0]++;
+                return false;
+            }
+
+            FileState state = new FileState();
+            state.size = size;
+            state.lastModified = lastModified;
+            state.source = source;
+            manifest.files.put(name, state);
+            return true;
+        };
+        ParallelZipWriter.EntryListener listener = (name, size, crc) -> {
+            FileState state = manifest.files.get(name);
+            if (state != null) {
+                state.size = size;
+                state.hash = String.format("crc32:%08x", crc);
+            }
+        };
+
+        ArchiveResult result;
+        if (changed != null && parentFilename != null) {
+            for (Map.Entry<String, FileState> file : parent.files.entrySet()) {
+                if (!changed.contains(file.getKey())) {
+                    manifest.files.put(file.getKey(), file.getValue());
+                    unchanged[0]++;
+                }
+            }
+            result = ZipUtility.createZip(worldFolder, zipFile, threads, policy, directories, changed, include, listener);
+        } else {
+            result = ZipUtility.createZip(worldFolder, zipFile, threads, policy, include, listener);
+        }
+
+        long removed = parent.files.keySet().stream().filter(name -> !manifest.files.containsKey(name)).count();
+        writeManifest(source, manifest);
+
+        logger.info("Incremental backup {}: {} changed, {} unchanged, {} removed (parent: {})",
+                source, manifest.files.size() - unchanged[0], unchanged[0], removed,
+                parentFilename != null ? parentFilename : "none");
+        return result;
+    }
+
+    public void restore(String filename, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        restoreMatching(filename, null, destFolder, threads, progress);
+    }
+
+    /**
+     * Restores {@code path} and, if it is a directory, everything below it, reading each
+     * file from the archive the manifest says holds it. Returns the number of files written.
+     */
+    public int restorePath(String filename, String path, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        return restoreMatching(filename, path, destFolder, threads, progress);
+    }
+
+    private int restoreMatching(String filename, String path, File destFolder, int threads,
+                                ExtractionProgress progress) throws IOException {
+        FileManifest manifest = readManifest(filename);
+        destFolder.mkdirs();
+
+        int restored = 0;
+        Map<String, List<String>> bySource = groupBySource(manifest, path);
+        for (Map.Entry<String, List<String>> group : bySource.entrySet()) {
+            try (ZipFile zip = openSource(group.getKey())) {
+                List<ZipEntry> entries = new ArrayList<>(group.getValue().size());
+                for (String name : group.getValue()) {
+                    ZipEntry entry = zip.getEntry(name);
+                    if (entry == null) {
+                        throw new IOException("Incremental chain broken: " + name + " missing from " + group.getKey());
+                    }
+                    entries.add(entry);
+                }
+                ZipUtility.extractEntries(zip, entries, destFolder, threads, progress);
+            }
+            // Zip entries only keep DOS time; the manifest's exact mtime lets the next
+            // incremental of a restored world see unchanged files as unchanged
+            for (String name : group.getValue()) {
+                Files.setLastModifiedTime(new File(destFolder, name).toPath(),
+                        FileTime.fromMillis(manifest.files.get(name).lastModified));
+            }
+            restored += group.getValue().size();
+        }
+
+        // Directories come from the newest archive, which records the whole tree
+        Path destPath = destFolder.toPath().toAbsolutePath().normalize();
+        try (ZipFile zip = openSource(filename)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() && (path == null || ZipUtility.isUnderPath(entry.getName(), path))) {
+                    Files.createDirectories(ZipUtility.resolveEntry(destPath, entry.getName()));
+                }
+            }
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+        return restored;
+    }
+
+    public void exportZip(String filename, OutputStream out) throws IOException {
+        FileManifest manifest = readManifest(filename);
+        Map<String, ZipFile> open = new HashMap<>();
+
+        try {
+            ZipOutputStream zos = new ZipOutputStream(out);
+            // The newest archive records the whole tree, empty directories included, as a restore sees it
+            ZipFile newest = openSource(filename);
+            open.put(filename, newest);
+            Enumeration<? extends ZipEntry> entries = newest.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry directory = entries.nextElement();
+                if (directory.isDirectory()) {
+                    ZipEntry entry = new ZipEntry(directory.getName());
+                    entry.setTime(directory.getTime());
+                    zos.putNextEntry(entry);
+                    zos.closeEntry();
+                }
+            }
+            for (Map.Entry<String, FileState> file : manifest.files.entrySet()) {
+                ZipFile zip = open.get(file.getValue().source);
+                if (zip == null) {
+                    zip = openSource(file.getValue().source);
+                    open.put(file.getValue().source, zip);
+                }
+                ZipEntry source = zip.getEntry(file.getKey());
+                if (source == null) {
+                    throw new IOException("Incremental chain broken: " + file.getKey() + " missing from " + file.getValue().source);
+                }
+
+                ZipEntry entry = new ZipEntry(file.getKey());
+                entry.setTime(file.getValue().lastModified);
+                zos.putNextEntry(entry);
+                IoThrottle.READ.acquire(source.getCompressedSize());
+                try (InputStream in = zip.getInputStream(source)) {
+                    in.transferTo(zos);
+                }
+                zos.closeEntry();
+            }
+            zos.finish();
+        } finally {
+            for (ZipFile zip : open.values()) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Finds archives that are no longer in the index and that no live backup still reads
+     * from, with their sizes, so they can be retired to the reclaim queue. A manifest whose
+     * archive is already gone is dropped here.
+     */
+    public Map<String, Long> collectOrphans(Set<String> liveArchives) {
+        File[] manifests = manifestFolder.listFiles((dir, name) -> name.endsWith(".json"));
+        if (manifests == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Long> orphans = new LinkedHashMap<>();
+        for (File manifest : manifests) {
+            String archive = manifest.getName().substring(0, manifest.getName().length() - ".json".length());
+            if (liveArchives.contains(archive)) {
+                continue;
+            }
+
+            File archiveFile = new File(backupFolder, archive);
+            if (archiveFile.exists()) {
+                orphans.put(archive, archiveFile.length());
+            } else {
+                manifest.delete();
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Drops the manifest of an archive that has been deleted, if it had one.
+     */
+    public void deleteManifest(String filename) {
+        manifestFile(filename).delete();
+    }
+
+    private Map<String, List<String>> groupBySource(FileManifest manifest, String path) {
+        Map<String, List<String>> bySource = new LinkedHashMap<>();
+        for (Map.Entry<String, FileState> file : manifest.files.entrySet()) {
+            if (path != null && !ZipUtility.isUnderPath(file.getKey(), path)) {
+                continue;
+            }
+            bySource.computeIfAbsent(file.getValue().source, k -> new ArrayList<>()).add(file.getKey());
+        }
+        return bySource;
+    }
+
+    private ZipFile openSource(String archive) throws IOException {
+        File file = new File(backupFolder, archive);
+        if (!file.exists()) {
+            throw new IOException("Incremental chain broken: archive " + archive + " is missing");
+        }
+        return new ZipFile(file);
+    }
+
+    private File manifestFile(String filename) {
+        return new File(manifestFolder, filename + ".json");
+    }
+
+    private FileManifest readManifest(String filename) throws IOException {
+        File file = manifestFile(filename);
+        if (!file.exists()) {
+            throw new IOException("No incremental manifest for " + filename);
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            FileManifest manifest = gson.fromJson(reader, FileManifest.class);
+            if (manifest == null || manifest.files == null) {
+                throw new IOException("Empty incremental manifest for " + filename);
+            }
+            return manifest;
+        }
+    }
+
+    private void writeManifest(String filename, FileManifest manifest) throws IOException {
+        manifestFolder.mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile(filename)), StandardCharsets.UTF_8)) {
+            gson.toJson(manifest, writer);
+        }
+    }
+
+    static class FileManifest {
+        Map<String, FileState> files = new LinkedHashMap<>();
+    }
+
+    static class FileState {
+        long size;
+        long lastModified;
+        String hash;
+        String source;
+    }
+}
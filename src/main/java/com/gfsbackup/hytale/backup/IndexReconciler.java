@@ -0,0 +1,519 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupFormat;
+import com.gfsbackup.hytale.retention.BackupIndex;
+import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.gfsbackup.hytale.retention.BackupTier;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipFile;
+
+/**
+ * Brings the backup index in line with what is actually in the backup folder. A crash
+ * between writing an archive and indexing it leaves an archive nothing knows about, and
+ * deleting archives by hand leaves index entries that can't be restored.
+ *
+ * {@link #reconcile} stats every entry of the backup folder in parallel, marks index
+ * entries whose archive (or an archive an incremental reads from) is gone as missing, and
+ * adopts archives the index doesn't know as SON backups once a cheap completeness check
+ * passes. Reading an adopted archive end to end for its checksum is left to
+ * {@link #verify}, off the startup path.
+ *
+ * Verdicts on unindexed archives are cached in {@value #CACHE_FILE}, keyed by inode, size
+ * and mtime, so a leftover that failed the check is not opened again on every start.
+ */
+public class IndexReconciler {
+    private static final Logger logger = LoggerFactory.getLogger(IndexReconciler.class);
+
+    static final String CACHE_FILE = ".reconcile-cache.json";
+    private static final String TIMESTAMP_PATTERN = "yyyy-MM-dd_HH-mm-ss";
+
+    private final File backupFolder;
+    private final BackupIndex index;
+    private final ChunkStore chunkStore;
+    private final IncrementalBackup incrementalBackup;
+    private final int threads;
+    private final File cacheFile;
+    private final Gson gson = new Gson();
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    public IndexReconciler(File backupFolder, BackupIndex index, ChunkStore chunkStore,
+                           IncrementalBackup incrementalBackup, int threads) {
+        this.backupFolder = backupFolder;
+        this.index = index;
+        this.chunkStore = chunkStore;
+        this.incrementalBackup = incrementalBackup;
+        this.threads = threads;
+        this.cacheFile = new File(backupFolder, CACHE_FILE);
+    }
+
+    /**
+     * Compares the folder with the index and saves the index if anything changed. Must run
+     * before anything else writes to the backup folder.
+     */
+    public Result reconcile() throws IOException {
+        long start = System.currentTimeMillis();
+        loadCache();
+        Map<String, FileState> listing = list();
+        Result result = new Result();
+
+        Set<String> referenced = new HashSet<>();
+        Set<String> indexedBaseNames = new HashSet<>();
+        List<BackupMetadata> backups = index.getAllBackups();
+        for (BackupMetadata backup : backups) {
+            referenced.add(backup.getFilename());
+            referenced.addAll(backup.getParentChain());
+            indexedBaseNames.add(baseName(backup.getFilename(), backup.getFormat()));
+        }
+        // Retired by retention and waiting for the reclaim queue
+        referenced.addAll(index.getPendingDeletions().keySet());
+
+        for (BackupMetadata backup : backups) {
+            boolean missing = !isPresent(listing.get(backup.getFilename()), backup.getFormat())
+                    || !listing.keySet().containsAll(backup.getParentChain());
+            if (missing != backup.isMissing()) {
+                backup.setMissing(missing);
+                index.updateBackup(backup);
+                if (missing) {
+                    logger.warn("Backup {} is in the index but not in the backup folder, marking it missing",
+                            backup.getFilename());
+                    result.missing++;
+                } else {
+                    logger.info("Backup {} is back in the backup folder", backup.getFilename());
+                    result.found++;
+                }
+            }
+            if (backup.getFormat() == BackupFormat.SNAPSHOT && backup.getListingChecksum() == null
+                    && backup.getChecksum() != null) {
+                // Indexed before snapshots kept their listing hash apart from content checksums
+                backup.setListingChecksum(backup.getChecksum());
+                backup.setChecksum(null);
+                index.updateBackup(backup);
+            }
+            if (!missing && !backup.isVerified()) {
+                // Adopted on an earlier start that ended before it was verified
+                result.unverified.add(backup);
+            }
+        }
+
+        for (Map.Entry<String, FileState> file : listing.entrySet()) {
+            String name = file.getKey();
+            BackupFormat format = formatOf(name);
+            if (format == null || referenced.contains(name) || !isPresent(file.getValue(), format)) {
+                continue;
+            }
+            if (indexedBaseNames.contains(baseName(name, format))) {
+                // The same backup in another format: a tier conversion stopped between
+                // writing the new archive and deleting the old one. The index says which
+                // one is current, so the other is finished off here
+                logger.info("Deleting {}, left over from an interrupted format conversion", name);
+                deleteLeftover(new File(backupFolder, name));
+                continue;
+            }
+            if (incrementalBackup.hasManifest(name)) {
+                // Its parent chain is only in the manifest; releasing it is up to the
+                // incremental cleanup, which deletes archives no chain needs
+                continue;
+            }
+
+            CacheEntry verdict = cache.get(name);
+            if (verdict == null || !verdict.matches(file.getValue())) {
+                verdict = check(name, format, file.getValue());
+                cache.put(name, verdict);
+                result.checked++;
+                if (!verdict.complete) {
+                    logger.warn("Ignoring incomplete archive {} in the backup folder", name);
+                }
+            }
+            if (!verdict.complete) {
+                continue;
+            }
+
+            BackupMetadata backup = new BackupMetadata(name, BackupTier.SON,
+                    createdAt(name, file.getValue()), verdict.sizeBytes, verdict.checksum);
+            backup.setFormat(format);
+            if (format == BackupFormat.SNAPSHOT) {
+                backup.setUncompressedBytes(verdict.sizeBytes);
+            }
+            index.addBackup(backup);
+            logger.info("Adopted {} from the backup folder, it was not in the index", name);
+            result.adopted++;
+            if (verdict.checksum == null) {
+                result.unverified.add(backup);
+            }
+        }
+
+        if (result.missing + result.found + result.adopted > 0) {
+            index.save();
+        }
+        cache.keySet().retainAll(listing.keySet());
+        saveCache();
+
+        result.elapsedMillis = System.currentTimeMillis() - start;
+        logger.info("Checked the index against {} entries in the backup folder in {} ms: {} adopted, {} missing, {} back, {} archives opened",
+                listing.size(), result.elapsedMillis, result.adopted, result.missing, result.found, result.checked);
+        return result;
+    }
+
+    /**
+     * Reads an adopted archive in full and returns its checksum and size, remembering both
+     * so a later start doesn't read it again. Throws if the archive turns out to be
+     * truncated or unreadable; that is remembered as well. The caller must keep the
+     * archive from being deleted or converted meanwhile.
+     */
+    public Verified verify(BackupMetadata backup) throws IOException {
+        String name = backup.getFilename();
+        File file = new File(backupFolder, name);
+        FileState state = stat(file.toPath());
+        if (state == null) {
+            throw new NoSuchFileException(name);
+        }
+
+        Verified verified;
+        try {
+            switch (backup.getFormat()) {
+                case SNAPSHOT:
+                    ArchiveResult listing = SnapshotStore.describe(file);
+                    verified = new Verified(null, listing.getListingChecksum(), listing.getUncompressedBytes());
+                    break;
+                case TAR_ZSTD:
+                case TAR_LZ4:
+                    TarArchiveFormat tar = (TarArchiveFormat) ArchiveFormat.forFormat(backup.getFormat());
+                    verified = new Verified(tar.verify(file), null, state.size);
+                    break;
+                default:
+                    // A zip's central directory was read by the startup check, and a chunked
+                    // backup's checksum covers its manifest, so hashing the file is enough
+                    verified = new Verified(ZipUtility.calculateChecksum(file), null, state.size);
+                    break;
+            }
+        } catch (IOException e) {
+            cache.put(name, CacheEntry.incomplete(state));
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to checksum " + name, e);
+        }
+
+        CacheEntry entry = CacheEntry.complete(state, verified.sizeBytes);
+        entry.checksum = verified.checksum;
+        cache.put(name, entry);
+        return verified;
+    }
+
+    /**
+     * Writes the verdicts gathered since the last save. Losing it only costs re-checking.
+     */
+    public void saveCache() {
+        File temp = new File(backupFolder, CACHE_FILE + ".tmp");
+        try {
+            Files.writeString(temp.toPath(), gson.toJson(new TreeMap<>(cache)));
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to save the backup folder check cache", e);
+        }
+    }
+
+    private void loadCache() {
+        cache.clear();
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            Map<String, CacheEntry> loaded = gson.fromJson(reader, new TypeToken<Map<String, CacheEntry>>() {}.getType());
+            if (loaded != null) {
+                cache.putAll(loaded);
+            }
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Ignoring unreadable backup folder check cache, archives will be checked again", e);
+        }
+    }
+
+    /**
+     * Stats every top-level entry of the backup folder on a fork/join pool. Bookkeeping
+     * files and the chunk, manifest and staging folders are left out.
+     */
+    private Map<String, FileState> list() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backupFolder.toPath())) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!name.startsWith(".") && !name.startsWith("backup-index.") && !name.endsWith(".tmp")
+                        && !name.equals("chunks") && !name.equals("manifests")) {
+                    paths.add(path);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new HashMap<>();
+        }
+
+        Map<String, FileState> listing = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(ParallelZipWriter.resolveThreads(threads));
+        try {
+            pool.submit(() -> paths.parallelStream().forEach(path -> {
+                try {
+                    FileState state = stat(path);
+                    if (state != null) {
+                        listing.put(path.getFileName().toString(), state);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing the backup folder", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to list the backup folder", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new TreeMap<>(listing);
+    }
+
+    /**
+     * The cheap part of checking an archive nothing indexed: enough to tell a finished
+     * archive from one a crash cut off, without reading it through.
+     */
+    private CacheEntry check(String name, BackupFormat format, FileState state) {
+        File file = new File(backupFolder, name);
+        switch (format) {
+            case ZIP:
+                // The central directory is written last, so a cut-off zip doesn't open
+                try (ZipFile zip = new ZipFile(file)) {
+                    return zip.size() > 0 ? CacheEntry.complete(state, state.size) : CacheEntry.incomplete(state);
+                } catch (IOException e) {
+                    return CacheEntry.incomplete(state);
+                }
+            case CHUNKED:
+                return chunkStore.isComplete(file) ? CacheEntry.complete(state, state.size) : CacheEntry.incomplete(state);
+            case SNAPSHOT:
+                // Nothing marks a snapshot as finished, so one a crash cut short passes too;
+                // restoring it restores the files that were copied
+                String[] children = file.list();
+                return children != null && children.length > 0 ? CacheEntry.complete(state, 0) : CacheEntry.incomplete(state);
+            default:
+                // A tar stream can only be checked by decompressing it, which verify does
+                return state.size > 0 ? CacheEntry.complete(state, state.size) : CacheEntry.incomplete(state);
+        }
+    }
+
+    private static void deleteLeftover(File file) {
+        try {
+            if (file.isDirectory()) {
+                SnapshotStore.delete(file);
+            } else {
+                Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", file.getName(), e);
+        }
+    }
+
+    private static FileState stat(Path path) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        Object fileKey = attrs.fileKey();
+        return new FileState(fileKey != null ? fileKey.toString() : null, attrs.size(),
+                attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
+    }
+
+    private static boolean isPresent(FileState state, BackupFormat format) {
+        return state != null && state.directory == (format == BackupFormat.SNAPSHOT);
+    }
+
+    /**
+     * The format whose extension {@code name} ends in, preferring the longest match, or
+     * null for anything that isn't a backup.
+     */
+    static BackupFormat formatOf(String name) {
+        BackupFormat match = null;
+        for (BackupFormat format : BackupFormat.values()) {
+            if (name.endsWith(format.getExtension())
+                    && (match == null || format.getExtension().length() > match.getExtension().length())) {
+                match = format;
+            }
+        }
+        return match;
+    }
+
+    private static String baseName(String name, BackupFormat format) {
+        return name.endsWith(format.getExtension())
+                ? name.substring(0, name.length() - format.getExtension().length())
+                : name;
+    }
+
+    /**
+     * Backups are named after the time they were taken; the mtime is the fallback for
+     * anything renamed.
+     */
+    private static long createdAt(String name, FileState state) {
+        if (name.length() >= TIMESTAMP_PATTERN.length()) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_PATTERN);
+                format.setLenient(false);
+                return format.parse(name.substring(0, TIMESTAMP_PATTERN.length())).getTime();
+            } catch (ParseException e) {
+                // Not one of ours
+            }
+        }
+        return state.mtime;
+    }
+
+    /**
+     * What one startup pass found. {@code unverified} are the indexed backups still
+     * waiting for {@link #verify}.
+     */
+    public static class Result {
+        private int adopted;
+        private int missing;
+        private int found;
+        private int checked;
+        private long elapsedMillis;
+        private final List<BackupMetadata> unverified = new ArrayList<>();
+
+        public int getAdopted() {
+            return adopted;
+        }
+
+        public int getMissing() {
+            return missing;
+        }
+
+        /**
+         * Entries marked missing at an earlier start whose archive is back.
+         */
+        public int getFound() {
+            return found;
+        }
+
+        /**
+         * Unindexed archives that had to be opened because no cached verdict matched.
+         */
+        public int getChecked() {
+            return checked;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public List<BackupMetadata> getUnverified() {
+            return unverified;
+        }
+    }
+
+    public static class Verified {
+        private final String checksum;
+        private final String listingChecksum;
+        private final long sizeBytes;
+
+        Verified(String checksum, String listingChecksum, long sizeBytes) {
+            this.checksum = checksum;
+            this.listingChecksum = listingChecksum;
+            this.sizeBytes = sizeBytes;
+        }
+
+        /**
+         * The content checksum, or null for a snapshot.
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * A snapshot's listing checksum, or null for other formats.
+         */
+        public String getListingChecksum() {
+            return listingChecksum;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+    }
+
+    private static class FileState {
+        final String fileKey;
+        final long size;
+        final long mtime;
+        final boolean directory;
+
+        FileState(String fileKey, long size, long mtime, boolean directory) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.mtime = mtime;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * A verdict on one file, valid while the file still has the same inode, size and mtime.
+     */
+    private static class CacheEntry {
+        String fileKey;
+        long size;
+        long mtime;
+        boolean complete;
+        long sizeBytes;
+        String checksum;
+
+        static CacheEntry complete(FileState state, long sizeBytes) {
+            CacheEntry entry = of(state);
+            entry.complete = true;
+            entry.sizeBytes = sizeBytes;
+            return entry;
+        }
+
+        static CacheEntry incomplete(FileState state) {
+            return of(state);
+        }
+
+        private static CacheEntry of(FileState state) {
+            CacheEntry entry = new CacheEntry();
+            entry.fileKey = state.fileKey;
+            entry.size = state.size;
+            entry.mtime = state.mtime;
+            return entry;
+        }
+
+        boolean matches(FileState state) {
+            return Objects.equals(fileKey, state.fileKey) && size == state.size && mtime == state.mtime;
+        }
+    }
+}
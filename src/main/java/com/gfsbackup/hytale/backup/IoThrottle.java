@@ -0,0 +1,272 @@
+package com.gfsbackup.hytale.backup;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token-bucket limit on the disk bandwidth the archive pipeline may use, so a backup
+ * running next to the live world doesn't starve the game server of I/O. There is one
+ * bucket for reads and one for writes, shared by every backup, restore, conversion and
+ * download in the process, because they all compete for the same disk.
+ *
+ * A third bucket, {@link #OPS}, limits I/O operations per second for disks that run out
+ * of IOPS before bandwidth. Every read or write request to the byte buckets also takes one
+ * operation from it; a file copied in one request counts once.
+ *
+ * A {@link Limit} is a read and write bucket pair of its own, such as one tier's limit. It
+ * only slows the threads working inside one of its scopes, on top of the shared buckets,
+ * so a slow background conversion of one tier leaves other work at the shared limits.
+ *
+ * Callers ask for bytes before moving them; when the bucket is empty they sleep until
+ * enough tokens have accrued. With burst-when-idle the bucket holds a couple of seconds
+ * of credit, so short operations after a quiet period run at full speed. Without it the
+ * bucket is kept tiny and transfers are paced evenly.
+ */
+public final class IoThrottle {
+    public static final IoThrottle READ = new IoThrottle(IoThrottle.BYTES_PER_MB);
+    public static final IoThrottle WRITE = new IoThrottle(IoThrottle.BYTES_PER_MB);
+    public static final IoThrottle OPS = new IoThrottle(1);
+
+    private static final double BURST_SECONDS = 2.0;
+    private static final double SMOOTH_SECONDS = 0.05;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    // Tokens per configured unit: bytes per MB, or 1 for operations
+    private final double unit;
+
+    private double rate;
+    private double capacity;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    // Threads started inside a meter scope, like an archive's worker pool, count into it too
+    private static final InheritableThreadLocal<Meter> METER = new InheritableThreadLocal<>();
+    private static final InheritableThreadLocal<Bound> LIMIT = new InheritableThreadLocal<>();
+
+    private long totalBytes;
+    private long throttledNanos;
+    private long throttleEvents;
+
+    private IoThrottle(double unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Sets the process-wide limit, in MB/s or for {@link #OPS} in operations per second;
+     * 0 or less means unlimited.
+     */
+    public synchronized void configure(double perSecond, boolean burstWhenIdle) {
+        refill();
+        rate = perSecond > 0 ? perSecond * unit : 0;
+        capacity = rate * (burstWhenIdle ? BURST_SECONDS : SMOOTH_SECONDS);
+        tokens = capacity;
+    }
+
+    /**
+     * Also charges every byte this thread, and any thread it starts, moves through
+     * {@link #READ} or {@link #WRITE} to {@code limit} until the returned scope is closed.
+     * Scopes nest; the innermost one applies. A null limit changes nothing.
+     */
+    public static Scope limit(Limit limit) {
+        if (limit == null) {
+            return () -> { };
+        }
+        Bound bound = new Bound(limit);
+        Bound previous = LIMIT.get();
+        LIMIT.set(bound);
+        return () -> {
+            bound.open = false;
+            LIMIT.set(previous);
+        };
+    }
+
+    /**
+     * Adds every byte this thread, and any thread it starts, reads through {@link #READ}
+     * to {@code counter} until the returned scope is closed. Scopes nest; the innermost
+     * one counts.
+     */
+    public static Scope meter(LongAdder counter) {
+        Meter meter = new Meter(counter);
+        Meter previous = METER.get();
+        METER.set(meter);
+        return () -> {
+            // Long-lived threads started meanwhile keep the reference; make it inert
+            meter.open = false;
+            METER.set(previous);
+        };
+    }
+
+    /**
+     * Blocks until {@code bytes} may be transferred in one more operation.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (bytes <= 0) {
+            return;
+        }
+        if (this == READ) {
+            Meter meter = METER.get();
+            if (meter != null && meter.open) {
+                meter.counter.add(bytes);
+            }
+        }
+        if (this != OPS) {
+            OPS.take(1);
+            Bound bound = LIMIT.get();
+            if (bound != null && bound.open) {
+                (this == READ ? bound.limit.read : bound.limit.write).take(bytes);
+            }
+        }
+        take(bytes);
+    }
+
+    private void take(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            totalBytes += bytes;
+            if (rate <= 0) {
+                return;
+            }
+            refill();
+            // Tokens may go negative: this caller takes the debt and sleeps it off, so
+            // large requests are paced rather than refused
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            waitNanos = (long) (-tokens / rate * 1_000_000_000L);
+            throttledNanos += waitNanos;
+            throttleEvents++;
+        }
+
+        long deadline = System.nanoTime() + waitNanos;
+        long remaining = waitNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for I/O budget");
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                acquire(1);
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                acquire(read);
+                return read;
+            }
+        };
+    }
+
+    public OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                acquire(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        if (this == OPS) {
+            map.put("limitPerSecond", rate);
+            map.put("operations", totalBytes);
+        } else {
+            map.put("limitMBps", rate / BYTES_PER_MB);
+            map.put("bytes", totalBytes);
+        }
+        map.put("throttledMillis", throttledNanos / 1_000_000);
+        map.put("throttleEvents", throttleEvents);
+        return map;
+    }
+
+    public static Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("read", READ.toMap());
+        metrics.put("write", WRITE.toMap());
+        metrics.put("ops", OPS.toMap());
+        return metrics;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / 1_000_000_000.0 * rate);
+        }
+        lastRefill = now;
+    }
+
+    private static final class Meter {
+        final LongAdder counter;
+        volatile boolean open = true;
+
+        Meter(LongAdder counter) {
+            this.counter = counter;
+        }
+    }
+
+    /**
+     * Read and write buckets of their own, shared by every scope opened on them.
+     */
+    public static final class Limit {
+        private final IoThrottle read = new IoThrottle(BYTES_PER_MB);
+        private final IoThrottle write = new IoThrottle(BYTES_PER_MB);
+
+        /**
+         * @param mbPerSecond the limit in each direction; 0 or less means unlimited
+         */
+        public Limit(double mbPerSecond, boolean burstWhenIdle) {
+            read.configure(mbPerSecond, burstWhenIdle);
+            write.configure(mbPerSecond, burstWhenIdle);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("read", read.toMap());
+            map.put("write", write.toMap());
+            return map;
+        }
+    }
+
+    private static final class Bound {
+        final Limit limit;
+        volatile boolean open = true;
+
+        Bound(Limit limit) {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * An open per-operation limit or meter; closing it ends it again.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,566 @@
+package com.gfsbackup.hytale.backup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a standard zip archive while deflating entries on a worker pool.
+ *
+ * Entries are submitted in archive order and joined back in that same order, so the
+ * output is byte-for-byte a normal zip. Files larger than {@link #SLICE_SIZE} are split
+ * into slices that are compressed independently (each primed with the preceding 32 KB
+ * as a dictionary) and stitched together with sync flushes, the same trick pigz uses.
+ * Sliced entries carry a data descriptor so the output stays strictly append-only.
+ */
+public class ParallelZipWriter implements Closeable {
+    static final int SLICE_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final double NOMINAL_DEFLATE_NANOS_PER_BYTE = 25.0;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    private final CompressionPolicy policy;
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong deflatedBytes = new AtomicLong();
+    private final AtomicLong deflateNanos = new AtomicLong();
+    private final Deque<Slice> pending = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    private EntryListener entryListener;
+    private long offset;
+    private long uncompressedBytes;
+    private boolean finished;
+
+    public ParallelZipWriter(OutputStream out, int threads) {
+        this(out, threads, CompressionPolicy.DEFAULT);
+    }
+
+    public ParallelZipWriter(OutputStream out, int threads, CompressionPolicy policy) {
+        int workers = resolveThreads(threads);
+        this.out = out;
+        this.policy = policy;
+        this.maxInFlight = workers * 2;
+        this.pool = Executors.newFixedThreadPool(workers,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-compress-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+    }
+
+    public static int resolveThreads(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setEntryListener(EntryListener entryListener) {
+        this.entryListener = entryListener;
+    }
+
+    public void addDirectory(String name, long lastModified) throws IOException {
+        Entry entry = new Entry(name.endsWith("/") ? name : name + "/", lastModified, METHOD_STORED);
+        enqueue(new Slice(entry, true, true, CompletableFuture.completedFuture(Deflated.EMPTY)));
+    }
+
+    public void addFile(Path file, String name, long size, long lastModified) throws IOException {
+        Entry entry = new Entry(name, lastModified, METHOD_DEFLATED);
+
+        if (size <= SLICE_SIZE) {
+            enqueue(new Slice(entry, true, true, pool.submit(() -> compressWholeFile(file, name))));
+            return;
+        }
+
+        entry.descriptor = true;
+        entry.zip64 = size >= ZIP64_MAGIC;
+        for (long position = 0; position < size; position += SLICE_SIZE) {
+            long start = position;
+            int length = (int) Math.min(SLICE_SIZE, size - position);
+            boolean last = position + length >= size;
+            enqueue(new Slice(entry, start == 0, last, pool.submit(() -> compressSlice(file, name, start, length, last))));
+        }
+    }
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        writeCentralDirectory();
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Stops the workers without closing the underlying stream.
+     */
+    public void shutdown() {
+        for (Slice slice : pending) {
+            slice.result.cancel(true);
+        }
+        pending.clear();
+        pool.shutdownNow();
+    }
+
+    @Override
+    public void close() throws IOException {
+        shutdown();
+        out.close();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    public long getBytesWritten() {
+        return offset;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     * Estimated CPU time that deflating the stored data would have cost, based on the
+     * deflate rate measured on the rest of this archive.
+     */
+    public long getCompressionMillisSaved() {
+        long deflated = deflatedBytes.get();
+        double nanosPerByte = deflated > 0 ? (double) deflateNanos.get() / deflated : NOMINAL_DEFLATE_NANOS_PER_BYTE;
+        return (long) (storedBytes.get() * nanosPerByte / 1_000_000);
+    }
+
+    private void enqueue(Slice slice) throws IOException {
+        if (slice.first) {
+            entries.add(slice.entry);
+        }
+        pending.addLast(slice);
+        while (pending.size() > maxInFlight) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Slice slice = pending.removeFirst();
+        Deflated deflated = await(slice.result);
+        Entry entry = slice.entry;
+
+        if (slice.first) {
+            entry.offset = offset;
+            if (!entry.descriptor) {
+                entry.method = deflated.method;
+                entry.crc = deflated.crc;
+                entry.size = deflated.rawLength;
+                entry.compressedSize = deflated.length;
+            }
+            writeLocalHeader(entry);
+        }
+
+        write(deflated.data, 0, deflated.length);
+        uncompressedBytes += deflated.rawLength;
+
+        if (entry.descriptor) {
+            entry.crc = slice.first ? deflated.crc : crc32Combine(entry.crc, deflated.crc, deflated.rawLength);
+            entry.size += deflated.rawLength;
+            entry.compressedSize += deflated.length;
+            if (slice.last) {
+                writeDataDescriptor(entry);
+            }
+        }
+
+        if (slice.last && entryListener != null && !entry.isDirectory()) {
+            entryListener.entryWritten(new String(entry.name, StandardCharsets.UTF_8), entry.size, entry.crc);
+        }
+    }
+
+    private Deflated compressWholeFile(Path file, String name) throws IOException {
+        byte[] data = DirectIo.readAll(file);
+        IoThrottle.READ.acquire(data.length);
+        int level = policy.levelFor(name, data, data.length);
+        if (level == CompressionPolicy.STORE) {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            storedBytes.addAndGet(data.length);
+            return new Deflated(data, data.length, crc.getValue(), data.length, METHOD_STORED);
+        }
+        return deflate(data, data.length, null, true, level);
+    }
+
+    private Deflated compressSlice(Path file, String name, long position, int length, boolean last) throws IOException {
+        byte[] dictionary = null;
+        if (position > 0) {
+            int dictionaryLength = (int) Math.min(DICTIONARY_SIZE, position);
+            dictionary = new byte[dictionaryLength];
+            dictionaryLength = DirectIo.read(file, position - dictionaryLength, dictionary, dictionaryLength);
+            dictionary = Arrays.copyOf(dictionary, dictionaryLength);
+        }
+
+        byte[] data = new byte[length];
+        int read = DirectIo.read(file, position, data, length);
+        IoThrottle.READ.acquire(read);
+
+        // Sliced entries stream through a data descriptor, which zip only allows for
+        // deflate, so "store" becomes deflate level 0: raw blocks with a few bytes of framing
+        int level = policy.levelFor(name, data, read);
+        return deflate(data, read, dictionary, last, level);
+    }
+
+    private Deflated deflate(byte[] data, int length, byte[] dictionary, boolean last, int level) {
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        if (dictionary != null && dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data, 0, length);
+
+        byte[] output = new byte[length + (length >> 9) + 64];
+        int written = 0;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (written == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                written += deflater.deflate(output, written, output.length - written);
+            }
+        } else {
+            do {
+                if (written == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                written += deflater.deflate(output, written, output.length - written, Deflater.SYNC_FLUSH);
+            } while (written == output.length || !deflater.needsInput());
+        }
+
+        if (level == CompressionPolicy.STORE) {
+            storedBytes.addAndGet(length);
+        } else {
+            deflatedBytes.addAndGet(length);
+            deflateNanos.addAndGet(System.nanoTime() - start);
+        }
+        return new Deflated(output, written, crc.getValue(), length, METHOD_DEFLATED);
+    }
+
+    private static Deflated await(Future<Deflated> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing backup");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Compression task failed", cause);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        boolean zip64 = entry.zip64 || entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+
+        header.clear();
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) entry.flags());
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        if (entry.descriptor) {
+            header.putInt(0);
+            header.putInt(zip64 ? (int) ZIP64_MAGIC : 0);
+            header.putInt(zip64 ? (int) ZIP64_MAGIC : 0);
+        } else {
+            header.putInt((int) entry.crc);
+            header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+            header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) entry.size);
+        }
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        writeHeader();
+        write(entry.name, 0, entry.name.length);
+
+        if (zip64) {
+            header.clear();
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(entry.descriptor ? 0 : entry.size);
+            header.putLong(entry.descriptor ? 0 : entry.compressedSize);
+            writeHeader();
+        }
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        header.clear();
+        header.putInt(0x08074b50);
+        header.putInt((int) entry.crc);
+        if (entry.zip64) {
+            header.putLong(entry.compressedSize);
+            header.putLong(entry.size);
+        } else {
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.size);
+        }
+        writeHeader();
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralStart = offset;
+
+        for (Entry entry : entries) {
+            boolean sizeOverflow = entry.size >= ZIP64_MAGIC;
+            boolean compressedOverflow = entry.compressedSize >= ZIP64_MAGIC;
+            boolean offsetOverflow = entry.offset >= ZIP64_MAGIC;
+            int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+            int version = extraLength > 0 || entry.zip64 ? 45 : 20;
+
+            header.clear();
+            header.putInt(0x02014b50);
+            header.putShort((short) version);
+            header.putShort((short) version);
+            header.putShort((short) entry.flags());
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt(compressedOverflow ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+            header.putInt(sizeOverflow ? (int) ZIP64_MAGIC : (int) entry.size);
+            header.putShort((short) entry.name.length);
+            header.putShort((short) (extraLength > 0 ? extraLength + 4 : 0));
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt(offsetOverflow ? (int) ZIP64_MAGIC : (int) entry.offset);
+            writeHeader();
+            write(entry.name, 0, entry.name.length);
+
+            if (extraLength > 0) {
+                header.clear();
+                header.putShort((short) 0x0001);
+                header.putShort((short) extraLength);
+                if (sizeOverflow) {
+                    header.putLong(entry.size);
+                }
+                if (compressedOverflow) {
+                    header.putLong(entry.compressedSize);
+                }
+                if (offsetOverflow) {
+                    header.putLong(entry.offset);
+                }
+                writeHeader();
+            }
+        }
+
+        long centralEnd = offset;
+        long centralSize = centralEnd - centralStart;
+        boolean zip64 = entries.size() >= 0xFFFF || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+
+        if (zip64) {
+            header.clear();
+            header.putInt(0x06064b50);
+            header.putLong(44);
+            header.putShort((short) 45);
+            header.putShort((short) 45);
+            header.putInt(0);
+            header.putInt(0);
+            header.putLong(entries.size());
+            header.putLong(entries.size());
+            header.putLong(centralSize);
+            header.putLong(centralStart);
+            writeHeader();
+
+            header.clear();
+            header.putInt(0x07064b50);
+            header.putInt(0);
+            header.putLong(centralEnd);
+            header.putInt(1);
+            writeHeader();
+        }
+
+        header.clear();
+        header.putInt(0x06054b50);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) Math.min(entries.size(), 0xFFFF));
+        header.putShort((short) Math.min(entries.size(), 0xFFFF));
+        header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralSize);
+        header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralStart);
+        header.putShort((short) 0);
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        write(header.array(), 0, header.position());
+    }
+
+    private void write(byte[] data, int off, int length) throws IOException {
+        out.write(data, off, length);
+        offset += length;
+    }
+
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private static int toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    public interface EntryListener {
+        void entryWritten(String name, long size, long crc);
+    }
+
+    private static final class Entry {
+        final byte[] name;
+        final int dosTime;
+        int method;
+        boolean descriptor;
+        boolean zip64;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+
+        Entry(String name, long lastModified, int method) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.dosTime = toDosTime(lastModified);
+            this.method = method;
+        }
+
+        boolean isDirectory() {
+            return name.length > 0 && name[name.length - 1] == '/';
+        }
+
+        int flags() {
+            return FLAG_UTF8 | (descriptor ? FLAG_DATA_DESCRIPTOR : 0);
+        }
+    }
+
+    private static final class Slice {
+        final Entry entry;
+        final boolean first;
+        final boolean last;
+        final Future<Deflated> result;
+
+        Slice(Entry entry, boolean first, boolean last, Future<Deflated> result) {
+            this.entry = entry;
+            this.first = first;
+            this.last = last;
+            this.result = result;
+        }
+    }
+
+    private static final class Deflated {
+        static final Deflated EMPTY = new Deflated(new byte[0], 0, 0, 0, METHOD_STORED);
+
+        final byte[] data;
+        final int length;
+        final long crc;
+        final long rawLength;
+        final int method;
+
+        Deflated(byte[] data, int length, long crc, long rawLength, int method) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.rawLength = rawLength;
+            this.method = method;
+        }
+    }
+}
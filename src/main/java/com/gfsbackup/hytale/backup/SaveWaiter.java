@@ -0,0 +1,83 @@
+package com.gfsbackup.hytale.backup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for the world to stop being written after a {@code save}. The server flushes
+ * region files asynchronously, and how long that takes depends on the world: a fixed
+ * sleep is either too short for a big world or wasted time on a small one.
+ *
+ * The world counts as settled once nothing under it has changed for the settle window.
+ * With a {@link DirtyTracker} the time of its last watch event is used; otherwise the
+ * tree is fingerprinted repeatedly and a changed fingerprint counts as activity. Either
+ * way the wait ends at the hard timeout, and the backup proceeds with a warning.
+ */
+public class SaveWaiter {
+    private static final Logger logger = LoggerFactory.getLogger(SaveWaiter.class);
+
+    private static final long MIN_POLL_MILLIS = 50;
+    private static final long MAX_POLL_MILLIS = 250;
+
+    private final File worldFolder;
+    private final DirtyTracker tracker;
+    private final int threads;
+
+    /**
+     * @param tracker the world's watch, or null to poll fingerprints instead
+     */
+    public SaveWaiter(File worldFolder, DirtyTracker tracker, int threads) {
+        this.worldFolder = worldFolder;
+        this.tracker = tracker;
+        this.threads = threads;
+    }
+
+    /**
+     * Blocks until no write has been seen for {@code settleMillis}, or {@code timeoutMillis}
+     * have passed. Starts counting when called, so it should be called right after the
+     * save was issued. Returns the time actually waited.
+     */
+    public long awaitQuiet(long settleMillis, long timeoutMillis) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long settle = TimeUnit.MILLISECONDS.toNanos(Math.max(0, settleMillis));
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.max(settleMillis, timeoutMillis));
+        long poll = TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_POLL_MILLIS, Math.max(MIN_POLL_MILLIS, settleMillis / 4)));
+
+        long lastActivity = start;
+        String fingerprint = tracker == null ? WorldFingerprint.compute(worldFolder, threads) : null;
+        while (true) {
+            long now = System.nanoTime();
+            if (tracker != null) {
+                lastActivity = Math.max(lastActivity, tracker.lastChangeNanos());
+            } else {
+                String current = WorldFingerprint.compute(worldFolder, threads);
+                if (!current.equals(fingerprint)) {
+                    fingerprint = current;
+                    lastActivity = now;
+                }
+            }
+
+            long quietUntil = lastActivity + settle;
+            if (now - quietUntil >= 0) {
+                break;
+            }
+            if (now - deadline >= 0) {
+                logger.warn("World still being written after {} ms, backing up anyway",
+                        TimeUnit.NANOSECONDS.toMillis(now - start));
+                break;
+            }
+            // A watch reports activity as it happens, so sleep until the window could close;
+            // polling has to look again to find out
+            long sleep = tracker != null ? quietUntil - now : Math.min(poll, quietUntil - now);
+            TimeUnit.NANOSECONDS.sleep(Math.min(sleep, deadline - now));
+        }
+
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.debug("World settled after {} ms", waited);
+        return waited;
+    }
+}
@@ -0,0 +1,305 @@
+package com.gfsbackup.hytale.backup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hardlink-farm snapshots, in the spirit of {@code rsync --link-dest}. Each backup is a plain
+ * directory tree. A file whose size and mtime match the previous snapshot becomes a hard link
+ * to that snapshot's copy, so only changed files cost a copy and disk space. Links only ever
+ * point between snapshots, never into the live world, and snapshot files are never written
+ * after creation. Deleting one snapshot just drops its links, leaving siblings intact.
+ */
+public class SnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+    /**
+     * Creates {@code snapshotFolder} from {@code sourceFolder}, linking unchanged files to
+     * {@code previousSnapshot} (may be null). The compressed size reported is the bytes
+     * actually copied. There is no content checksum, since hashing every byte would defeat
+     * the point of linking; only a listing checksum over the sorted (path, size, mtime) listing.
+     */
+    public ArchiveResult create(File sourceFolder, File snapshotFolder, File previousSnapshot, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        Path sourcePath = sourceFolder.toPath();
+        Path targetPath = snapshotFolder.toPath();
+        Path previousPath = previousSnapshot != null && previousSnapshot.isDirectory() ? previousSnapshot.toPath() : null;
+
+        TreeMap<String, String> listing = new TreeMap<>();
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        Files.createDirectories(targetPath);
+
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(targetPath.resolve(sourcePath.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                attributes.add(attrs);
+                listing.put(entryName(sourcePath, file), attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        AtomicLong copiedBytes = new AtomicLong();
+        AtomicLong totalBytes = new AtomicLong();
+        AtomicInteger linked = new AtomicInteger();
+        AtomicInteger linkFailures = new AtomicInteger();
+
+        ExecutorService pool = newPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                BasicFileAttributes attrs = attributes.get(i);
+                futures.add(pool.submit(() -> {
+                    Path relative = sourcePath.relativize(file);
+                    Path target = targetPath.resolve(relative);
+                    totalBytes.addAndGet(attrs.size());
+
+                    if (previousPath != null && linkUnchanged(previousPath.resolve(relative), target, attrs, linkFailures)) {
+                        linked.incrementAndGet();
+                        return null;
+                    }
+                    // Stamp the mtime seen by the walk, not the one after copying, so a file
+                    // written mid-copy looks changed to the next snapshot and is copied again
+                    IoThrottle.READ.acquire(attrs.size());
+                    IoThrottle.WRITE.acquire(attrs.size());
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                    Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+                    copiedBytes.addAndGet(attrs.size());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } catch (IOException e) {
+            delete(snapshotFolder);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (linkFailures.get() > 0) {
+            logger.warn("Hard links failed for {} files (filesystem without link support?), copied them instead",
+                    linkFailures.get());
+        }
+        logger.info("Snapshot {}: {} files linked, {} copied ({} MB)", snapshotFolder.getName(),
+                linked.get(), files.size() - linked.get(), copiedBytes.get() / (1024 * 1024));
+
+        return ArchiveResult.snapshot(
+                files.size(),
+                totalBytes.get(),
+                copiedBytes.get(),
+                System.currentTimeMillis() - start,
+                listingChecksum(listing)
+        );
+    }
+
+    /**
+     * Walks an existing snapshot and returns its file count, total size and the listing
+     * checksum {@link #create} reported for it. Snapshot files keep the mtime of the world file they
+     * were copied from, so the listing comes out the same. How much of the snapshot was
+     * copied rather than linked can't be told afterwards; both sizes are the total.
+     */
+    public static ArchiveResult describe(File snapshotFolder) throws IOException {
+        long start = System.currentTimeMillis();
+        Path root = snapshotFolder.toPath();
+        TreeMap<String, String> listing = new TreeMap<>();
+        long[] totalBytes = {0};
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                listing.put(entryName(root, file), attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                totalBytes[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return ArchiveResult.snapshot(listing.size(), totalBytes[0], totalBytes[0],
+                System.currentTimeMillis() - start, listingChecksum(listing));
+    }
+
+    public void restore(File snapshotFolder, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        copyTree(snapshotFolder.toPath(), snapshotFolder.toPath(), destFolder.toPath(), threads, progress);
+    }
+
+    /**
+     * Restores {@code path} and, if it is a directory, everything below it. Returns the
+     * number of files written.
+     */
+    public int restorePath(File snapshotFolder, String path, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        Path root = snapshotFolder.toPath();
+        Path from = ZipUtility.resolveEntry(root.toAbsolutePath().normalize(), path);
+        if (!Files.exists(from)) {
+            return 0;
+        }
+        return copyTree(root.toAbsolutePath().normalize(), from, destFolder.toPath(), threads, progress);
+    }
+
+    public void exportZip(File snapshotFolder, OutputStream out, int threads) throws IOException {
+        ZipUtility.writeZip(snapshotFolder, out, threads, CompressionPolicy.DEFAULT, (name, attrs) -> true, null);
+    }
+
+    /**
+     * Deletes a snapshot tree. Hard-linked files only lose one link, so other snapshots
+     * sharing them are unaffected.
+     */
+    public static void delete(File snapshotFolder) throws IOException {
+        if (!snapshotFolder.exists()) {
+            return;
+        }
+        Files.walkFileTree(snapshotFolder.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean linkUnchanged(Path previous, Path target, BasicFileAttributes attrs,
+                                         AtomicInteger linkFailures) throws IOException {
+        BasicFileAttributes previousAttrs;
+        try {
+            previousAttrs = Files.readAttributes(previous, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!previousAttrs.isRegularFile()
+                || previousAttrs.size() != attrs.size()
+                || previousAttrs.lastModifiedTime().toMillis() != attrs.lastModifiedTime().toMillis()) {
+            return false;
+        }
+
+        try {
+            Files.createLink(target, previous);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // No link support, a different volume, or the per-inode link limit: copy instead
+            linkFailures.incrementAndGet();
+            return false;
+        }
+    }
+
+    private int copyTree(Path root, Path from, Path destPath, int threads, ExtractionProgress progress) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long[] totalBytes = {0};
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destPath.resolve(root.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destPath.resolve(root.relativize(file).toString()).getParent());
+                files.add(file);
+                totalBytes[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (progress != null) {
+            progress.expect(files.size(), totalBytes[0]);
+        }
+
+        // Copies, never links: the restored world will be written to, and a snapshot must not change
+        ExecutorService pool = newPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(pool.submit(() -> {
+                    long size = Files.size(file);
+                    IoThrottle.READ.acquire(size);
+                    IoThrottle.WRITE.acquire(size);
+                    Files.copy(file, destPath.resolve(root.relativize(file).toString()),
+                            StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                    if (progress != null) {
+                        progress.addBytes(size);
+                        progress.entryDone();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+        return files.size();
+    }
+
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(ParallelZipWriter.resolveThreads(threads),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-snapshot-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying snapshot files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Snapshot task failed", cause);
+        }
+    }
+
+    private static String listingChecksum(TreeMap<String, String> listing) {
+        MessageDigest digest = ZipUtility.newDigest();
+        listing.forEach((name, state) -> digest.update((name + "\0" + state + "\n").getBytes(StandardCharsets.UTF_8)));
+        return ZipUtility.formatChecksum(digest.digest());
+    }
+
+    private static String entryName(Path sourcePath, Path path) {
+        return sourcePath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,85 @@
+package com.gfsbackup.hytale.backup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Short-lived copies of the world taken right after the save, so compression can run later
+ * without reading live files. Each capture is a {@link SnapshotStore} tree linked against
+ * the newest earlier capture, so only files changed since then are copied. The newest
+ * capture is kept after it has been archived to serve as the link base for the next one;
+ * the staging area therefore holds about one extra copy of the world.
+ */
+public class StagingArea {
+    private static final Logger logger = LoggerFactory.getLogger(StagingArea.class);
+
+    private final File stagingFolder;
+    private final SnapshotStore snapshotStore = new SnapshotStore();
+
+    public StagingArea(File stagingFolder) {
+        this.stagingFolder = stagingFolder;
+    }
+
+    /**
+     * Copies (or links) the world into a new capture named {@code name}. Names must sort
+     * in capture order.
+     */
+    public File capture(File worldFolder, String name, int threads) throws IOException {
+        stagingFolder.mkdirs();
+        File target = new File(stagingFolder, name);
+        File[] captures = listCaptures();
+        File base = captures.length > 0 ? captures[captures.length - 1] : null;
+
+        long start = System.currentTimeMillis();
+        ArchiveResult result = snapshotStore.create(worldFolder, target, base, threads);
+        logger.info("Captured world into staging in {} ms ({} MB copied, {} MB linked)",
+                System.currentTimeMillis() - start,
+                result.getCompressedBytes() / (1024 * 1024),
+                (result.getUncompressedBytes() - result.getCompressedBytes()) / (1024 * 1024));
+        return target;
+    }
+
+    /**
+     * Called once {@code capture} has been archived: deletes every older capture, keeping
+     * this one as the next link base.
+     */
+    public void release(File capture) {
+        for (File older : listCaptures()) {
+            if (older.getName().compareTo(capture.getName()) < 0) {
+                delete(older);
+            }
+        }
+    }
+
+    /**
+     * Drops everything except the newest capture, e.g. captures left behind when the server
+     * stopped before they were archived.
+     */
+    public void cleanup() {
+        File[] captures = listCaptures();
+        for (int i = 0; i < captures.length - 1; i++) {
+            delete(captures[i]);
+        }
+    }
+
+    private File[] listCaptures() {
+        File[] captures = stagingFolder.listFiles(File::isDirectory);
+        if (captures == null) {
+            return new File[0];
+        }
+        Arrays.sort(captures);
+        return captures;
+    }
+
+    private void delete(File capture) {
+        try {
+            SnapshotStore.delete(capture);
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged capture {}", capture.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.gfsbackup.hytale.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A cheap identity for the state of a world tree: the SHA-256 of the sorted (path, size,
+ * mtime) listing. No file contents are read. Directories are listed in parallel on a
+ * fork/join pool, one task per directory, so a world with thousands of region files is
+ * fingerprinted in a fraction of a second.
+ *
+ * An instance keeps the listing so it can be brought up to date from the paths a
+ * {@link DirtyTracker} saw change, stat-ing only those instead of walking the tree again.
+ */
+public final class WorldFingerprint {
+    private final Path root;
+    private final TreeMap<String, String> listing;
+
+    private WorldFingerprint(Path root, TreeMap<String, String> listing) {
+        this.root = root;
+        this.listing = listing;
+    }
+
+    /**
+     * Returns {@code sha256:<hex>} for the tree under {@code worldFolder}. Two calls
+     * return the same value exactly when no file was added, removed, resized or touched.
+     */
+    public static String compute(File worldFolder, int threads) throws IOException {
+        return scan(worldFolder, threads).digest();
+    }
+
+    /**
+     * Walks the whole tree in parallel and keeps the listing for later {@link #update} calls.
+     */
+    public static WorldFingerprint scan(File worldFolder, int threads) throws IOException {
+        Path root = worldFolder.toPath();
+        Map<String, String> entries = new ConcurrentHashMap<>();
+
+        ForkJoinPool pool = new ForkJoinPool(ParallelZipWriter.resolveThreads(threads));
+        try {
+            pool.invoke(new DirectoryTask(root, root, entries));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        return new WorldFingerprint(root, new TreeMap<>(entries));
+    }
+
+    /**
+     * Re-reads the attributes of {@code dirtyPaths} (relative, '/'-separated; files or
+     * directories) and returns the names of files that were added, modified or removed.
+     * Paths not listed are assumed unchanged.
+     */
+    public Set<String> update(Collection<String> dirtyPaths) throws IOException {
+        Set<String> changed = new HashSet<>();
+        for (String name : dirtyPaths) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(root.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                attrs = null;
+            }
+
+            if (attrs != null && attrs.isRegularFile()) {
+                removeSubtree(name, changed);
+                String state = fileState(attrs);
+                if (!state.equals(listing.put(name, state))) {
+                    changed.add(name);
+                }
+            } else if (attrs != null && attrs.isDirectory()) {
+                // Its contents are reported as paths of their own
+                if (listing.remove(name) != null) {
+                    changed.add(name);
+                }
+                listing.put(name + "/", "");
+            } else {
+                if (listing.remove(name) != null) {
+                    changed.add(name);
+                }
+                removeSubtree(name, changed);
+            }
+        }
+        return changed;
+    }
+
+    public String digest() {
+        MessageDigest digest = ZipUtility.newDigest();
+        for (Map.Entry<String, String> entry : listing.entrySet()) {
+            String line = entry.getValue().isEmpty()
+                    ? entry.getKey() + "\n"
+                    : entry.getKey() + "\0" + entry.getValue() + "\n";
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return ZipUtility.formatChecksum(digest.digest());
+    }
+
+    /**
+     * Every directory in the tree, without a trailing slash, parents before children.
+     */
+    public List<String> directories() {
+        List<String> directories = new ArrayList<>();
+        for (Map.Entry<String, String> entry : listing.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                directories.add(entry.getKey().substring(0, entry.getKey().length() - 1));
+            }
+        }
+        return directories;
+    }
+
+    private void removeSubtree(String name, Set<String> changed) {
+        SortedMap<String, String> subtree = listing.subMap(name + "/", name + "/\uffff");
+        for (Map.Entry<String, String> entry : subtree.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                changed.add(entry.getKey());
+            }
+        }
+        subtree.clear();
+    }
+
+    private static String fileState(BasicFileAttributes attrs) {
+        return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+    }
+
+    // Fork/join tasks are never serialized
+    @SuppressWarnings("serial")
+    private static final class DirectoryTask extends RecursiveAction {
+        private final Path root;
+        private final Path dir;
+        private final Map<String, String> entries;
+
+        DirectoryTask(Path root, Path dir, Map<String, String> entries) {
+            this.root = root;
+            this.dir = dir;
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        // Replaced or deleted while the server was writing; it is simply absent
+                        continue;
+                    }
+                    String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    if (attrs.isDirectory()) {
+                        // Empty directories count too; the backup recreates them
+                        entries.put(name + "/", "");
+                        children.add(new DirectoryTask(root, path, entries));
+                    } else if (attrs.isRegularFile()) {
+                        entries.put(name, fileState(attrs));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                if (dir.equals(root)) {
+                    throw new UncheckedIOException(e);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(children);
+        }
+    }
+}
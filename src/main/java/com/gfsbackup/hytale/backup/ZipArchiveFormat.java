@@ -0,0 +1,31 @@
+package com.gfsbackup.hytale.backup;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ZipArchiveFormat implements ArchiveFormat {
+    public static final ZipArchiveFormat INSTANCE = new ZipArchiveFormat();
+
+    private ZipArchiveFormat() {
+    }
+
+    @Override
+    public ArchiveResult create(File sourceFolder, File archiveFile, int threads, CompressionPolicy policy) throws IOException {
+        return ZipUtility.createZip(sourceFolder, archiveFile, threads, policy, (name, attrs) -> true, null);
+    }
+
+    @Override
+    public void extract(File archiveFile, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        ZipUtility.extractZip(archiveFile, destFolder, threads, progress);
+    }
+
+    @Override
+    public int extractPath(File archiveFile, String path, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        return ZipUtility.extractPath(archiveFile, path, destFolder, threads, progress);
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/zip";
+    }
+}
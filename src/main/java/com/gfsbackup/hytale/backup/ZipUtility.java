@@ -1,86 +1,327 @@
 package com.gfsbackup.hytale.backup;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 public class ZipUtility {
+    private static final int EXTRACT_BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<byte[]> EXTRACT_CHUNKS = ThreadLocal.withInitial(() -> new byte[EXTRACT_BUFFER_SIZE]);
+    private static final ThreadLocal<ByteBuffer> EXTRACT_BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(EXTRACT_BUFFER_SIZE));
 
-    public static void createZip(File sourceFolder, File zipFile) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(zipFile);
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
+    public static ArchiveResult createZip(File sourceFolder, File zipFile) throws IOException {
+        return createZip(sourceFolder, zipFile, 0);
+    }
 
-            Path sourcePath = sourceFolder.toPath();
+    public static ArchiveResult createZip(File sourceFolder, File zipFile, int threads) throws IOException {
+        return createZip(sourceFolder, zipFile, threads, CompressionPolicy.DEFAULT, (name, attrs) -> true, null);
+    }
+
+    /**
+     * Archives the files under {@code sourceFolder} that {@code include} accepts. Directories are
+     * always recorded so the tree shape survives even when none of their files changed.
+     */
+    public static ArchiveResult createZip(File sourceFolder, File zipFile, int threads, CompressionPolicy policy,
+                                          BiPredicate<String, BasicFileAttributes> include,
+                                          ParallelZipWriter.EntryListener listener) throws IOException {
+        return createZip(zipFile, out -> writeZip(sourceFolder, out, threads, policy, include, listener));
+    }
 
-            Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Path relativePath = sourcePath.relativize(file);
-                    String zipEntryName = relativePath.toString().replace(File.separatorChar, '/');
+    /**
+     * Like {@link #createZip(File, File, int, CompressionPolicy, BiPredicate, ParallelZipWriter.EntryListener)}
+     * but archives only the named {@code files} (those that still exist and that {@code include}
+     * accepts) and {@code directories}, without walking the tree.
+     */
+    public static ArchiveResult createZip(File sourceFolder, File zipFile, int threads, CompressionPolicy policy,
+                                          Collection<String> directories, Collection<String> files,
+                                          BiPredicate<String, BasicFileAttributes> include,
+                                          ParallelZipWriter.EntryListener listener) throws IOException {
+        Path sourcePath = sourceFolder.toPath();
+        return createZip(zipFile, out -> writeZip(out, threads, policy, listener, writer -> {
+            for (String name : directories) {
+                BasicFileAttributes attrs = readAttributes(sourcePath.resolve(name));
+                if (attrs != null && attrs.isDirectory()) {
+                    writer.addDirectory(name + "/", attrs.lastModifiedTime().toMillis());
+                }
+            }
+            for (String name : files) {
+                Path file = sourcePath.resolve(name);
+                BasicFileAttributes attrs = readAttributes(file);
+                if (attrs != null && attrs.isRegularFile() && include.test(name, attrs)) {
+                    writer.addFile(file, name, attrs.size(), attrs.lastModifiedTime().toMillis());
+                }
+            }
+        }));
+    }
 
-                    ZipEntry zipEntry = new ZipEntry(zipEntryName);
-                    zos.putNextEntry(zipEntry);
+    private static ArchiveResult createZip(File zipFile, ZipBody body) throws IOException {
+        MessageDigest digest = newDigest();
 
-                    Files.copy(file, zos);
-                    zos.closeEntry();
+        // The digest sits below the buffer so it is fed in large blocks as the archive
+        // hits the disk; the finished file never has to be read back to checksum it.
+        try (OutputStream out = new BufferedOutputStream(
+                new DigestOutputStream(IoThrottle.WRITE.wrap(DirectIo.newOutputStream(zipFile)), digest), 1024 * 1024)) {
+            ArchiveResult result = body.write(out);
+            return new ArchiveResult(
+                    result.getEntryCount(),
+                    result.getUncompressedBytes(),
+                    result.getCompressedBytes(),
+                    result.getElapsedMillis(),
+                    formatChecksum(digest.digest()),
+                    result.getStoredBytes(),
+                    result.getCpuSavedMillis()
+            );
+        } catch (IOException e) {
+            zipFile.delete();
+            throw e;
+        }
+    }
 
-                    return FileVisitResult.CONTINUE;
-                }
+    /**
+     * Streams a zip of {@code sourceFolder} to {@code out}, which is left open. The result
+     * carries no checksum.
+     */
+    public static ArchiveResult writeZip(File sourceFolder, OutputStream out, int threads, CompressionPolicy policy,
+                                         BiPredicate<String, BasicFileAttributes> include,
+                                         ParallelZipWriter.EntryListener listener) throws IOException {
+        Path sourcePath = sourceFolder.toPath();
+        return writeZip(out, threads, policy, listener, writer ->
+                Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        String name = entryName(sourcePath, file);
+                        if (include.test(name, attrs)) {
+                            writer.addFile(file, name, attrs.size(), attrs.lastModifiedTime().toMillis());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
 
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    if (!dir.equals(sourcePath)) {
-                        Path relativePath = sourcePath.relativize(dir);
-                        String zipEntryName = relativePath.toString().replace(File.separatorChar, '/') + "/";
-                        ZipEntry zipEntry = new ZipEntry(zipEntryName);
-                        zos.putNextEntry(zipEntry);
-                        zos.closeEntry();
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        if (!dir.equals(sourcePath)) {
+                            writer.addDirectory(entryName(sourcePath, dir) + "/", attrs.lastModifiedTime().toMillis());
+                        }
+                        return FileVisitResult.CONTINUE;
                     }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+                }));
+    }
+
+    private static ArchiveResult writeZip(OutputStream out, int threads, CompressionPolicy policy,
+                                          ParallelZipWriter.EntryListener listener, EntrySource entries) throws IOException {
+        long start = System.currentTimeMillis();
+        ParallelZipWriter writer = new ParallelZipWriter(out, threads, policy);
+        try {
+            writer.setEntryListener(listener);
+            entries.addTo(writer);
+            writer.finish();
+
+            return new ArchiveResult(
+                    writer.getEntryCount(),
+                    writer.getUncompressedBytes(),
+                    writer.getBytesWritten(),
+                    System.currentTimeMillis() - start,
+                    null,
+                    writer.getStoredBytes(),
+                    writer.getCompressionMillisSaved()
+            );
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
         }
     }
 
+    private static String entryName(Path sourcePath, Path path) {
+        return sourcePath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
     public static void extractZip(File zipFile, File destFolder) throws IOException {
-        destFolder.mkdirs();
+        extractZip(zipFile, destFolder, 0, null);
+    }
 
-        try (FileInputStream fis = new FileInputStream(zipFile);
-             ZipInputStream zis = new ZipInputStream(fis)) {
+    /**
+     * Extracts through the central directory, spreading entries over {@code threads}
+     * workers (0 = one per core) so restore runs at disk speed rather than the speed of
+     * one inflater. {@code progress} may be null.
+     */
+    public static void extractZip(File zipFile, File destFolder, int threads, ExtractionProgress progress) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            extractEntries(zip, Collections.list(zip.entries()), destFolder, threads, progress);
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+    }
 
-            ZipEntry zipEntry = zis.getNextEntry();
+    /**
+     * Extracts {@code path} and, if it names a directory, everything below it. A single file
+     * is a hash lookup in the central directory; a subtree filters the central directory by
+     * name. No other entry data is read. Returns the number of files written.
+     */
+    public static int extractPath(File zipFile, String path, File destFolder, int threads,
+                                  ExtractionProgress progress) throws IOException {
+        List<ZipEntry> matches = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            ZipEntry exact = zip.getEntry(path);
+            if (exact != null && !exact.isDirectory()) {
+                matches.add(exact);
+            } else {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (isUnderPath(entry.getName(), path)) {
+                        matches.add(entry);
+                    }
+                }
+            }
+            extractEntries(zip, matches, destFolder, threads, progress);
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+        return (int) matches.stream().filter(entry -> !entry.isDirectory()).count();
+    }
 
-            while (zipEntry != null) {
-                File newFile = new File(destFolder, zipEntry.getName());
+    /**
+     * True if archive entry {@code name} is {@code path} itself or lies below it.
+     */
+    static boolean isUnderPath(String name, String path) {
+        return name.equals(path) || name.startsWith(path.endsWith("/") ? path : path + "/");
+    }
 
-                if (zipEntry.isDirectory()) {
-                    newFile.mkdirs();
-                } else {
-                    newFile.getParentFile().mkdirs();
+    static void extractEntries(ZipFile zip, List<? extends ZipEntry> entries, File destFolder, int threads,
+                               ExtractionProgress progress) throws IOException {
+        Path destPath = destFolder.toPath().toAbsolutePath().normalize();
 
-                    try (FileOutputStream fos = new FileOutputStream(newFile)) {
-                        byte[] buffer = new byte[8192];
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
-                    }
+        // Create the whole tree up front so workers never race each other on mkdirs
+        Set<Path> directories = new HashSet<>();
+        directories.add(destPath);
+        List<ZipEntry> files = new ArrayList<>();
+        long totalBytes = 0;
+        for (ZipEntry entry : entries) {
+            Path target = resolveEntry(destPath, entry.getName());
+            if (entry.isDirectory()) {
+                directories.add(target);
+            } else {
+                directories.add(target.getParent());
+                files.add(entry);
+                totalBytes += Math.max(0, entry.getSize());
+            }
+        }
+        for (Path directory : directories) {
+            Files.createDirectories(directory);
+        }
+        if (progress != null) {
+            progress.expect(files.size(), totalBytes);
+        }
+
+        // Largest first, so a big region file is not the last thing left running
+        files.sort(Comparator.comparingLong(ZipEntry::getSize).reversed());
+
+        ExecutorService pool = Executors.newFixedThreadPool(ParallelZipWriter.resolveThreads(threads),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-extract-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (ZipEntry entry : files) {
+                futures.add(pool.submit(() -> {
+                    extractEntry(zip, entry, resolveEntry(destPath, entry.getName()), progress);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void extractEntry(ZipFile zip, ZipEntry entry, Path target, ExtractionProgress progress) throws IOException {
+        byte[] chunk = EXTRACT_CHUNKS.get();
+        ByteBuffer buffer = EXTRACT_BUFFERS.get();
+
+        // Filling a reused direct buffer ourselves spares the JDK a temporary direct copy per write
+        try (InputStream in = zip.getInputStream(entry);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The compressed bytes come off disk inside the zip reader, so count them up front
+            IoThrottle.READ.acquire(entry.getCompressedSize());
+            int read;
+            while ((read = in.readNBytes(chunk, 0, chunk.length)) > 0) {
+                IoThrottle.WRITE.acquire(read);
+                buffer.clear();
+                buffer.put(chunk, 0, read);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
                 }
+                if (progress != null) {
+                    progress.addBytes(read);
+                }
+            }
+        }
+
+        if (entry.getLastModifiedTime() != null) {
+            Files.setLastModifiedTime(target, entry.getLastModifiedTime());
+        }
+        if (progress != null) {
+            progress.entryDone();
+        }
+    }
 
-                zis.closeEntry();
-                zipEntry = zis.getNextEntry();
+    static Path resolveEntry(Path destPath, String name) throws IOException {
+        Path target = destPath.resolve(name).normalize();
+        if (!target.startsWith(destPath)) {
+            throw new IOException("Archive entry outside of the restore folder: " + name);
+        }
+        return target;
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException("Extraction failed", cause);
         }
     }
 
     public static String calculateChecksum(File file) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        MessageDigest digest = newDigest();
 
-        try (FileInputStream fis = new FileInputStream(file)) {
+        try (InputStream fis = IoThrottle.READ.wrap(new FileInputStream(file))) {
             byte[] buffer = new byte[8192];
             int bytesRead;
 
@@ -89,7 +330,18 @@ public class ZipUtility {
             }
         }
 
-        byte[] hashBytes = digest.digest();
+        return formatChecksum(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String formatChecksum(byte[] hashBytes) {
         StringBuilder sb = new StringBuilder("sha256:");
 
         for (byte b : hashBytes) {
@@ -98,4 +350,12 @@ public class ZipUtility {
 
         return sb.toString();
     }
+
+    private interface ZipBody {
+        ArchiveResult write(OutputStream out) throws IOException;
+    }
+
+    private interface EntrySource {
+        void addTo(ParallelZipWriter writer) throws IOException;
+    }
 }
@@ -102,6 +102,9 @@ public class BackupConfig {
         private int intervalMinutes = 30;
         private int retentionCount = 12;
         private String description = "";
+        private BackupFormat format;
+        private double ioLimitMBps = 0;
+        private long maxSizeMB = 0;
 
         public TierSettings() {
         }
@@ -148,6 +151,36 @@ public class BackupConfig {
         public long getIntervalMillis() {
             return intervalMinutes * 60L * 1000L;
         }
+
+        /**
+         * Archive format for backups in this tier, or null to use {@code advanced.backupFormat}.
+         */
+        public BackupFormat getFormat() {
+            return format;
+        }
+
+        public void setFormat(BackupFormat format) {
+            this.format = format;
+        }
+
+        public double getIoLimitMBps() {
+            return ioLimitMBps;
+        }
+
+        public void setIoLimitMBps(double ioLimitMBps) {
+            this.ioLimitMBps = ioLimitMBps;
+        }
+
+        /**
+         * Most disk space this tier's backups may take, or 0 for no limit.
+         */
+        public long getMaxSizeMB() {
+            return maxSizeMB;
+        }
+
+        public void setMaxSizeMB(long maxSizeMB) {
+            this.maxSizeMB = maxSizeMB;
+        }
     }
 
     public static class HookConfig {
@@ -212,8 +245,26 @@ public class BackupConfig {
 
     public static class AdvancedConfig {
         private boolean serverSaveBeforeBackup = true;
+        private long saveSettleMillis = 1000;
+        private long saveTimeoutMillis = 30000;
         private boolean deleteEmptyBackups = true;
         private boolean asyncBackup = true;
+        private int compressionThreads = 0;
+        private BackupFormat backupFormat = BackupFormat.ZIP;
+        private boolean incrementalBackups = false;
+        private int fullBackupEvery = 12;
+        private boolean adaptiveCompression = true;
+        private boolean stagedCapture = true;
+        private boolean skipUnchanged = true;
+        private boolean watchWorld = true;
+        private double readLimitMBps = 0;
+        private double writeLimitMBps = 0;
+        private int ioOpsLimit = 0;
+        private boolean burstWhenIdle = true;
+        private boolean directIo = false;
+        private long maxTotalSizeMB = 0;
+        private long minFreeSpaceMB = 1024;
+        private List<CompressionRule> compressionRules = List.of();
 
         public boolean isServerSaveBeforeBackup() {
             return serverSaveBeforeBackup;
@@ -223,6 +274,22 @@ public class BackupConfig {
             this.serverSaveBeforeBackup = serverSaveBeforeBackup;
         }
 
+        public long getSaveSettleMillis() {
+            return saveSettleMillis;
+        }
+
+        public void setSaveSettleMillis(long saveSettleMillis) {
+            this.saveSettleMillis = saveSettleMillis;
+        }
+
+        public long getSaveTimeoutMillis() {
+            return saveTimeoutMillis;
+        }
+
+        public void setSaveTimeoutMillis(long saveTimeoutMillis) {
+            this.saveTimeoutMillis = saveTimeoutMillis;
+        }
+
         public boolean isDeleteEmptyBackups() {
             return deleteEmptyBackups;
         }
@@ -238,5 +305,163 @@ public class BackupConfig {
         public void setAsyncBackup(boolean asyncBackup) {
             this.asyncBackup = asyncBackup;
         }
+
+        public int getCompressionThreads() {
+            return compressionThreads;
+        }
+
+        public void setCompressionThreads(int compressionThreads) {
+            this.compressionThreads = compressionThreads;
+        }
+
+        public BackupFormat getBackupFormat() {
+            return backupFormat != null ? backupFormat : BackupFormat.ZIP;
+        }
+
+        public void setBackupFormat(BackupFormat backupFormat) {
+            this.backupFormat = backupFormat;
+        }
+
+        public boolean isIncrementalBackups() {
+            return incrementalBackups;
+        }
+
+        public void setIncrementalBackups(boolean incrementalBackups) {
+            this.incrementalBackups = incrementalBackups;
+        }
+
+        public int getFullBackupEvery() {
+            return fullBackupEvery;
+        }
+
+        public void setFullBackupEvery(int fullBackupEvery) {
+            this.fullBackupEvery = fullBackupEvery;
+        }
+
+        public boolean isAdaptiveCompression() {
+            return adaptiveCompression;
+        }
+
+        public void setAdaptiveCompression(boolean adaptiveCompression) {
+            this.adaptiveCompression = adaptiveCompression;
+        }
+
+        public boolean isStagedCapture() {
+            return stagedCapture;
+        }
+
+        public void setStagedCapture(boolean stagedCapture) {
+            this.stagedCapture = stagedCapture;
+        }
+
+        public boolean isSkipUnchanged() {
+            return skipUnchanged;
+        }
+
+        public void setSkipUnchanged(boolean skipUnchanged) {
+            this.skipUnchanged = skipUnchanged;
+        }
+
+        public boolean isWatchWorld() {
+            return watchWorld;
+        }
+
+        public void setWatchWorld(boolean watchWorld) {
+            this.watchWorld = watchWorld;
+        }
+
+        public double getReadLimitMBps() {
+            return readLimitMBps;
+        }
+
+        public void setReadLimitMBps(double readLimitMBps) {
+            this.readLimitMBps = readLimitMBps;
+        }
+
+        public double getWriteLimitMBps() {
+            return writeLimitMBps;
+        }
+
+        public void setWriteLimitMBps(double writeLimitMBps) {
+            this.writeLimitMBps = writeLimitMBps;
+        }
+
+        public int getIoOpsLimit() {
+            return ioOpsLimit;
+        }
+
+        public void setIoOpsLimit(int ioOpsLimit) {
+            this.ioOpsLimit = ioOpsLimit;
+        }
+
+        public boolean isBurstWhenIdle() {
+            return burstWhenIdle;
+        }
+
+        public void setBurstWhenIdle(boolean burstWhenIdle) {
+            this.burstWhenIdle = burstWhenIdle;
+        }
+
+        public boolean isDirectIo() {
+            return directIo;
+        }
+
+        public void setDirectIo(boolean directIo) {
+            this.directIo = directIo;
+        }
+
+        /**
+         * Most disk space all backups together may take, or 0 for no limit.
+         */
+        public long getMaxTotalSizeMB() {
+            return maxTotalSizeMB;
+        }
+
+        public void setMaxTotalSizeMB(long maxTotalSizeMB) {
+            this.maxTotalSizeMB = maxTotalSizeMB;
+        }
+
+        /**
+         * Disk space to leave free on the backup drive after the next backup is written.
+         */
+        public long getMinFreeSpaceMB() {
+            return minFreeSpaceMB;
+        }
+
+        public void setMinFreeSpaceMB(long minFreeSpaceMB) {
+            this.minFreeSpaceMB = minFreeSpaceMB;
+        }
+
+        public List<CompressionRule> getCompressionRules() {
+            return compressionRules;
+        }
+
+        public void setCompressionRules(List<CompressionRule> compressionRules) {
+            this.compressionRules = compressionRules;
+        }
+    }
+
+    /**
+     * Forces a compression level for entries matching a glob, e.g. {@code **.png} at 0 (store).
+     */
+    public static class CompressionRule {
+        private String pattern;
+        private int level;
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public void setPattern(String pattern) {
+            this.pattern = pattern;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
     }
 }
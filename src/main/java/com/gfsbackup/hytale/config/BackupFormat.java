@@ -0,0 +1,19 @@
+package com.gfsbackup.hytale.config;
+
+public enum BackupFormat {
+    ZIP(".zip"),
+    CHUNKED(".chunks.json"),
+    TAR_ZSTD(".tar.zst"),
+    TAR_LZ4(".tar.lz4"),
+    SNAPSHOT(".snapshot");
+
+    private final String extension;
+
+    BackupFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,75 @@
+package com.gfsbackup.hytale.retention;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Per-archive read/write locks, so work on one backup file only waits for work on that
+ * same file. Restores, downloads and incrementals reading their parents hold read locks;
+ * deleting or converting an archive needs the write lock. Locks are striped by filename,
+ * so two unrelated archives occasionally share one; that only costs a needless wait.
+ *
+ * Retention and conversions run while the index lock is held and must not block on a
+ * reader, so they use {@link #tryWrite} and leave a busy archive for the next pass.
+ */
+public class ArchiveLocks {
+    private static final int STRIPES = 256;
+
+    private final Striped<ReadWriteLock> locks = Striped.lazyWeakReadWriteLock(STRIPES);
+
+    /**
+     * Read-locks every archive in {@code filenames}, in a fixed order so that two readers
+     * of overlapping chains can't deadlock against a writer.
+     */
+    public Hold read(Collection<String> filenames) {
+        List<Lock> held = new ArrayList<>();
+        for (ReadWriteLock lock : locks.bulkGet(filenames)) {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            held.add(readLock);
+        }
+        return () -> unlock(held);
+    }
+
+    public Hold write(String filename) {
+        Lock writeLock = locks.get(filename).writeLock();
+        writeLock.lock();
+        return writeLock::unlock;
+    }
+
+    /**
+     * The write lock if nobody is reading or writing the archive right now, otherwise null.
+     */
+    public Hold tryWrite(String filename) {
+        Lock writeLock = locks.get(filename).writeLock();
+        return writeLock.tryLock() ? writeLock::unlock : null;
+    }
+
+    /**
+     * The read lock if no one is writing the archive right now, otherwise null. For callers
+     * that already hold another archive's lock and so must not wait.
+     */
+    public Hold tryRead(String filename) {
+        Lock readLock = locks.get(filename).readLock();
+        return readLock.tryLock() ? readLock::unlock : null;
+    }
+
+    private static void unlock(List<Lock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+
+    /**
+     * A held lock; closing it releases the lock.
+     */
+    public interface Hold extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -2,108 +2,630 @@ package com.gfsbackup.hytale.retention;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * The list of backups, kept as a JSON snapshot plus an append-only journal next to it.
+ * Changes are recorded as journal lines in memory and made durable by {@link #save()},
+ * which appends everything pending with a single fsync, so a backup and the retention run
+ * after it cost a few short appends instead of rewriting the whole index.
+ *
+ * Once the journal has grown enough it is compacted: the full index is written to a
+ * temporary file, fsynced and renamed over the snapshot, and the journal is emptied.
+ * {@link #load()} reads the snapshot and replays the journal on top. Records carry a
+ * sequence number and the snapshot remembers the last one folded into it, so a crash
+ * between the rename and the truncation doesn't apply anything twice; a torn last line
+ * from a crash mid-append is dropped.
+ *
+ * In memory, backups are kept in a filename map plus one newest-first set per tier, with
+ * the totals maintained as entries come and go, so lookups and stats don't scan the list.
+ * Entries remember the tier, time, size and name they were filed under: callers change
+ * metadata in place (a promotion, a conversion) and then call {@link #updateBackup}, which
+ * refiles it.
+ *
+ * The methods above are for the backup code that changes the index. Everyone else, the web
+ * UI in particular, reads {@link #snapshot()}: an immutable copy published each time the
+ * index is saved. Reading it takes no lock, and because it is only published at a save, a
+ * reader never sees a retention pass half applied.
+ */
 public class BackupIndex {
+    private static final Logger logger = LoggerFactory.getLogger(BackupIndex.class);
+
+    private static final int COMPACT_EVERY = 1000;
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong((Entry e) -> e.createdAt)
+            .reversed()
+            .thenComparing(e -> e.filename);
+
+    // Only the serialized form; filled in from the maps when a snapshot is written
     private List<BackupMetadata> backups = new ArrayList<>();
     private long lastBackup = 0;
     private int totalBackups = 0;
     private long totalSizeBytes = 0;
+    private long lastUnchanged = 0;
+    private int unchangedSkips = 0;
+    // Archives dropped from the index whose files the reclaim queue hasn't deleted yet,
+    // with their sizes; guarded by this
+    private Map<String, Long> pendingDeletion = new LinkedHashMap<>();
+    private long journalSeq = 0;
 
     private transient final File indexFile;
+    private transient final File journalFile;
     private transient final Gson gson;
+    private transient final Gson journalGson;
+    private transient final Object commitLock = new Object();
+
+    // Guarded by this
+    private transient final Map<String, Entry> byFilename = new LinkedHashMap<>();
+    private transient final Map<BackupMetadata, Entry> byInstance = new IdentityHashMap<>();
+    private transient final Map<BackupTier, TreeSet<Entry>> byTier = new EnumMap<>(BackupTier.class);
+    private transient final Map<BackupTier, Long> sizeByTier = new EnumMap<>(BackupTier.class);
+    // How many indexed incrementals read from each archive
+    private transient final Map<String, Integer> chainRefs = new HashMap<>();
+    // Filenames added or changed since the last publish; the rest reuse their old copies
+    private transient final Set<String> changedSinceSnapshot = new HashSet<>();
+    private transient final AtomicReference<Snapshot> published = new AtomicReference<>(Snapshot.EMPTY);
+
+    // Guarded by this; the journal file itself by commitLock
+    private transient List<String> pending = new ArrayList<>();
+    private transient long durableSeq;
+    private transient int journalRecords;
 
     public BackupIndex(File indexFile) {
         this.indexFile = indexFile;
+        if (indexFile != null) {
+            String name = indexFile.getName();
+            String base = name.endsWith(".json") ? name.substring(0, name.length() - 5) : name;
+            this.journalFile = new File(indexFile.getParentFile(), base + ".journal");
+        } else {
+            this.journalFile = null;
+        }
         this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.journalGson = new Gson();
     }
 
-    public void load() throws IOException {
-        if (!indexFile.exists()) {
-            backups = new ArrayList<>();
-            lastBackup = 0;
-            totalBackups = 0;
-            totalSizeBytes = 0;
+    /**
+     * An index that is never written anywhere: saving only publishes a new snapshot. For
+     * running retention against made-up backups.
+     */
+    static BackupIndex inMemory() {
+        return new BackupIndex(null);
+    }
+
+    public synchronized void load() throws IOException {
+        byFilename.clear();
+        byInstance.clear();
+        byTier.clear();
+        sizeByTier.clear();
+        chainRefs.clear();
+        lastBackup = 0;
+        totalBackups = 0;
+        totalSizeBytes = 0;
+        lastUnchanged = 0;
+        unchangedSkips = 0;
+        journalSeq = 0;
+        pendingDeletion = new LinkedHashMap<>();
+        pending = new ArrayList<>();
+        journalRecords = 0;
+
+        if (indexFile != null && indexFile.exists()) {
+            try (Reader reader = new FileReader(indexFile)) {
+                BackupIndex loaded = gson.fromJson(reader, BackupIndex.class);
+                if (loaded != null) {
+                    if (loaded.backups != null) {
+                        for (BackupMetadata metadata : loaded.backups) {
+                            applyAdd(metadata);
+                        }
+                    }
+                    this.lastBackup = Math.max(lastBackup, loaded.lastBackup);
+                    this.lastUnchanged = loaded.lastUnchanged;
+                    this.unchangedSkips = loaded.unchangedSkips;
+                    if (loaded.pendingDeletion != null) {
+                        this.pendingDeletion.putAll(loaded.pendingDeletion);
+                    }
+                    this.journalSeq = loaded.journalSeq;
+                }
+            }
+        }
+
+        replayJournal();
+        durableSeq = journalSeq;
+        published.set(Snapshot.EMPTY);
+        publish();
+    }
+
+    /**
+     * Makes every change so far durable. Concurrent callers share one append and fsync:
+     * whoever gets the journal first writes all pending records, and the others return
+     * once they see theirs were included.
+     */
+    public void save() throws IOException {
+        long target;
+        synchronized (this) {
+            target = journalSeq;
+            publish();
+            if (indexFile == null) {
+                return;
+            }
+        }
+
+        synchronized (commitLock) {
+            List<String> batch;
+            long batchSeq;
+            boolean compact;
+            synchronized (this) {
+                if (durableSeq >= target) {
+                    return;
+                }
+                batch = pending;
+                batchSeq = journalSeq;
+                pending = new ArrayList<>();
+                journalRecords += batch.size();
+                compact = journalRecords >= COMPACT_EVERY;
+            }
+
+            try {
+                appendToJournal(batch);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // Keep the records so the next save retries them
+                    batch.addAll(pending);
+                    pending = batch;
+                    journalRecords -= batch.size();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                durableSeq = batchSeq;
+            }
+
+            if (compact) {
+                compactLocked();
+            }
+        }
+    }
+
+    /**
+     * The index as of the latest save. Never null; safe to read from any thread.
+     */
+    public Snapshot snapshot() {
+        return published.get();
+    }
+
+    /**
+     * Writes the full index to the snapshot and empties the journal.
+     */
+    public void compact() throws IOException {
+        save();
+        if (indexFile == null) {
             return;
         }
+        synchronized (commitLock) {
+            compactLocked();
+        }
+    }
+
+    public synchronized void addBackup(BackupMetadata metadata) {
+        applyAdd(metadata);
+        journal(JournalRecord.backup("add", metadata));
+    }
+
+    public synchronized void removeBackup(BackupMetadata metadata) {
+        String filename = filedName(metadata);
+        applyRemove(filename);
+        JournalRecord record = new JournalRecord("remove");
+        record.filename = filename;
+        journal(record);
+    }
+
+    /**
+     * Removes a backup whose archive is to be deleted in the background. The archive is
+     * remembered as pending deletion, across restarts too, until {@link #reclaimed} is called.
+     */
+    public synchronized void retireBackup(BackupMetadata metadata) {
+        String filename = filedName(metadata);
+        Entry entry = byFilename.get(filename);
+        long sizeBytes = entry != null ? entry.sizeBytes : metadata.getSizeBytes();
+        applyRemove(filename);
+        retireArchive(filename, sizeBytes);
+    }
+
+    /**
+     * Queues an archive that is no longer indexed for deletion, like {@link #retireBackup}:
+     * a chain base kept on disk until the last incremental built on it was dropped.
+     */
+    public synchronized void retireArchive(String filename, long sizeBytes) {
+        pendingDeletion.put(filename, sizeBytes);
+        JournalRecord record = new JournalRecord("retire");
+        record.filename = filename;
+        record.sizeBytes = sizeBytes;
+        journal(record);
+    }
 
-        try (Reader reader = new FileReader(indexFile)) {
-            BackupIndex loaded = gson.fromJson(reader, BackupIndex.class);
-            if (loaded != null) {
-                this.backups = loaded.backups != null ? loaded.backups : new ArrayList<>();
-                this.lastBackup = loaded.lastBackup;
-                this.totalBackups = loaded.totalBackups;
-                this.totalSizeBytes = loaded.totalSizeBytes;
+    /**
+     * Records that a retired archive is gone from disk.
+     */
+    public synchronized void reclaimed(String filename) {
+        if (pendingDeletion.remove(filename) == null) {
+            return;
+        }
+        JournalRecord record = new JournalRecord("reclaimed");
+        record.filename = filename;
+        journal(record);
+    }
+
+    /**
+     * Retired archives still on disk, oldest retirement first, with their indexed sizes.
+     */
+    public synchronized Map<String, Long> getPendingDeletions() {
+        return new LinkedHashMap<>(pendingDeletion);
+    }
+
+    /**
+     * Refiles a backup whose metadata changed, e.g. after a promotion or a format
+     * conversion. The entry is found by instance first, so a conversion may rename it.
+     */
+    public synchronized void updateBackup(BackupMetadata metadata) {
+        String filename = filedName(metadata);
+        applyUpdate(filename, metadata);
+        JournalRecord record = JournalRecord.backup("update", metadata);
+        record.filename = filename;
+        journal(record);
+    }
+
+    /**
+     * Records a scheduled backup that was skipped because the world matched the latest one.
+     */
+    public synchronized void recordUnchanged(long timestamp) {
+        lastUnchanged = timestamp;
+        unchangedSkips++;
+        JournalRecord record = new JournalRecord("unchanged");
+        record.timestamp = timestamp;
+        record.count = unchangedSkips;
+        journal(record);
+    }
+
+    /**
+     * The backups of {@code tier}, newest first.
+     */
+    public synchronized List<BackupMetadata> getBackupsByTier(BackupTier tier) {
+        TreeSet<Entry> entries = byTier.get(tier);
+        List<BackupMetadata> result = new ArrayList<>(entries != null ? entries.size() : 0);
+        if (entries != null) {
+            for (Entry entry : entries) {
+                result.add(entry.metadata);
             }
         }
+        return result;
     }
 
-    public void save() throws IOException {
-        indexFile.getParentFile().mkdirs();
+    /**
+     * The backups of {@code tier}, newest first, leaving out the {@code skip} newest. Only
+     * the rest are visited, so this is cheap when few are left.
+     */
+    public synchronized List<BackupMetadata> getBackupsByTier(BackupTier tier, int skip) {
+        TreeSet<Entry> entries = byTier.get(tier);
+        int count = entries != null ? entries.size() - Math.max(skip, 0) : 0;
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        List<BackupMetadata> result = new ArrayList<>(count);
+        Iterator<Entry> oldestFirst = entries.descendingIterator();
+        while (result.size() < count) {
+            result.add(oldestFirst.next().metadata);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Whether an indexed incremental backup reads files from {@code filename}.
+     */
+    public synchronized boolean isChainParent(String filename) {
+        return chainRefs.containsKey(filename);
+    }
+
+    public synchronized int countByTier(BackupTier tier) {
+        TreeSet<Entry> entries = byTier.get(tier);
+        return entries != null ? entries.size() : 0;
+    }
+
+    public synchronized long getSizeBytesByTier(BackupTier tier) {
+        return sizeByTier.getOrDefault(tier, 0L);
+    }
+
+    /**
+     * The most recently created backup in any tier, or null if there are none.
+     */
+    public synchronized BackupMetadata getLatestBackup() {
+        Entry latest = null;
+        for (TreeSet<Entry> entries : byTier.values()) {
+            if (!entries.isEmpty() && (latest == null || NEWEST_FIRST.compare(entries.first(), latest) < 0)) {
+                latest = entries.first();
+            }
+        }
+        return latest != null ? latest.metadata : null;
+    }
+
+    public synchronized List<BackupMetadata> getAllBackups() {
+        List<BackupMetadata> result = new ArrayList<>(byFilename.size());
+        for (Entry entry : byFilename.values()) {
+            result.add(entry.metadata);
+        }
+        return result;
+    }
+
+    public synchronized BackupMetadata getBackupByFilename(String filename) {
+        Entry entry = byFilename.get(filename);
+        return entry != null ? entry.metadata : null;
+    }
+
+    /**
+     * The name {@code metadata} is filed under, which differs from its current filename
+     * while a rename hasn't been passed to {@link #updateBackup} yet.
+     */
+    private String filedName(BackupMetadata metadata) {
+        Entry entry = byInstance.get(metadata);
+        return entry != null ? entry.filename : metadata.getFilename();
+    }
+
+    private void applyAdd(BackupMetadata metadata) {
+        // Replayed records may already be in the snapshot
+        applyRemove(metadata.getFilename());
+        Entry entry = new Entry(metadata);
+        changedSinceSnapshot.add(entry.filename);
+        byFilename.put(entry.filename, entry);
+        byInstance.put(metadata, entry);
+        byTier.computeIfAbsent(entry.tier, t -> new TreeSet<>(NEWEST_FIRST)).add(entry);
+        lastBackup = Math.max(lastBackup, entry.createdAt);
+        totalBackups++;
+        totalSizeBytes += entry.sizeBytes;
+        sizeByTier.merge(entry.tier, entry.sizeBytes, Long::sum);
+        for (String parent : entry.parentChain) {
+            chainRefs.merge(parent, 1, Integer::sum);
+        }
+    }
+
+    private void applyRemove(String filename) {
+        Entry entry = byFilename.remove(filename);
+        if (entry == null) {
+            return;
+        }
+        byInstance.remove(entry.metadata);
+        byTier.get(entry.tier).remove(entry);
+        totalBackups--;
+        totalSizeBytes -= entry.sizeBytes;
+        sizeByTier.merge(entry.tier, -entry.sizeBytes, Long::sum);
+        for (String parent : entry.parentChain) {
+            chainRefs.computeIfPresent(parent, (name, refs) -> refs > 1 ? refs - 1 : null);
+        }
+    }
 
-        try (Writer writer = new FileWriter(indexFile)) {
-            gson.toJson(this, writer);
+    private void applyUpdate(String filename, BackupMetadata metadata) {
+        if (byFilename.containsKey(filename)) {
+            applyRemove(filename);
+            applyAdd(metadata);
         }
     }
 
-    public void addBackup(BackupMetadata metadata) {
-        backups.add(metadata);
-        lastBackup = metadata.getCreatedAt();
-        totalBackups = backups.size();
-        recalculateTotalSize();
+    /**
+     * Must hold this. Copies only entries changed since the previous snapshot.
+     */
+    private void publish() {
+        Snapshot previous = published.get();
+        Map<String, BackupMetadata> copies = new HashMap<>(byFilename.size() * 2);
+        List<BackupMetadata> all = new ArrayList<>(byFilename.size());
+        for (Entry entry : byFilename.values()) {
+            BackupMetadata copy = changedSinceSnapshot.contains(entry.filename) ? null : previous.get(entry.filename);
+            if (copy == null) {
+                copy = new BackupMetadata(entry.metadata);
+            }
+            copies.put(entry.filename, copy);
+            all.add(copy);
+        }
+
+        Map<BackupTier, List<BackupMetadata>> tiers = new EnumMap<>(BackupTier.class);
+        for (Map.Entry<BackupTier, TreeSet<Entry>> tier : byTier.entrySet()) {
+            List<BackupMetadata> list = new ArrayList<>(tier.getValue().size());
+            for (Entry entry : tier.getValue()) {
+                list.add(copies.get(entry.filename));
+            }
+            tiers.put(tier.getKey(), Collections.unmodifiableList(list));
+        }
+
+        long pendingBytes = 0;
+        for (long sizeBytes : pendingDeletion.values()) {
+            pendingBytes += sizeBytes;
+        }
+        published.set(new Snapshot(Collections.unmodifiableList(all), Collections.unmodifiableMap(copies), tiers,
+                new EnumMap<>(sizeByTier), totalSizeBytes, lastBackup, lastUnchanged, unchangedSkips,
+                pendingDeletion.size(), pendingBytes));
+        changedSinceSnapshot.clear();
     }
 
-    public void removeBackup(BackupMetadata metadata) {
-        backups.remove(metadata);
-        totalBackups = backups.size();
-        recalculateTotalSize();
+    private void journal(JournalRecord record) {
+        // Serialized now: callers keep mutating the metadata objects afterwards
+        record.seq = ++journalSeq;
+        if (indexFile != null) {
+            pending.add(journalGson.toJson(record));
+        }
     }
 
-    public void updateBackup(BackupMetadata metadata) {
-        for (int i = 0; i < backups.size(); i++) {
-            if (backups.get(i).getFilename().equals(metadata.getFilename())) {
-                backups.set(i, metadata);
-                break;
+    private void replayJournal() throws IOException {
+        if (journalFile == null || !journalFile.exists()) {
+            return;
+        }
+
+        long validBytes = 0;
+        int replayed = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JournalRecord record;
+                try {
+                    record = journalGson.fromJson(line, JournalRecord.class);
+                } catch (JsonParseException e) {
+                    record = null;
+                }
+                if (record == null || record.op == null) {
+                    break;
+                }
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                journalRecords++;
+                if (record.seq <= journalSeq) {
+                    continue;
+                }
+                apply(record);
+                journalSeq = record.seq;
+                replayed++;
+            }
+        }
+
+        if (validBytes < journalFile.length()) {
+            logger.warn("Discarding {} bytes of incomplete backup index journal", journalFile.length() - validBytes);
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+                channel.force(true);
             }
         }
-        recalculateTotalSize();
+        if (replayed > 0) {
+            logger.info("Replayed {} backup index journal records", replayed);
+        }
     }
 
-    public List<BackupMetadata> getBackupsByTier(BackupTier tier) {
-        return backups.stream()
-                .filter(b -> b.getTier() == tier)
-                .sorted(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed())
-                .collect(Collectors.toList());
+    private void apply(JournalRecord record) {
+        switch (record.op) {
+            case "add" -> applyAdd(record.backup);
+            case "remove" -> applyRemove(record.filename);
+            // Records from before renames were journaled have no filename
+            case "update" -> applyUpdate(record.filename != null ? record.filename : record.backup.getFilename(),
+                    record.backup);
+            case "retire" -> {
+                applyRemove(record.filename);
+                pendingDeletion.put(record.filename, record.sizeBytes);
+            }
+            case "reclaimed" -> pendingDeletion.remove(record.filename);
+            case "unchanged" -> {
+                lastUnchanged = record.timestamp;
+                unchangedSkips = record.count;
+            }
+            default -> logger.warn("Ignoring unknown backup index journal record: {}", record.op);
+        }
     }
 
-    public List<BackupMetadata> getAllBackups() {
-        return new ArrayList<>(backups);
+    private void appendToJournal(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        journalFile.getParentFile().mkdirs();
+
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
     }
 
-    public BackupMetadata getBackupByFilename(String filename) {
-        return backups.stream()
-                .filter(b -> b.getFilename().equals(filename))
-                .findFirst()
-                .orElse(null);
+    /**
+     * Must hold commitLock, with nothing pending that isn't in the journal yet.
+     */
+    private void compactLocked() throws IOException {
+        indexFile.getParentFile().mkdirs();
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+
+        String json;
+        long snapshotSeq;
+        int folded;
+        synchronized (this) {
+            // Changes not yet saved go into the snapshot too; their records are dropped
+            // once it is in place
+            backups = getAllBackups();
+            json = gson.toJson(this);
+            backups = new ArrayList<>();
+            snapshotSeq = journalSeq;
+            folded = pending.size();
+        }
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(indexFile.getParentFile());
+
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+        synchronized (this) {
+            pending.subList(0, folded).clear();
+            durableSeq = Math.max(durableSeq, snapshotSeq);
+            journalRecords = 0;
+        }
     }
 
-    private void recalculateTotalSize() {
-        totalSizeBytes = backups.stream()
-                .mapToLong(BackupMetadata::getSizeBytes)
-                .sum();
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported everywhere (e.g. Windows); the rename is still atomic
+        }
     }
 
     public List<BackupMetadata> getBackups() {
-        return backups;
+        return getAllBackups();
     }
 
-    public void setBackups(List<BackupMetadata> backups) {
-        this.backups = backups;
+    public synchronized void setBackups(List<BackupMetadata> backups) {
+        byFilename.clear();
+        byInstance.clear();
+        byTier.clear();
+        sizeByTier.clear();
+        chainRefs.clear();
+        totalBackups = 0;
+        totalSizeBytes = 0;
+        for (BackupMetadata metadata : backups) {
+            applyAdd(metadata);
+        }
+        publish();
     }
 
     public long getLastBackup() {
@@ -118,15 +640,147 @@ public class BackupIndex {
         return totalBackups;
     }
 
-    public void setTotalBackups(int totalBackups) {
-        this.totalBackups = totalBackups;
+    public long getLastUnchanged() {
+        return lastUnchanged;
+    }
+
+    public int getUnchangedSkips() {
+        return unchangedSkips;
     }
 
     public long getTotalSizeBytes() {
         return totalSizeBytes;
     }
 
-    public void setTotalSizeBytes(long totalSizeBytes) {
-        this.totalSizeBytes = totalSizeBytes;
+    /**
+     * One journal line. Only the fields for its {@code op} are set.
+     */
+    private static class JournalRecord {
+        long seq;
+        String op;
+        BackupMetadata backup;
+        String filename;
+        long sizeBytes;
+        long timestamp;
+        int count;
+
+        JournalRecord(String op) {
+            this.op = op;
+        }
+
+        static JournalRecord backup(String op, BackupMetadata metadata) {
+            JournalRecord record = new JournalRecord(op);
+            record.backup = metadata;
+            return record;
+        }
+    }
+
+    /**
+     * A backup as it is filed; the metadata object itself may have changed since.
+     */
+    private static final class Entry {
+        final BackupMetadata metadata;
+        final String filename;
+        final BackupTier tier;
+        final long createdAt;
+        final long sizeBytes;
+        final List<String> parentChain;
+
+        Entry(BackupMetadata metadata) {
+            this.metadata = metadata;
+            this.filename = metadata.getFilename();
+            this.tier = metadata.getTier();
+            this.createdAt = metadata.getCreatedAt();
+            this.sizeBytes = metadata.getSizeBytes();
+            this.parentChain = List.copyOf(metadata.getParentChain());
+        }
+    }
+
+    /**
+     * An immutable view of the index. The metadata objects are copies that no one changes.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(List.of(), Map.of(), Map.of(), Map.of(), 0, 0, 0, 0, 0, 0);
+
+        private final List<BackupMetadata> backups;
+        private final Map<String, BackupMetadata> byFilename;
+        private final Map<BackupTier, List<BackupMetadata>> byTier;
+        private final Map<BackupTier, Long> sizeByTier;
+        private final long totalSizeBytes;
+        private final long lastBackup;
+        private final long lastUnchanged;
+        private final int unchangedSkips;
+        private final int pendingDeletions;
+        private final long pendingDeletionBytes;
+
+        private Snapshot(List<BackupMetadata> backups, Map<String, BackupMetadata> byFilename,
+                         Map<BackupTier, List<BackupMetadata>> byTier, Map<BackupTier, Long> sizeByTier,
+                         long totalSizeBytes, long lastBackup, long lastUnchanged, int unchangedSkips,
+                         int pendingDeletions, long pendingDeletionBytes) {
+            this.backups = backups;
+            this.byFilename = byFilename;
+            this.byTier = byTier;
+            this.sizeByTier = sizeByTier;
+            this.totalSizeBytes = totalSizeBytes;
+            this.lastBackup = lastBackup;
+            this.lastUnchanged = lastUnchanged;
+            this.unchangedSkips = unchangedSkips;
+            this.pendingDeletions = pendingDeletions;
+            this.pendingDeletionBytes = pendingDeletionBytes;
+        }
+
+        public List<BackupMetadata> getAllBackups() {
+            return backups;
+        }
+
+        public BackupMetadata get(String filename) {
+            return byFilename.get(filename);
+        }
+
+        /**
+         * The backups of {@code tier}, newest first.
+         */
+        public List<BackupMetadata> getBackupsByTier(BackupTier tier) {
+            return byTier.getOrDefault(tier, List.of());
+        }
+
+        public int countByTier(BackupTier tier) {
+            return getBackupsByTier(tier).size();
+        }
+
+        public int getTotalBackups() {
+            return backups.size();
+        }
+
+        public long getTotalSizeBytes() {
+            return totalSizeBytes;
+        }
+
+        public long getSizeBytesByTier(BackupTier tier) {
+            return sizeByTier.getOrDefault(tier, 0L);
+        }
+
+        public long getLastBackup() {
+            return lastBackup;
+        }
+
+        public long getLastUnchanged() {
+            return lastUnchanged;
+        }
+
+        public int getUnchangedSkips() {
+            return unchangedSkips;
+        }
+
+        /**
+         * Retired archives not deleted from disk yet.
+         */
+        public int getPendingDeletions() {
+            return pendingDeletions;
+        }
+
+        public long getPendingDeletionBytes() {
+            return pendingDeletionBytes;
+        }
     }
 }
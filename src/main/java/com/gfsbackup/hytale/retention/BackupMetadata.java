@@ -1,14 +1,28 @@
 package com.gfsbackup.hytale.retention;
 
+import com.gfsbackup.hytale.config.BackupFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class BackupMetadata {
     private String filename;
     private BackupTier tier;
+    private BackupFormat format;
     private long createdAt;
     private long sizeBytes;
     private String checksum;
+    private String listingChecksum;
+    private long uncompressedBytes;
+    private long compressionSavedMillis;
+    private long captureMillis;
+    private long saveWaitMillis;
+    private String fingerprint;
     private boolean promoted;
     private BackupTier promotedFrom;
     private Long promotedAt;
+    private List<String> parentChain;
+    private boolean missing;
 
     public BackupMetadata() {
     }
@@ -22,6 +36,29 @@ public class BackupMetadata {
         this.promoted = false;
     }
 
+    /**
+     * A detached copy, for handing out while the original may still be changed.
+     */
+    public BackupMetadata(BackupMetadata other) {
+        this.filename = other.filename;
+        this.tier = other.tier;
+        this.format = other.format;
+        this.createdAt = other.createdAt;
+        this.sizeBytes = other.sizeBytes;
+        this.checksum = other.checksum;
+        this.listingChecksum = other.listingChecksum;
+        this.uncompressedBytes = other.uncompressedBytes;
+        this.compressionSavedMillis = other.compressionSavedMillis;
+        this.captureMillis = other.captureMillis;
+        this.saveWaitMillis = other.saveWaitMillis;
+        this.fingerprint = other.fingerprint;
+        this.promoted = other.promoted;
+        this.promotedFrom = other.promotedFrom;
+        this.promotedAt = other.promotedAt;
+        this.parentChain = other.parentChain != null ? List.copyOf(other.parentChain) : null;
+        this.missing = other.missing;
+    }
+
     public String getFilename() {
         return filename;
     }
@@ -38,6 +75,14 @@ public class BackupMetadata {
         this.tier = tier;
     }
 
+    public BackupFormat getFormat() {
+        return format != null ? format : BackupFormat.ZIP;
+    }
+
+    public void setFormat(BackupFormat format) {
+        this.format = format;
+    }
+
     public long getCreatedAt() {
         return createdAt;
     }
@@ -62,6 +107,26 @@ public class BackupMetadata {
         this.checksum = checksum;
     }
 
+    /**
+     * For snapshots, a hash of the file listing (path, size, mtime) in place of a content
+     * checksum, which {@link #getChecksum()} leaves null for them. Null for other formats.
+     */
+    public String getListingChecksum() {
+        return listingChecksum;
+    }
+
+    public void setListingChecksum(String listingChecksum) {
+        this.listingChecksum = listingChecksum;
+    }
+
+    /**
+     * Whether the archive has been read through since it was adopted, so its checksum, or
+     * a snapshot's listing checksum, is known.
+     */
+    public boolean isVerified() {
+        return checksum != null || listingChecksum != null;
+    }
+
     public boolean isPromoted() {
         return promoted;
     }
@@ -86,6 +151,95 @@ public class BackupMetadata {
         this.promotedAt = promotedAt;
     }
 
+    /**
+     * Backups this one was built on, nearest parent first and the full backup last.
+     * Empty for full backups.
+     */
+    public List<String> getParentChain() {
+        return parentChain != null ? parentChain : List.of();
+    }
+
+    public void setParentChain(List<String> parentChain) {
+        this.parentChain = parentChain != null ? new ArrayList<>(parentChain) : null;
+    }
+
+    public boolean isIncremental() {
+        return parentChain != null && !parentChain.isEmpty();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    public void setUncompressedBytes(long uncompressedBytes) {
+        this.uncompressedBytes = uncompressedBytes;
+    }
+
+    /**
+     * Compressed size over uncompressed size, or 0 for backups recorded before this was tracked.
+     */
+    public double getCompressionRatio() {
+        return uncompressedBytes > 0 ? (double) sizeBytes / uncompressedBytes : 0;
+    }
+
+    /**
+     * Estimated compression time avoided by storing incompressible entries as-is.
+     */
+    public long getCompressionSavedMillis() {
+        return compressionSavedMillis;
+    }
+
+    public void setCompressionSavedMillis(long compressionSavedMillis) {
+        this.compressionSavedMillis = compressionSavedMillis;
+    }
+
+    /**
+     * How long the backup spent reading live world files. With staged capture this is the
+     * staging copy; the archive itself is built afterwards.
+     */
+    public long getCaptureMillis() {
+        return captureMillis;
+    }
+
+    public void setCaptureMillis(long captureMillis) {
+        this.captureMillis = captureMillis;
+    }
+
+    /**
+     * How long the backup waited after the server save for the world to stop changing.
+     */
+    public long getSaveWaitMillis() {
+        return saveWaitMillis;
+    }
+
+    public void setSaveWaitMillis(long saveWaitMillis) {
+        this.saveWaitMillis = saveWaitMillis;
+    }
+
+    /**
+     * The {@code WorldFingerprint} of the world this backup was taken from, or null for
+     * backups made before fingerprinting or with {@code skipUnchanged} off.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * True when the archive, or one an incremental reads from, was not in the backup folder
+     * at the last startup check. The entry is kept so the gap shows up instead of vanishing.
+     */
+    public boolean isMissing() {
+        return missing;
+    }
+
+    public void setMissing(boolean missing) {
+        this.missing = missing;
+    }
+
     public void promote(BackupTier newTier) {
         this.promotedFrom = this.tier;
         this.tier = newTier;
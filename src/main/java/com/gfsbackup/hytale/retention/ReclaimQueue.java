@@ -0,0 +1,238 @@
+package com.gfsbackup.hytale.retention;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Deletes retired archives off the backup path. Retention only moves a backup from the
+ * index to its pending-deletion list, which is cheap and survives a restart; a pass of
+ * this queue then unlinks the files in batches, saving the index after each batch, so a
+ * few multi-GB deletions on a slow disk no longer hold up the backup that expired them.
+ *
+ * An archive someone is reading is skipped and stays pending for the next pass. Passes
+ * never overlap: a pass requested while one is running starts when it ends. Whatever
+ * hangs off a deleted archive, such as its incremental manifest or chunks only it
+ * referenced, is cleaned up by the listener once the batch is committed.
+ */
+public class ReclaimQueue {
+    private static final Logger logger = LoggerFactory.getLogger(ReclaimQueue.class);
+
+    static final int BATCH_SIZE = 16;
+
+    private final BackupIndex index;
+    private final File backupFolder;
+    private final ArchiveLocks archiveLocks;
+    private final Executor executor;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private volatile Consumer<List<String>> listener = batch -> { };
+
+    private final AtomicLong totalReclaimedBytes = new AtomicLong();
+    private volatile Pass lastPass;
+
+    /**
+     * @param executor runs the passes; a direct executor makes {@link #schedule} reclaim
+     *                 before it returns
+     */
+    public ReclaimQueue(BackupIndex index, File backupFolder, ArchiveLocks archiveLocks, Executor executor) {
+        this.index = index;
+        this.backupFolder = backupFolder;
+        this.archiveLocks = archiveLocks;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets what is told about each batch of deleted archives. It runs on the pass's thread
+     * with the batch already committed to the index.
+     */
+    public void setListener(Consumer<List<String>> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Requests a pass over everything pending. Does nothing if one is already waiting to run.
+     */
+    public void schedule() {
+        if (queued.compareAndSet(false, true)) {
+            executor.execute(this::run);
+        }
+    }
+
+    /**
+     * Runs a pass on the calling thread, after any pass already running, for when the
+     * space is needed before going on.
+     */
+    public void reclaimNow() {
+        run();
+    }
+
+    private synchronized void run() {
+        queued.set(false);
+        Map<String, Long> pending = index.getPendingDeletions();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int deleted = 0;
+        int skipped = 0;
+        long bytes = 0;
+        try {
+            // The retirements must be on disk before any file goes, or a crash would leave
+            // index entries for archives that no longer exist
+            index.save();
+
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            for (String filename : pending.keySet()) {
+                try (ArchiveLocks.Hold hold = archiveLocks.tryWrite(filename)) {
+                    if (hold == null) {
+                        skipped++;
+                        continue;
+                    }
+                    bytes += delete(new File(backupFolder, filename));
+                    batch.add(filename);
+                    deleted++;
+                } catch (IOException e) {
+                    logger.warn("Failed to delete expired backup {}, will retry on the next pass", filename, e);
+                    skipped++;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    commit(batch);
+                }
+            }
+            commit(batch);
+        } catch (IOException e) {
+            logger.error("Failed to save the backup index after deleting expired backups", e);
+        }
+
+        totalReclaimedBytes.addAndGet(bytes);
+        Pass pass = new Pass(System.currentTimeMillis(), deleted, bytes, System.currentTimeMillis() - start,
+                index.getPendingDeletions().size());
+        lastPass = pass;
+        logger.info("Reclaimed {} MB from {} expired backups in {} ms{}", bytes / (1024 * 1024), deleted,
+                pass.millis, skipped > 0 ? " (" + skipped + " in use or failed, left for the next pass)" : "");
+    }
+
+    private void commit(List<String> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (String filename : batch) {
+            index.reclaimed(filename);
+        }
+        index.save();
+        listener.accept(List.copyOf(batch));
+        batch.clear();
+    }
+
+    /**
+     * Deletes an archive file or snapshot tree and returns the bytes it held. Snapshot files
+     * hard-linked from other snapshots only lose a link, but are counted all the same.
+     */
+    private static long delete(File file) throws IOException {
+        if (!file.isDirectory()) {
+            long size = file.length();
+            try {
+                Files.delete(file.toPath());
+            } catch (NoSuchFileException e) {
+                return 0;
+            }
+            return size;
+        }
+
+        long[] size = {0};
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                Files.delete(path);
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    /**
+     * Bytes reclaimed since startup, the last pass and what is still pending, for the
+     * stats endpoint.
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("totalReclaimedBytes", totalReclaimedBytes.get());
+        Pass pass = lastPass;
+        if (pass != null) {
+            Map<String, Object> last = new HashMap<>();
+            last.put("finishedAt", pass.finishedAt);
+            last.put("deleted", pass.deleted);
+            last.put("reclaimedBytes", pass.bytes);
+            last.put("millis", pass.millis);
+            last.put("stillPending", pass.stillPending);
+            metrics.put("lastPass", last);
+        }
+        return metrics;
+    }
+
+    /**
+     * The outcome of the most recent pass, or null before the first one.
+     */
+    public Pass getLastPass() {
+        return lastPass;
+    }
+
+    public static final class Pass {
+        private final long finishedAt;
+        private final int deleted;
+        private final long bytes;
+        private final long millis;
+        private final int stillPending;
+
+        Pass(long finishedAt, int deleted, long bytes, long millis, int stillPending) {
+            this.finishedAt = finishedAt;
+            this.deleted = deleted;
+            this.bytes = bytes;
+            this.millis = millis;
+            this.stillPending = stillPending;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public long getReclaimedBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public int getStillPending() {
+            return stillPending;
+        }
+    }
+}
@@ -1,169 +1,375 @@
 package com.gfsbackup.hytale.retention;
 
 import com.gfsbackup.hytale.config.BackupConfig;
+import com.gfsbackup.hytale.config.BackupFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.NOPLogger;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class RetentionPolicy {
     private static final Logger logger = LoggerFactory.getLogger(RetentionPolicy.class);
 
+    private static final Comparator<BackupMetadata> NEWEST_FIRST =
+            Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed()
+                    .thenComparing(BackupMetadata::getFilename);
+
     private final BackupConfig config;
     private final BackupIndex index;
-    private final File backupFolder;
+    private final ReclaimQueue reclaimQueue;
+    private Logger log = logger;
 
+    /**
+     * Deletes expired archives before {@link #apply} returns.
+     */
     public RetentionPolicy(BackupConfig config, BackupIndex index, File backupFolder) {
+        this(config, index, new ReclaimQueue(index, backupFolder, new ArchiveLocks(), Runnable::run));
+    }
+
+    public RetentionPolicy(BackupConfig config, BackupIndex index, ReclaimQueue reclaimQueue) {
         this.config = config;
         this.index = index;
-        this.backupFolder = backupFolder;
+        this.reclaimQueue = reclaimQueue;
     }
 
+    /**
+     * Stops logging each pass, for running thousands of them in a simulation.
+     */
+    void quiet() {
+        log = NOPLogger.NOP_LOGGER;
+    }
+
+    /**
+     * Brings every tier back within its limits in one pass, however far over them the index
+     * is, for example after downtime or after a retention count was lowered. All changes go
+     * to the index in one batch; the caller saves it once afterwards.
+     */
     public void apply() {
-        logger.info("Applying GFS retention policy...");
+        log.info("Applying GFS retention policy...");
+
+        // Without budgets the SONs within the count are never looked at, and there may be
+        // tens of thousands of them
+        int skip = hasBudgets() ? 0 : Math.max(config.getTiers().getSon().getRetentionCount(), 0);
+        Plan plan = plan(index.getBackupsByTier(BackupTier.SON, skip), skip,
+                index.getBackupsByTier(BackupTier.FATHER),
+                index.getBackupsByTier(BackupTier.GRANDFATHER));
+        execute(plan);
 
-        long now = System.currentTimeMillis();
+        log.info("Retention policy applied ({} promoted, {} deleted) - Sons: {}, Fathers: {}, Grandfathers: {}, {} MB in total",
+                plan.promotions.size(), plan.deletions.size(),
+                index.countByTier(BackupTier.SON), index.countByTier(BackupTier.FATHER),
+                index.countByTier(BackupTier.GRANDFATHER), index.getTotalSizeBytes() / StorageBudget.MB);
+    }
 
-        List<BackupMetadata> sons = new ArrayList<>(index.getBackupsByTier(BackupTier.SON));
-        List<BackupMetadata> fathers = new ArrayList<>(index.getBackupsByTier(BackupTier.FATHER));
-        List<BackupMetadata> grandfathers = new ArrayList<>(index.getBackupsByTier(BackupTier.GRANDFATHER));
+    /**
+     * Retires backups, cheapest to lose first, until at least {@code bytes} will be freed,
+     * to make room for a backup about to start. The newest backup, missing ones and those
+     * an incremental reads from are never picked. Returns the bytes retired; the caller
+     * saves the index and reclaims them.
+     */
+    public long evict(long bytes) {
+        Map<BackupTier, List<BackupMetadata>> tiers = new EnumMap<>(BackupTier.class);
+        for (BackupTier tier : BackupTier.values()) {
+            tiers.put(tier, index.getBackupsByTier(tier));
+        }
+        List<StorageBudget.Candidate> candidates = new ArrayList<>();
+        long now = candidates(tiers, candidates);
+        candidates.removeIf(c -> c.backup.isMissing());
+
+        long freed = 0;
+        for (BackupMetadata backup : new StorageBudget(config.getTiers()).select(candidates, bytes, now)) {
+            log.info("Retiring {} backup {} ({} MB) to make room for the next backup",
+                    backup.getTier(), backup.getFilename(), backup.getSizeBytes() / StorageBudget.MB);
+            index.retireBackup(backup);
+            freed += backup.getSizeBytes();
+        }
+        return freed;
+    }
 
-        sons.sort(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed());
-        fathers.sort(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed());
-        grandfathers.sort(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed());
+    /**
+     * The expected size of the next backup in {@code format}, from the latest backups' sizes
+     * and growth, or 0 if there are none to go by.
+     */
+    public long predictNextBackupSize(BackupFormat format) {
+        return StorageBudget.predictNextSize(index.getAllBackups(), format);
+    }
 
-        logger.info("Current backup counts - Sons: {}, Fathers: {}, Grandfathers: {}",
-                sons.size(), fathers.size(), grandfathers.size());
+    /**
+     * Works out what each tier should hold, from tier lists sorted newest first, without
+     * changing anything. The backups past a tier's retention count are walked oldest first:
+     * the first one to land in a bucket of the next tier that has no backup yet is
+     * promoted into it, the rest are deleted. Promotions count towards the next tier's
+     * limit, which is applied after.
+     *
+     * @param skippedSons how many of the newest SONs were left out of {@code sons}; only
+     *                    allowed up to the SON retention count and without budgets
+     */
+    Plan plan(List<BackupMetadata> sons, int skippedSons, List<BackupMetadata> fathers,
+              List<BackupMetadata> grandfathers) {
+        BackupConfig.TierConfig tiers = config.getTiers();
+        Plan plan = new Plan();
 
-        promoteBackups(now, sons, fathers, grandfathers);
+        List<BackupMetadata> allFathers = cascade(sons, tiers.getSon().getRetentionCount() - skippedSons,
+                fathers, BackupTier.FATHER, tiers.getFather(), plan);
+        List<BackupMetadata> allGrandfathers = cascade(allFathers, tiers.getFather().getRetentionCount(),
+                grandfathers, BackupTier.GRANDFATHER, tiers.getGrandfather(), plan);
+        int keep = tiers.getGrandfather().getRetentionCount();
+        for (int i = allGrandfathers.size() - 1; i >= keep; i--) {
+            plan.delete(allGrandfathers.get(i));
+        }
 
-        cleanupExcessBackups(sons, fathers, grandfathers);
+        Map<BackupTier, List<BackupMetadata>> kept = new EnumMap<>(BackupTier.class);
+        kept.put(BackupTier.SON, head(sons, tiers.getSon().getRetentionCount() - skippedSons));
+        kept.put(BackupTier.FATHER, head(allFathers, tiers.getFather().getRetentionCount()));
+        kept.put(BackupTier.GRANDFATHER, head(allGrandfathers, keep));
+        enforceBudgets(kept, plan);
+        return plan;
+    }
 
-        logger.info("Retention policy applied - Sons: {}, Fathers: {}, Grandfathers: {}",
-                sons.size(), fathers.size(), grandfathers.size());
+    private boolean hasBudgets() {
+        BackupConfig.TierConfig tiers = config.getTiers();
+        return config.getAdvanced().getMaxTotalSizeMB() > 0 || tiers.getSon().getMaxSizeMB() > 0
+                || tiers.getFather().getMaxSizeMB() > 0 || tiers.getGrandfather().getMaxSizeMB() > 0;
     }
 
-    private void promoteBackups(long now, List<BackupMetadata> sons, List<BackupMetadata> fathers, List<BackupMetadata> grandfathers) {
-        // Promote SON to FATHER if we have excess SONs
-        if (config.getTiers().getFather().isEnabled() && sons.size() > config.getTiers().getSon().getRetentionCount()) {
-            BackupMetadata oldestSon = findOldestBackup(sons);
+    private static List<BackupMetadata> head(List<BackupMetadata> list, int count) {
+        return list.subList(0, Math.min(Math.max(count, 0), list.size()));
+    }
 
-            if (oldestSon != null) {
-                // Check if we already have a FATHER for this time bucket
-                long fatherIntervalMs = config.getTiers().getFather().getIntervalMillis();
-                BackupMetadata existingFather = findBackupInTimeBucket(fathers, oldestSon.getCreatedAt(), fatherIntervalMs);
+    /**
+     * Gives up kept backups, cheapest to lose first, until each tier fits its own byte
+     * budget and all tiers together fit the overall one. As with the counts, a backup that
+     * would be the first of its period in the next tier, with room there, is promoted
+     * rather than deleted, so a tight budget thins out the SONs without starving the
+     * tiers above. The newest backup and those an incremental reads from are never picked.
+     */
+    private void enforceBudgets(Map<BackupTier, List<BackupMetadata>> kept, Plan plan) {
+        if (!hasBudgets()) {
+            return;
+        }
+        BackupConfig.TierConfig tiers = config.getTiers();
+        long totalLimit = config.getAdvanced().getMaxTotalSizeMB() * StorageBudget.MB;
+        StorageBudget budget = new StorageBudget(tiers);
 
-                if (existingFather != null) {
-                    // Already have a FATHER for this time period, just delete the old SON
-                    logger.info("Deleting SON backup {} (FATHER already exists for this time period: {})",
-                            oldestSon.getFilename(), existingFather.getFilename());
-                    deleteBackup(oldestSon);
-                    sons.remove(oldestSon);
-                } else {
-                    // No FATHER for this time period yet, promote it
-                    logger.info("Promoting SON backup {} to FATHER (SON retention limit reached)", oldestSon.getFilename());
-                    oldestSon.promote(BackupTier.FATHER);
-                    index.updateBackup(oldestSon);
-                    sons.remove(oldestSon);
-                    fathers.add(0, oldestSon);
-                }
+        List<StorageBudget.Candidate> candidates = new ArrayList<>();
+        long now = candidates(kept, candidates);
+        Map<BackupTier, Long> bytes = new EnumMap<>(BackupTier.class);
+        Map<BackupTier, Integer> counts = new EnumMap<>(BackupTier.class);
+        Map<BackupTier, Set<Long>> buckets = new EnumMap<>(BackupTier.class);
+        long total = 0;
+        for (BackupTier tier : BackupTier.values()) {
+            long tierBytes = 0;
+            Set<Long> periods = new HashSet<>();
+            for (BackupMetadata backup : kept.get(tier)) {
+                tierBytes += backup.getSizeBytes();
+                periods.add(backup.getCreatedAt() / settings(tier).getIntervalMillis());
             }
+            bytes.put(tier, tierBytes);
+            counts.put(tier, kept.get(tier).size());
+            buckets.put(tier, periods);
+            total += tierBytes;
         }
 
-        // Promote FATHER to GRANDFATHER if we have excess FATHERs
-        if (config.getTiers().getGrandfather().isEnabled() && fathers.size() > config.getTiers().getFather().getRetentionCount()) {
-            BackupMetadata oldestFather = findOldestBackup(fathers);
-
-            if (oldestFather != null) {
-                // Check if we already have a GRANDFATHER for this time bucket
-                long grandfatherIntervalMs = config.getTiers().getGrandfather().getIntervalMillis();
-                BackupMetadata existingGrandfather = findBackupInTimeBucket(grandfathers, oldestFather.getCreatedAt(), grandfatherIntervalMs);
-
-                if (existingGrandfather != null) {
-                    // Already have a GRANDFATHER for this time period, just delete the old FATHER
-                    logger.info("Deleting FATHER backup {} (GRANDFATHER already exists for this time period: {})",
-                            oldestFather.getFilename(), existingGrandfather.getFilename());
-                    deleteBackup(oldestFather);
-                    fathers.remove(oldestFather);
-                } else {
-                    // No GRANDFATHER for this time period yet, promote it
-                    logger.info("Promoting FATHER backup {} to GRANDFATHER (FATHER retention limit reached)", oldestFather.getFilename());
-                    oldestFather.promote(BackupTier.GRANDFATHER);
-                    index.updateBackup(oldestFather);
-                    fathers.remove(oldestFather);
-                    grandfathers.add(0, oldestFather);
+        while (true) {
+            BackupTier over = null;
+            for (BackupTier tier : BackupTier.values()) {
+                long limit = budget.limitBytes(tier);
+                if (limit > 0 && bytes.get(tier) > limit) {
+                    over = tier;
+                    break;
                 }
             }
+            if (over == null && (totalLimit <= 0 || total <= totalLimit)) {
+                return;
+            }
+            StorageBudget.Candidate victim = budget.cheapest(candidates, over, now);
+            if (victim == null) {
+                log.warn("Backups are over the {} but none can be deleted", over != null ? over + " budget" : "total budget");
+                return;
+            }
+            candidates.remove(victim);
+
+            BackupMetadata backup = victim.backup;
+            long size = backup.getSizeBytes();
+            BackupTier next = victim.tier == BackupTier.SON ? BackupTier.FATHER
+                    : victim.tier == BackupTier.FATHER ? BackupTier.GRANDFATHER : null;
+            bytes.merge(victim.tier, -size, Long::sum);
+            counts.merge(victim.tier, -1, Integer::sum);
+            if (next != null && settings(next).isEnabled() && counts.get(next) < settings(next).getRetentionCount()
+                    && buckets.get(next).add(backup.getCreatedAt() / settings(next).getIntervalMillis())) {
+                log.info("Promoting {} backup {} to {} (over the {})", victim.tier, backup.getFilename(), next,
+                        over != null ? over + " budget" : "total budget");
+                plan.promote(backup, next);
+                bytes.merge(next, size, Long::sum);
+                counts.merge(next, 1, Integer::sum);
+                candidates.add(new StorageBudget.Candidate(backup, next));
+            } else {
+                log.info("Deleting {} backup {} ({} MB) to stay within the {}", victim.tier, backup.getFilename(),
+                        size / StorageBudget.MB, over != null ? over + " budget" : "total budget");
+                plan.delete(backup);
+                total -= size;
+            }
         }
     }
 
-    private void cleanupExcessBackups(List<BackupMetadata> sons, List<BackupMetadata> fathers, List<BackupMetadata> grandfathers) {
-        cleanupTier(sons, config.getTiers().getSon().getRetentionCount(), "SON");
-        cleanupTier(fathers, config.getTiers().getFather().getRetentionCount(), "FATHER");
-        cleanupTier(grandfathers, config.getTiers().getGrandfather().getRetentionCount(), "GRANDFATHER");
+    private BackupConfig.TierSettings settings(BackupTier tier) {
+        switch (tier) {
+            case FATHER:
+                return config.getTiers().getFather();
+            case GRANDFATHER:
+                return config.getTiers().getGrandfather();
+            default:
+                return config.getTiers().getSon();
+        }
     }
 
-    private void cleanupTier(List<BackupMetadata> backups, int retentionCount, String tierName) {
-        if (backups.size() <= retentionCount) {
-            return;
+    /**
+     * Adds every backup in {@code tiers} that may be evicted to {@code candidates}, and
+     * returns the creation time of the newest backup, which ages are measured from.
+     */
+    private static long candidates(Map<BackupTier, List<BackupMetadata>> tiers, List<StorageBudget.Candidate> candidates) {
+        BackupMetadata newest = null;
+        Set<String> chainParents = new HashSet<>();
+        for (List<BackupMetadata> backups : tiers.values()) {
+            for (BackupMetadata backup : backups) {
+                chainParents.addAll(backup.getParentChain());
+                if (newest == null || NEWEST_FIRST.compare(backup, newest) < 0) {
+                    newest = backup;
+                }
+            }
         }
+        for (Map.Entry<BackupTier, List<BackupMetadata>> tier : tiers.entrySet()) {
+            for (BackupMetadata backup : tier.getValue()) {
+                if (backup != newest && !chainParents.contains(backup.getFilename())) {
+                    candidates.add(new StorageBudget.Candidate(backup, tier.getKey()));
+                }
+            }
+        }
+        return newest != null ? newest.getCreatedAt() : 0;
+    }
 
-        List<BackupMetadata> toDelete = backups.subList(retentionCount, backups.size());
-        logger.info("Deleting {} excess {} backups", toDelete.size(), tierName);
+    /**
+     * Promotes or deletes the backups past {@code keep} in {@code tier} and returns
+     * {@code next} with the promoted ones merged in, still newest first.
+     */
+    private List<BackupMetadata> cascade(List<BackupMetadata> tier, int keep, List<BackupMetadata> next,
+                                         BackupTier nextTier, BackupConfig.TierSettings nextSettings, Plan plan) {
+        if (tier.size() <= keep) {
+            return next;
+        }
+        List<BackupMetadata> excess = tier.subList(Math.max(keep, 0), tier.size());
+        if (!nextSettings.isEnabled()) {
+            for (int i = excess.size() - 1; i >= 0; i--) {
+                plan.delete(excess.get(i));
+            }
+            return next;
+        }
 
-        for (BackupMetadata backup : new ArrayList<>(toDelete)) {
-            deleteBackup(backup);
+        // One backup per bucket of the next tier, e.g. per day for FATHER
+        long interval = nextSettings.getIntervalMillis();
+        Map<Long, BackupMetadata> buckets = new HashMap<>();
+        for (BackupMetadata backup : next) {
+            buckets.putIfAbsent(backup.getCreatedAt() / interval, backup);
+        }
+
+        List<BackupMetadata> promoted = new ArrayList<>();
+        for (int i = excess.size() - 1; i >= 0; i--) {
+            BackupMetadata backup = excess.get(i);
+            BackupMetadata existing = buckets.putIfAbsent(backup.getCreatedAt() / interval, backup);
+            if (existing == null) {
+                log.info("Promoting {} backup {} to {} (retention limit reached)",
+                        backup.getTier(), backup.getFilename(), nextTier);
+                plan.promote(backup, nextTier);
+                promoted.add(backup);
+            } else {
+                log.debug("Deleting {} backup {} ({} already exists for this time period: {})",
+                        backup.getTier(), backup.getFilename(), nextTier, existing.getFilename());
+                plan.delete(backup);
+            }
         }
+        Collections.reverse(promoted);
+        return merge(next, promoted);
     }
 
-    private void deleteBackup(BackupMetadata backup) {
-        File backupFile = new File(backupFolder, backup.getFilename());
-        if (backupFile.exists()) {
-            if (backupFile.delete()) {
-                logger.info("Deleted backup: {}", backup.getFilename());
-                index.removeBackup(backup);
+    /**
+     * Merges two lists that are each sorted newest first.
+     */
+    private static List<BackupMetadata> merge(List<BackupMetadata> a, List<BackupMetadata> b) {
+        if (b.isEmpty()) {
+            return a;
+        }
+        List<BackupMetadata> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && NEWEST_FIRST.compare(a.get(i), b.get(j)) <= 0)) {
+                merged.add(a.get(i++));
             } else {
-                logger.error("Failed to delete backup: {}", backup.getFilename());
+                merged.add(b.get(j++));
             }
-        } else {
-            logger.warn("Backup file not found, removing from index: {}", backup.getFilename());
-            index.removeBackup(backup);
         }
+        return merged;
     }
 
-    private BackupMetadata findOldestBackup(List<BackupMetadata> backups) {
-        if (backups.isEmpty()) {
-            return null;
+    /**
+     * Applies a plan to the index and deletes the archives it drops.
+     */
+    private void execute(Plan plan) {
+        plan.promotions.forEach((backup, tier) -> {
+            backup.promote(tier);
+            index.updateBackup(backup);
+        });
+        if (plan.deletions.isEmpty()) {
+            return;
         }
 
-        BackupMetadata oldest = backups.get(0);
-        for (BackupMetadata backup : backups) {
-            if (backup.getCreatedAt() < oldest.getCreatedAt()) {
-                oldest = backup;
-            }
+        log.info("Retiring {} backups past their tier's retention", plan.deletions.size());
+        for (BackupMetadata backup : plan.deletions) {
+            deleteBackup(backup);
         }
-        return oldest;
+        // The files go in the background; a reader holding one delays only that file
+        reclaimQueue.schedule();
+    }
+
+    private void deleteBackup(BackupMetadata backup) {
+        if (index.isChainParent(backup.getFilename())) {
+            // Newer incrementals still read files from this archive; the backup manager
+            // deletes it once the last of them is gone
+            log.info("Removing backup {} from index, archive kept for incremental backups built on it",
+                    backup.getFilename());
+            index.removeBackup(backup);
+            return;
+        }
+        log.debug("Retiring backup {}", backup.getFilename());
+        index.retireBackup(backup);
     }
 
     /**
-     * Finds a backup that falls within the same time bucket as the given timestamp.
-     * Time buckets are determined by dividing timestamps by the interval.
-     * For example, with a 1-day (1440 minute) interval, all backups from the same day
-     * will be in the same bucket.
+     * What one retention pass will do. A backup promoted twice in one pass (SON straight to
+     * GRANDFATHER) is promoted once, and one promoted and then deleted is just deleted.
      */
-    private BackupMetadata findBackupInTimeBucket(List<BackupMetadata> backups, long timestamp, long intervalMs) {
-        long targetBucket = timestamp / intervalMs;
+    static final class Plan {
+        final Map<BackupMetadata, BackupTier> promotions = new LinkedHashMap<>();
+        final List<BackupMetadata> deletions = new ArrayList<>();
 
-        for (BackupMetadata backup : backups) {
-            long backupBucket = backup.getCreatedAt() / intervalMs;
-            if (backupBucket == targetBucket) {
-                return backup;
-            }
+        void promote(BackupMetadata backup, BackupTier tier) {
+            promotions.put(backup, tier);
         }
 
-        return null;
+        void delete(BackupMetadata backup) {
+            promotions.remove(backup);
+            deletions.add(backup);
+        }
     }
 }
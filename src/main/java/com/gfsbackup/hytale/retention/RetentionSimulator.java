@@ -0,0 +1,269 @@
+package com.gfsbackup.hytale.retention;
+
+import com.gfsbackup.hytale.config.BackupConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a backup schedule through {@link RetentionPolicy} on a virtual clock, so the
+ * effect of a tier or budget change can be seen without waiting weeks for it. Backups are
+ * made-up metadata in an in-memory index; nothing is read from or written to disk, and a
+ * few years of 30-minute backups take seconds.
+ *
+ * A backup is taken every SON interval from the start time, except during outages, with a
+ * size that grows linearly with the simulated time. Retention runs after each one, as it
+ * does after every real backup, and retired backups count as deleted at once.
+ */
+public class RetentionSimulator {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final BackupConfig config;
+    private long start = 0;
+    private long initialSizeBytes = 300L * 1024 * 1024;
+    private long growthBytesPerDay = 0;
+    private final List<long[]> outages = new ArrayList<>();
+
+    public RetentionSimulator(BackupConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Virtual time of the first backup, in epoch millis.
+     */
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public void setInitialSizeBytes(long initialSizeBytes) {
+        this.initialSizeBytes = initialSizeBytes;
+    }
+
+    public void setGrowthBytesPerDay(long growthBytesPerDay) {
+        this.growthBytesPerDay = growthBytesPerDay;
+    }
+
+    /**
+     * No backups are taken from {@code from} (inclusive) to {@code to} (exclusive), as when
+     * the server is down.
+     */
+    public void addOutage(long from, long to) {
+        outages.add(new long[]{from, to});
+    }
+
+    /**
+     * Runs the schedule for {@code durationMillis} of virtual time and reports where it
+     * ends up. Each call starts from an empty index.
+     */
+    public Report run(long durationMillis) {
+        BackupIndex index = BackupIndex.inMemory();
+        // The queue never runs: retired backups are dropped below as if deleted at once
+        ReclaimQueue reclaimQueue = new ReclaimQueue(index, null, new ArchiveLocks(), task -> { });
+        RetentionPolicy policy = new RetentionPolicy(config, index, reclaimQueue);
+        policy.quiet();
+
+        Report report = new Report();
+        Map<String, BackupMetadata> created = new HashMap<>();
+        long interval = config.getTiers().getSon().getIntervalMillis();
+        long nextSample = start;
+        long began = System.nanoTime();
+
+        for (long now = start; now < start + durationMillis; now += interval) {
+            if (inOutage(now)) {
+                continue;
+            }
+            String filename = "backup-" + now + ".zip";
+            long size = initialSizeBytes + growthBytesPerDay * ((now - start) / DAY);
+            BackupMetadata backup = new BackupMetadata(filename, BackupTier.SON, now, size, null);
+            created.put(filename, backup);
+            index.addBackup(backup);
+            report.created++;
+
+            long applyStart = System.nanoTime();
+            policy.apply();
+            report.slowestApplyNanos = Math.max(report.slowestApplyNanos, System.nanoTime() - applyStart);
+
+            for (String retired : index.getPendingDeletions().keySet()) {
+                BackupMetadata gone = created.remove(retired);
+                report.deleted.merge(gone.getTier(), 1, Integer::sum);
+                report.deletedBytes += gone.getSizeBytes();
+                index.reclaimed(retired);
+            }
+
+            long total = index.getTotalSizeBytes();
+            report.peakBytes = Math.max(report.peakBytes, total);
+            if (now >= nextSample) {
+                report.storage.add(new Sample(now, index.countByTier(BackupTier.SON) + index.countByTier(BackupTier.FATHER)
+                        + index.countByTier(BackupTier.GRANDFATHER), total));
+                nextSample = now - (now - start) % DAY + DAY;
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - began;
+
+        for (BackupTier tier : BackupTier.values()) {
+            List<BackupMetadata> kept = index.getBackupsByTier(tier);
+            report.kept.put(tier, kept.size());
+            report.keptBytes.put(tier, index.getSizeBytesByTier(tier));
+            report.gaps.put(tier, gaps(kept, intervalFor(tier)));
+        }
+        return report;
+    }
+
+    private boolean inOutage(long time) {
+        for (long[] outage : outages) {
+            if (time >= outage[0] && time < outage[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long intervalFor(BackupTier tier) {
+        switch (tier) {
+            case FATHER:
+                return config.getTiers().getFather().getIntervalMillis();
+            case GRANDFATHER:
+                return config.getTiers().getGrandfather().getIntervalMillis();
+            default:
+                return config.getTiers().getSon().getIntervalMillis();
+        }
+    }
+
+    /**
+     * Start times of the periods between a tier's oldest and newest backup that have no
+     * backup in that tier.
+     */
+    private static List<Long> gaps(List<BackupMetadata> backups, long interval) {
+        TreeSet<Long> buckets = new TreeSet<>();
+        for (BackupMetadata backup : backups) {
+            buckets.add(backup.getCreatedAt() / interval);
+        }
+        List<Long> gaps = new ArrayList<>();
+        if (buckets.isEmpty()) {
+            return gaps;
+        }
+        for (long bucket = buckets.first(); bucket < buckets.last(); bucket++) {
+            if (!buckets.contains(bucket)) {
+                gaps.add(bucket * interval);
+            }
+        }
+        return gaps;
+    }
+
+    /**
+     * Where a simulated schedule ended up, and how long retention took to get there.
+     */
+    public static final class Report {
+        private int created;
+        private final Map<BackupTier, Integer> kept = new EnumMap<>(BackupTier.class);
+        private final Map<BackupTier, Long> keptBytes = new EnumMap<>(BackupTier.class);
+        private final Map<BackupTier, Integer> deleted = new EnumMap<>(BackupTier.class);
+        private long deletedBytes;
+        private final Map<BackupTier, List<Long>> gaps = new EnumMap<>(BackupTier.class);
+        private final List<Sample> storage = new ArrayList<>();
+        private long peakBytes;
+        private long elapsedNanos;
+        private long slowestApplyNanos;
+
+        public int getCreated() {
+            return created;
+        }
+
+        public int getKept(BackupTier tier) {
+            return kept.getOrDefault(tier, 0);
+        }
+
+        public long getKeptBytes(BackupTier tier) {
+            return keptBytes.getOrDefault(tier, 0L);
+        }
+
+        /**
+         * Backups deleted from {@code tier}, i.e. in that tier when they were deleted.
+         */
+        public int getDeleted(BackupTier tier) {
+            return deleted.getOrDefault(tier, 0);
+        }
+
+        public int getTotalDeleted() {
+            int total = 0;
+            for (int count : deleted.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        public long getDeletedBytes() {
+            return deletedBytes;
+        }
+
+        /**
+         * Periods of the tier's interval without a backup, between its oldest and newest
+         * kept backup, by start time.
+         */
+        public List<Long> getGaps(BackupTier tier) {
+            return Collections.unmodifiableList(gaps.getOrDefault(tier, List.of()));
+        }
+
+        /**
+         * Backup count and bytes after the first backup of each simulated day.
+         */
+        public List<Sample> getStorage() {
+            return Collections.unmodifiableList(storage);
+        }
+
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getSlowestApplyMillis() {
+            return slowestApplyNanos / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%d backups created, %d deleted (%d MB), peak %d MB, simulated in %d ms (slowest pass %.2f ms)%n",
+                    created, getTotalDeleted(), deletedBytes / (1024 * 1024), peakBytes / (1024 * 1024),
+                    getElapsedMillis(), getSlowestApplyMillis()));
+            for (BackupTier tier : BackupTier.values()) {
+                text.append(String.format("  %-11s kept %d (%d MB), deleted %d, %d gaps%n", tier, getKept(tier),
+                        getKeptBytes(tier) / (1024 * 1024), getDeleted(tier), getGaps(tier).size()));
+            }
+            return text.toString();
+        }
+    }
+
+    public static final class Sample {
+        private final long time;
+        private final int backups;
+        private final long bytes;
+
+        Sample(long time, int backups, long bytes) {
+            this.time = time;
+            this.backups = backups;
+            this.bytes = bytes;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getBackups() {
+            return backups;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.gfsbackup.hytale.retention;
+
+import com.gfsbackup.hytale.config.BackupConfig;
+import com.gfsbackup.hytale.config.BackupFormat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Picks the backups to give up when a byte budget or the disk runs short. Each backup is
+ * scored by what losing it costs: its size, how far through its tier's window it is, and
+ * its tier. A large SON near the end of its six hours goes long before a small weekly
+ * GRANDFATHER, which is the only copy of its week.
+ */
+final class StorageBudget {
+    static final long MB = 1024L * 1024L;
+
+    // The tiers further up cover longer periods with fewer backups
+    private static final double SON_WEIGHT = 1;
+    private static final double FATHER_WEIGHT = 2;
+    private static final double GRANDFATHER_WEIGHT = 4;
+
+    private static final int PREDICTION_HISTORY = 5;
+
+    private final BackupConfig.TierConfig tiers;
+
+    StorageBudget(BackupConfig.TierConfig tiers) {
+        this.tiers = tiers;
+    }
+
+    /**
+     * Chooses backups from {@code candidates} that together free at least {@code bytes},
+     * highest score first, or all of them if that isn't enough.
+     *
+     * @param now the time ages are measured from
+     */
+    List<BackupMetadata> select(List<Candidate> candidates, long bytes, long now) {
+        List<Candidate> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble((Candidate c) -> -score(c, now))
+                .thenComparingLong(c -> c.backup.getCreatedAt())
+                .thenComparing(c -> c.backup.getFilename()));
+
+        List<BackupMetadata> chosen = new ArrayList<>();
+        long freed = 0;
+        for (Candidate candidate : ranked) {
+            if (freed >= bytes) {
+                break;
+            }
+            chosen.add(candidate.backup);
+            freed += candidate.backup.getSizeBytes();
+        }
+        return chosen;
+    }
+
+    /**
+     * The candidate with the highest score, only from {@code tier} unless it is null, or
+     * null if there is none.
+     */
+    Candidate cheapest(List<Candidate> candidates, BackupTier tier, long now) {
+        Candidate cheapest = null;
+        double cheapestScore = 0;
+        for (Candidate candidate : candidates) {
+            if (tier != null && candidate.tier != tier) {
+                continue;
+            }
+            double score = score(candidate, now);
+            if (cheapest == null || score > cheapestScore || (score == cheapestScore
+                    && candidate.backup.getCreatedAt() < cheapest.backup.getCreatedAt())) {
+                cheapest = candidate;
+                cheapestScore = score;
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * Bytes freed per unit of value lost. Age counts as the fraction of the tier's window
+     * (interval times retention count) already used up.
+     */
+    double score(Candidate candidate, long now) {
+        BackupConfig.TierSettings settings = settings(candidate.tier);
+        long window = Math.max(settings.getIntervalMillis() * Math.max(settings.getRetentionCount(), 1), 1);
+        double age = Math.max(now - candidate.backup.getCreatedAt(), 0) / (double) window;
+        return candidate.backup.getSizeBytes() * (1 + age) / weight(candidate.tier);
+    }
+
+    long limitBytes(BackupTier tier) {
+        return settings(tier).getMaxSizeMB() * MB;
+    }
+
+    private BackupConfig.TierSettings settings(BackupTier tier) {
+        switch (tier) {
+            case FATHER:
+                return tiers.getFather();
+            case GRANDFATHER:
+                return tiers.getGrandfather();
+            default:
+                return tiers.getSon();
+        }
+    }
+
+    private static double weight(BackupTier tier) {
+        switch (tier) {
+            case FATHER:
+                return FATHER_WEIGHT;
+            case GRANDFATHER:
+                return GRANDFATHER_WEIGHT;
+            default:
+                return SON_WEIGHT;
+        }
+    }
+
+    /**
+     * Estimates the size of the next full backup in {@code format} from the latest few:
+     * the newest size plus the average growth between them. Incrementals are left out, so
+     * this overestimates when the next backup turns out to be one. Returns 0 without any
+     * history.
+     */
+    static long predictNextSize(Collection<BackupMetadata> backups, BackupFormat format) {
+        PriorityQueue<BackupMetadata> latest = new PriorityQueue<>(Comparator.comparingLong(BackupMetadata::getCreatedAt));
+        for (BackupMetadata backup : backups) {
+            if (backup.isIncremental() || backup.isMissing() || backup.getFormat() != format) {
+                continue;
+            }
+            latest.add(backup);
+            if (latest.size() > PREDICTION_HISTORY) {
+                latest.poll();
+            }
+        }
+        if (latest.isEmpty()) {
+            return 0;
+        }
+
+        int count = latest.size();
+        long oldest = latest.poll().getSizeBytes();
+        long newest = oldest;
+        while (!latest.isEmpty()) {
+            newest = latest.poll().getSizeBytes();
+        }
+        long growth = count > 1 ? Math.max(newest - oldest, 0) / (count - 1) : 0;
+        return newest + growth;
+    }
+
+    /**
+     * A backup and the tier it will be in once the current plan is applied.
+     */
+    static final class Candidate {
+        final BackupMetadata backup;
+        final BackupTier tier;
+
+        Candidate(BackupMetadata backup, BackupTier tier) {
+            this.backup = backup;
+            this.tier = tier;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.gfsbackup.hytale.scheduler;
+
+import com.gfsbackup.hytale.backup.BackupProgress;
+import com.gfsbackup.hytale.retention.BackupMetadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One backup run on the {@link BackupJobQueue}, standing in for every request merged into
+ * it. Changed only by the queue; readers see the latest state.
+ */
+public class BackupJob {
+
+    public enum Priority {
+        // Declared in the order the queue runs them
+        MANUAL,
+        SCHEDULED
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        // The world hadn't changed since the latest backup
+        SKIPPED,
+        FAILED,
+        CANCELLED;
+
+        public boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    private final long id;
+    private final long requestedAt;
+    private final CompletableFuture<BackupMetadata> result = new CompletableFuture<>();
+    private volatile Priority priority;
+    private volatile State state = State.QUEUED;
+    private volatile int requests = 1;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String filename;
+    private volatile String error;
+    private volatile BackupProgress progress;
+
+    BackupJob(long id, Priority priority, long requestedAt) {
+        this.id = id;
+        this.priority = priority;
+        this.requestedAt = requestedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Only scheduled backups are skipped when the world is unchanged; a job any manual
+     * request was merged into always produces a backup.
+     */
+    public boolean isSkipIfUnchanged() {
+        return priority == Priority.SCHEDULED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * How many requests this job answers: the one that created it plus those merged in.
+     */
+    public int getRequests() {
+        return requests;
+    }
+
+    void addRequest() {
+        requests++;
+    }
+
+    public long getRequestedAt() {
+        return requestedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Phase and throughput of the backup, or null until the job starts.
+     */
+    public BackupProgress getProgress() {
+        return progress;
+    }
+
+    void setProgress(BackupProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Completes with the indexed backup, with null when it was skipped as unchanged, or
+     * exceptionally when it failed or was cancelled.
+     */
+    public CompletableFuture<BackupMetadata> getResult() {
+        return result;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", id);
+        map.put("state", state.name());
+        map.put("priority", priority.name());
+        map.put("requests", requests);
+        map.put("requestedAt", requestedAt);
+        map.put("startedAt", startedAt);
+        map.put("finishedAt", finishedAt);
+        if (filename != null) {
+            map.put("filename", filename);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        BackupProgress current = progress;
+        if (current != null) {
+            map.put("progress", current.toMap());
+        }
+        return map;
+    }
+}
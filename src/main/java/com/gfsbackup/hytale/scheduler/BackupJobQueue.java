@@ -0,0 +1,269 @@
+package com.gfsbackup.hytale.scheduler;
+
+import com.gfsbackup.hytale.backup.BackupProgress;
+import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs scheduled and manual backups one at a time, so a burst of clicks or a scheduled
+ * run that overlaps a manual one produces one archive instead of several.
+ *
+ * A request for a backup that is already on its way is merged into that job and gets the
+ * same job back: any request into a job that is still queued, and a scheduled request
+ * also into one that is still capturing the world. A manual request takes over a queued scheduled job,
+ * which then runs as manual: ahead of scheduled work and never skipped as unchanged.
+ * Only queued jobs can be cancelled; a running backup always finishes.
+ */
+public class BackupJobQueue {
+    private static final Logger logger = LoggerFactory.getLogger(BackupJobQueue.class);
+
+    private static final int HISTORY = 100;
+
+    /**
+     * Starts one backup and returns once it no longer needs the queue, with a future for
+     * the rest, reporting to {@code progress} as it goes;
+     * {@link com.gfsbackup.hytale.backup.BackupManager#createBackupAsync(boolean, BackupProgress)}.
+     */
+    public interface BackupStarter {
+        CompletableFuture<BackupMetadata> start(boolean skipIfUnchanged, BackupProgress progress) throws Exception;
+    }
+
+    private final BackupStarter starter;
+    private final boolean waitForArchive;
+    private final ExecutorService worker;
+
+    // All guarded by this
+    private final PriorityQueue<BackupJob> queued = new PriorityQueue<>(
+            Comparator.comparing(BackupJob::getPriority).thenComparingLong(BackupJob::getId));
+    private BackupJob capturing;
+    private final Map<Long, BackupJob> jobs = new LinkedHashMap<>();
+    private long nextId = 1;
+    private boolean stopped;
+
+    /**
+     * @param waitForArchive whether the next job waits until the previous backup is fully
+     *                       archived, rather than only until its capture is done
+     */
+    public BackupJobQueue(BackupStarter starter, boolean waitForArchive) {
+        this.starter = starter;
+        this.waitForArchive = waitForArchive;
+        this.worker = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("gfs-backup-jobs-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        worker.execute(this::runJobs);
+    }
+
+    /**
+     * Requests a backup and returns the job that will produce it, either a new one or the
+     * one this request was merged into.
+     */
+    public synchronized BackupJob submit(BackupJob.Priority priority) {
+        if (stopped) {
+            throw new IllegalStateException("Backup job queue is shut down");
+        }
+
+        BackupJob target = null;
+        for (BackupJob job : queued) {
+            if (job.getPriority() == priority || priority == BackupJob.Priority.SCHEDULED) {
+                target = job;
+                break;
+            }
+        }
+        if (target == null && priority == BackupJob.Priority.MANUAL && !queued.isEmpty()) {
+            // Take over the waiting scheduled job rather than back up twice in a row
+            target = queued.poll();
+            target.setPriority(BackupJob.Priority.MANUAL);
+            queued.add(target);
+        }
+        if (target == null && priority == BackupJob.Priority.SCHEDULED) {
+            // Changes made after the capture are missed, so only join a job before that
+            target = capturing;
+        }
+
+        if (target != null) {
+            target.addRequest();
+            logger.info("{} backup request merged into job {} ({})", priority, target.getId(), target.getState());
+            return target;
+        }
+
+        BackupJob job = new BackupJob(nextId++, priority, System.currentTimeMillis());
+        queued.add(job);
+        jobs.put(job.getId(), job);
+        trimHistory();
+        notifyAll();
+        logger.info("{} backup queued as job {}", priority, job.getId());
+        return job;
+    }
+
+    /**
+     * Cancels a job that hasn't started. Returns false if it is running, finished or unknown.
+     */
+    public synchronized boolean cancel(long id) {
+        BackupJob job = jobs.get(id);
+        if (job == null || job.getState() != BackupJob.State.QUEUED) {
+            return false;
+        }
+        queued.remove(job);
+        finish(job, BackupJob.State.CANCELLED, null, "Cancelled");
+        job.getResult().completeExceptionally(new CancellationException("Backup job " + id + " was cancelled"));
+        logger.info("Backup job {} cancelled", id);
+        return true;
+    }
+
+    public synchronized BackupJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * The latest jobs, newest first.
+     */
+    public synchronized List<BackupJob> getJobs() {
+        List<BackupJob> list = new ArrayList<>(jobs.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * Cancels whatever is queued and waits a while for a running capture to finish.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            for (BackupJob job : new ArrayList<>(queued)) {
+                cancel(job.getId());
+            }
+            notifyAll();
+        }
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Backup still capturing at shutdown, abandoning it");
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runJobs() {
+        while (true) {
+            BackupJob job;
+            synchronized (this) {
+                while (queued.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                job = queued.poll();
+                job.setState(BackupJob.State.RUNNING);
+                job.setStartedAt(System.currentTimeMillis());
+                job.setProgress(new BackupProgress());
+                capturing = job;
+            }
+            try {
+                run(job);
+            } catch (Throwable t) {
+                // Fail this job rather than the worker, or every later job would wait forever
+                synchronized (this) {
+                    capturing = null;
+                }
+                if (!job.getState().isFinished()) {
+                    completed(job, null, t);
+                }
+            }
+        }
+    }
+
+    private void run(BackupJob job) {
+        logger.info("Starting {} backup job {} ({} requests)", job.getPriority(), job.getId(), job.getRequests());
+        CompletableFuture<BackupMetadata> backup;
+        try {
+            backup = starter.start(job.isSkipIfUnchanged(), job.getProgress());
+        } catch (Throwable t) {
+            backup = CompletableFuture.failedFuture(t);
+        }
+        synchronized (this) {
+            capturing = null;
+        }
+
+        CompletableFuture<?> done = backup.handle((metadata, error) -> {
+            completed(job, metadata, error);
+            return null;
+        });
+        if (waitForArchive) {
+            done.join();
+        }
+    }
+
+    private void completed(BackupJob job, BackupMetadata metadata, Throwable error) {
+        // Only the future's own wrappers; a starter's exception keeps its message
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        synchronized (this) {
+            if (cause != null) {
+                finish(job, BackupJob.State.FAILED, null, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+            } else if (metadata == null) {
+                finish(job, BackupJob.State.SKIPPED, null, null);
+            } else {
+                finish(job, BackupJob.State.COMPLETED, metadata.getFilename(), null);
+            }
+        }
+
+        if (cause != null) {
+            logger.error("{} backup job {} failed", job.getPriority(), job.getId(), cause);
+            job.getResult().completeExceptionally(cause);
+        } else {
+            logger.info("{} backup job {} {}", job.getPriority(), job.getId(),
+                    metadata != null ? "completed: " + metadata.getFilename() : "skipped, world unchanged");
+            job.getResult().complete(metadata);
+        }
+    }
+
+    private void finish(BackupJob job, BackupJob.State state, String filename, String error) {
+        job.setState(state);
+        job.setFilename(filename);
+        job.setError(error);
+        job.setFinishedAt(System.currentTimeMillis());
+    }
+
+    /**
+     * Must hold this. Forgets the oldest finished jobs beyond the history size.
+     */
+    private void trimHistory() {
+        Iterator<BackupJob> oldestFirst = jobs.values().iterator();
+        while (jobs.size() > HISTORY && oldestFirst.hasNext()) {
+            if (oldestFirst.next().getState().isFinished()) {
+                oldestFirst.remove();
+            }
+        }
+    }
+}
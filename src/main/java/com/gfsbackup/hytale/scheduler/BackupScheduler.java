@@ -14,14 +14,15 @@ import java.util.concurrent.TimeUnit;
 public class BackupScheduler {
     private static final Logger logger = LoggerFactory.getLogger(BackupScheduler.class);
 
-    private final BackupManager backupManager;
     private final BackupConfig config;
+    private final BackupJobQueue jobQueue;
     private final ScheduledExecutorService scheduler;
     private ScheduledFuture<?> scheduledTask;
 
     public BackupScheduler(BackupManager backupManager, BackupConfig config) {
-        this.backupManager = backupManager;
         this.config = config;
+        // With async backups only the capture holds up the next job; archiving finishes in the background
+        this.jobQueue = new BackupJobQueue(backupManager::createBackupAsync, !config.getAdvanced().isAsyncBackup());
         this.scheduler = Executors.newSingleThreadScheduledExecutor(
                 new ThreadFactoryBuilder()
                         .setNameFormat("gfs-backup-%d")
@@ -43,8 +44,7 @@ public class BackupScheduler {
                 () -> {
                     try {
                         logger.info("Scheduled backup starting...");
-                        backupManager.createBackup();
-                        logger.info("Scheduled backup completed successfully");
+                        jobQueue.submit(BackupJob.Priority.SCHEDULED);
                     } catch (Exception e) {
                         logger.error("Scheduled backup failed", e);
                     }
@@ -72,17 +72,19 @@ public class BackupScheduler {
             scheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
+
+        jobQueue.shutdown();
     }
 
-    public void triggerManualBackup() {
+    /**
+     * Queues a manual backup, or joins one that is already waiting to run.
+     */
+    public BackupJob triggerManualBackup() {
         logger.info("Manual backup triggered");
-        scheduler.submit(() -> {
-            try {
-                backupManager.createBackup();
-                logger.info("Manual backup completed successfully");
-            } catch (Exception e) {
-                logger.error("Manual backup failed", e);
-            }
-        });
+        return jobQueue.submit(BackupJob.Priority.MANUAL);
+    }
+
+    public BackupJobQueue getJobQueue() {
+        return jobQueue;
     }
 }
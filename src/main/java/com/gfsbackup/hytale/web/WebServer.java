@@ -2,6 +2,7 @@ package com.gfsbackup.hytale.web;
 
 import com.gfsbackup.hytale.backup.BackupManager;
 import com.gfsbackup.hytale.config.BackupConfig;
+import com.gfsbackup.hytale.scheduler.BackupJobQueue;
 import com.gfsbackup.hytale.web.servlets.*;
 import jakarta.servlet.DispatcherType;
 import org.eclipse.jetty.ee10.servlet.DefaultServlet;
@@ -22,11 +23,13 @@ public class WebServer {
     private static final Logger logger = LoggerFactory.getLogger(WebServer.class);
 
     private final BackupManager backupManager;
+    private final BackupJobQueue jobQueue;
     private final BackupConfig config;
     private Server server;
 
-    public WebServer(BackupManager backupManager, BackupConfig config) {
+    public WebServer(BackupManager backupManager, BackupJobQueue jobQueue, BackupConfig config) {
         this.backupManager = backupManager;
+        this.jobQueue = jobQueue;
         this.config = config;
     }
 
@@ -51,7 +54,8 @@ public class WebServer {
         // API servlets
         boolean allowRestore = config.getWebServer().isAllowRestore();
         context.addServlet(new ServletHolder(new BackupListServlet(backupManager, allowRestore)), "/api/backups");
-        context.addServlet(new ServletHolder(new BackupCreateServlet(backupManager)), "/api/backups/create");
+        context.addServlet(new ServletHolder(new BackupCreateServlet(jobQueue)), "/api/backups/create");
+        context.addServlet(new ServletHolder(new BackupJobServlet(jobQueue)), "/api/backups/jobs/*");
         context.addServlet(new ServletHolder(new BackupDownloadServlet(backupManager)), "/api/backups/download/*");
         context.addServlet(new ServletHolder(new BackupRestoreServlet(backupManager, allowRestore)), "/api/backups/restore/*");
         context.addServlet(new ServletHolder(new BackupDeleteServlet(backupManager)), "/api/backups/delete/*");
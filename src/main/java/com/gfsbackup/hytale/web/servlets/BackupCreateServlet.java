@@ -1,7 +1,7 @@
 package com.gfsbackup.hytale.web.servlets;
 
-import com.gfsbackup.hytale.backup.BackupManager;
-import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.gfsbackup.hytale.scheduler.BackupJob;
+import com.gfsbackup.hytale.scheduler.BackupJobQueue;
 import com.google.gson.Gson;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -10,12 +10,16 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Map;
 
+/**
+ * Queues a manual backup and answers 202 at once with its job, which the caller polls
+ * at {@code /api/backups/jobs/:id}; the backup itself runs on the job queue's worker.
+ */
 public class BackupCreateServlet extends HttpServlet {
-    private final BackupManager backupManager;
+    private final BackupJobQueue jobQueue;
     private final Gson gson = new Gson();
 
-    public BackupCreateServlet(BackupManager backupManager) {
-        this.backupManager = backupManager;
+    public BackupCreateServlet(BackupJobQueue jobQueue) {
+        this.jobQueue = jobQueue;
     }
 
     @Override
@@ -25,14 +29,20 @@ public class BackupCreateServlet extends HttpServlet {
         resp.setHeader("Access-Control-Allow-Origin", "*");
 
         try {
-            BackupMetadata metadata = backupManager.createBackup();
+            // A click while another manual backup is waiting gets that one
+            BackupJob job = jobQueue.submit(BackupJob.Priority.MANUAL);
+            String statusUrl = "/api/backups/jobs/" + job.getId();
 
             Map<String, Object> response = Map.of(
                     "success", true,
-                    "filename", metadata.getFilename(),
-                    "message", "Backup created successfully"
+                    "jobId", job.getId(),
+                    "job", job.toMap(),
+                    "statusUrl", statusUrl,
+                    "message", "Backup queued"
             );
 
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            resp.setHeader("Location", statusUrl);
             resp.getWriter().write(gson.toJson(response));
         } catch (Exception e) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
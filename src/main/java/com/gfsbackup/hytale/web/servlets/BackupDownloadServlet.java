@@ -1,6 +1,11 @@
 package com.gfsbackup.hytale.web.servlets;
 
+import com.gfsbackup.hytale.backup.ArchiveFormat;
 import com.gfsbackup.hytale.backup.BackupManager;
+import com.gfsbackup.hytale.backup.IoThrottle;
+import com.gfsbackup.hytale.config.BackupFormat;
+import com.gfsbackup.hytale.retention.ArchiveLocks;
+import com.gfsbackup.hytale.retention.BackupMetadata;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -8,6 +13,7 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 public class BackupDownloadServlet extends HttpServlet {
@@ -34,16 +40,38 @@ public class BackupDownloadServlet extends HttpServlet {
 
         File backupFile = backupManager.getBackupFile(filename);
 
-        if (!backupFile.exists() || !backupFile.isFile()) {
+        BackupMetadata metadata = backupManager.getBackupByFilename(filename);
+        if (!backupFile.exists() || (backupFile.isDirectory() && metadata == null)) {
             resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Backup not found");
             return;
         }
 
-        resp.setContentType("application/zip");
+        if (metadata != null && (metadata.getFormat() == BackupFormat.CHUNKED
+                || metadata.getFormat() == BackupFormat.SNAPSHOT || metadata.isIncremental())) {
+            // Chunked, snapshot and incremental backups have no self-contained archive; assemble one on the fly
+            String extension = metadata.getFormat().getExtension();
+            String zipName = (filename.endsWith(extension)
+                    ? filename.substring(0, filename.length() - extension.length())
+                    : filename) + ".zip";
+            resp.setContentType("application/zip");
+            resp.setHeader("Content-Disposition", "attachment; filename=\"" + zipName + "\"");
+
+            try (OutputStream os = resp.getOutputStream()) {
+                backupManager.exportBackupAsZip(filename, os);
+                os.flush();
+            }
+            return;
+        }
+
+        BackupFormat format = metadata != null ? metadata.getFormat() : BackupFormat.ZIP;
+        resp.setContentType(ArchiveFormat.forFormat(format).getContentType());
         resp.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
         resp.setContentLengthLong(backupFile.length());
 
-        try (FileInputStream fis = new FileInputStream(backupFile);
+        // Held while streaming so the archive isn't deleted or converted halfway through
+        try (ArchiveLocks.Hold hold = metadata != null ? backupManager.lockForReading(metadata) : null;
+             IoThrottle.Scope ioLimit = metadata != null ? backupManager.limitIoFor(metadata) : IoThrottle.limit(null);
+             InputStream fis = IoThrottle.READ.wrap(new FileInputStream(backupFile));
              OutputStream os = resp.getOutputStream()) {
 
             byte[] buffer = new byte[8192];
@@ -0,0 +1,103 @@
+package com.gfsbackup.hytale.web.servlets;
+
+import com.gfsbackup.hytale.scheduler.BackupJob;
+import com.gfsbackup.hytale.scheduler.BackupJobQueue;
+import com.google.gson.Gson;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Lists backup jobs, shows one by id, and cancels queued ones with DELETE.
+ */
+public class BackupJobServlet extends HttpServlet {
+    private final BackupJobQueue jobQueue;
+    private final Gson gson = new Gson();
+
+    public BackupJobServlet(BackupJobQueue jobQueue) {
+        this.jobQueue = jobQueue;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+
+        String pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            List<Map<String, Object>> jobs = jobQueue.getJobs().stream()
+                    .map(BackupJob::toMap)
+                    .collect(Collectors.toList());
+            resp.getWriter().write(gson.toJson(Map.of("success", true, "jobs", jobs)));
+            return;
+        }
+
+        BackupJob job = findJob(pathInfo, resp);
+        if (job != null) {
+            resp.getWriter().write(gson.toJson(Map.of("success", true, "job", job.toMap())));
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+
+        String pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Job id required");
+            return;
+        }
+
+        BackupJob job = findJob(pathInfo, resp);
+        if (job == null) {
+            return;
+        }
+        if (!jobQueue.cancel(job.getId())) {
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            Map<String, Object> error = Map.of(
+                    "success", false,
+                    "error", "Job " + job.getId() + " is " + job.getState() + " and can no longer be cancelled"
+            );
+            resp.getWriter().write(gson.toJson(error));
+            return;
+        }
+
+        Map<String, Object> response = Map.of(
+                "success", true,
+                "message", "Backup job cancelled"
+        );
+        resp.getWriter().write(gson.toJson(response));
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest req, HttpServletResponse resp) {
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+        resp.setHeader("Access-Control-Allow-Methods", "GET, DELETE, OPTIONS");
+        resp.setHeader("Access-Control-Allow-Headers", "Content-Type");
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private BackupJob findJob(String pathInfo, HttpServletResponse resp) throws IOException {
+        long id;
+        try {
+            id = Long.parseLong(pathInfo.substring(1));
+        } catch (NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid job id");
+            return null;
+        }
+
+        BackupJob job = jobQueue.getJob(id);
+        if (job == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Job not found");
+        }
+        return job;
+    }
+}
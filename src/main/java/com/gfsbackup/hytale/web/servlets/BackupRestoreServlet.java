@@ -48,13 +48,25 @@ public class BackupRestoreServlet extends HttpServlet {
             return;
         }
 
-        try {
-            backupManager.restoreBackup(filename);
+        // ?path=players/abc.json restores just that file or directory
+        String path = req.getParameter("path");
 
-            Map<String, Object> response = Map.of(
-                    "success", true,
-                    "message", "Backup restored to temp-restore folder. Manual server restart required."
-            );
+        try {
+            Map<String, Object> response;
+            if (path != null && !path.isBlank()) {
+                int restored = backupManager.restorePath(filename, path);
+                response = Map.of(
+                        "success", true,
+                        "files", restored,
+                        "message", "Restored " + restored + " file(s) under " + path + " to temp-restore folder."
+                );
+            } else {
+                backupManager.restoreBackup(filename);
+                response = Map.of(
+                        "success", true,
+                        "message", "Backup restored to temp-restore folder. Manual server restart required."
+                );
+            }
 
             resp.getWriter().write(gson.toJson(response));
         } catch (Exception e) {
@@ -88,6 +88,7 @@ function renderConfigPanel() {
             <dl>
                 <dt>Interval</dt><dd>Every ${formatInterval(cfg.snapshots.intervalMinutes)}</dd>
                 <dt>Retention</dt><dd>${cfg.snapshots.retentionCount} backups</dd>
+                <dt>Format</dt><dd>${cfg.snapshots.format}</dd>
                 <dt>Status</dt><dd>${cfg.snapshots.enabled ? 'Enabled' : 'Disabled'}</dd>
             </dl>
         </div>
@@ -96,6 +97,7 @@ function renderConfigPanel() {
             <dl>
                 <dt>Interval</dt><dd>Every ${formatInterval(cfg.dailies.intervalMinutes)}</dd>
                 <dt>Retention</dt><dd>${cfg.dailies.retentionCount} backups</dd>
+                <dt>Format</dt><dd>${cfg.dailies.format}</dd>
                 <dt>Status</dt><dd>${cfg.dailies.enabled ? 'Enabled' : 'Disabled'}</dd>
             </dl>
         </div>
@@ -104,6 +106,7 @@ function renderConfigPanel() {
             <dl>
                 <dt>Interval</dt><dd>Every ${formatInterval(cfg.archives.intervalMinutes)}</dd>
                 <dt>Retention</dt><dd>${cfg.archives.retentionCount} backups</dd>
+                <dt>Format</dt><dd>${cfg.archives.format}</dd>
                 <dt>Status</dt><dd>${cfg.archives.enabled ? 'Enabled' : 'Disabled'}</dd>
             </dl>
         </div>
@@ -142,7 +145,7 @@ function renderBackupTable(tableId, backups, tier) {
         <tbody>
             ${backups.map(backup => `
                 <tr>
-                    <td>${backup.filename}</td>
+                    <td>${backup.filename}${backup.missing ? '<span class="badge badge-missing" title="Not found in the backup folder at the last startup">Missing</span>' : ''}</td>
                     <td>${formatDate(new Date(backup.createdAt))}</td>
                     <td>${formatBytes(backup.sizeBytes)}</td>
                     <td><span class="badge badge-${display.badge}">${display.label}</span></td>
@@ -166,7 +169,7 @@ async function createBackup() {
     }
 
     try {
-        showNotification('Creating backup...', 'info');
+        showNotification('Queueing backup...', 'info');
 
         const response = await fetch(API_BASE + '/create', {
             method: 'POST'
@@ -175,8 +178,7 @@ async function createBackup() {
         const data = await response.json();
 
         if (data.success) {
-            showNotification('Backup created successfully: ' + data.filename, 'success');
-            loadBackups();
+            pollBackupJob(data.jobId);
         } else {
             showNotification('Failed to create backup: ' + data.error, 'error');
         }
@@ -185,6 +187,48 @@ async function createBackup() {
     }
 }
 
+async function pollBackupJob(jobId) {
+    try {
+        const response = await fetch(API_BASE + '/jobs/' + jobId);
+        const data = await response.json();
+        const job = data.job;
+
+        if (job.state === 'COMPLETED') {
+            showNotification('Backup created successfully: ' + job.filename, 'success');
+            loadBackups();
+        } else if (job.state === 'SKIPPED') {
+            showNotification('World unchanged, no backup needed', 'success');
+        } else if (job.state === 'FAILED' || job.state === 'CANCELLED') {
+            showNotification('Failed to create backup: ' + job.error, 'error');
+        } else {
+            showNotification(formatJobStatus(job), 'info');
+            setTimeout(() => pollBackupJob(jobId), 1000);
+        }
+    } catch (error) {
+        showNotification('Error checking backup: ' + error.message, 'error');
+    }
+}
+
+function formatJobStatus(job) {
+    if (job.state === 'QUEUED' || !job.progress) {
+        return 'Backup queued...';
+    }
+
+    const progress = job.progress;
+    let status = 'Backup ' + progress.phase.toLowerCase();
+    if (progress.bytesDone > 0) {
+        status += ': ' + formatBytes(progress.bytesDone);
+        if (progress.expectedBytes > 0) {
+            status += ' of ~' + formatBytes(progress.expectedBytes);
+        }
+        status += ' at ' + progress.throughputMBps.toFixed(1) + ' MB/s';
+    }
+    if (progress.etaMillis >= 0) {
+        status += ', ~' + Math.ceil(progress.etaMillis / 1000) + 's left';
+    }
+    return status;
+}
+
 function downloadBackup(filename) {
     const url = API_BASE + '/download/' + filename;
     window.location.href = url;
@@ -240,12 +284,16 @@ async function confirmDelete(filename) {
     }
 }
 
+let notificationTimeout = null;
+
 function showNotification(message, type = 'info') {
     const notification = document.getElementById('notification');
     notification.textContent = message;
     notification.className = 'notification ' + type;
 
-    setTimeout(() => {
+    // Progress updates replace the message, so only the latest one starts the timer
+    clearTimeout(notificationTimeout);
+    notificationTimeout = setTimeout(() => {
         notification.className = 'notification hidden';
     }, 5000);
 }
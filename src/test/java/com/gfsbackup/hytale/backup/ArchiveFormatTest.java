@@ -0,0 +1,85 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveFormatTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * Every single-file format must restore the world byte-for-byte, keep empty
+     * directories and report the same checksum a read-back of the archive gives.
+     */
+    @Test
+    public void testEveryFormatRoundTrips() throws Exception {
+        File world = new File(tempDir, "universe");
+        new File(world, "worlds/default/chunks").mkdirs();
+        new File(world, "empty").mkdirs();
+
+        byte[] region = new byte[3 * 1024 * 1024 + 17];
+        new Random(5).nextBytes(region);
+        Files.write(new File(world, "worlds/default/chunks/0.0.region.bin").toPath(), region);
+        Files.writeString(new File(world, "config.json").toPath(), "{\"seed\": 1}");
+
+        for (BackupFormat format : new BackupFormat[]{BackupFormat.ZIP, BackupFormat.TAR_ZSTD, BackupFormat.TAR_LZ4}) {
+            ArchiveFormat archiveFormat = ArchiveFormat.forFormat(format);
+            File archive = new File(tempDir, "backup" + format.getExtension());
+            ArchiveResult result = archiveFormat.create(world, archive, 2, CompressionPolicy.DEFAULT);
+
+            assertEquals(archive.length(), result.getCompressedBytes(), format + " size");
+            assertEquals(region.length + 11, result.getUncompressedBytes(), format + " uncompressed size");
+            assertEquals(ZipUtility.calculateChecksum(archive), result.getChecksum(), format + " checksum");
+
+            File restored = new File(tempDir, "restored-" + format);
+            archiveFormat.extract(archive, restored, 2, null);
+            assertArrayEquals(region, Files.readAllBytes(
+                    new File(restored, "worlds/default/chunks/0.0.region.bin").toPath()), format + " region");
+            assertEquals("{\"seed\": 1}", Files.readString(new File(restored, "config.json").toPath()));
+            assertTrue(new File(restored, "empty").isDirectory(), format + " empty directory");
+        }
+    }
+
+    /**
+     * Restoring one file or one subtree must write exactly the matching files, in every format.
+     */
+    @Test
+    public void testExtractPathRestoresOnlyTheMatch() throws Exception {
+        File world = new File(tempDir, "universe");
+        new File(world, "players").mkdirs();
+        new File(world, "players-old").mkdirs();
+        new File(world, "worlds/default/chunks").mkdirs();
+        for (int i = 0; i < 5; i++) {
+            Files.writeString(new File(world, "players/p" + i + ".json").toPath(), "{\"id\": " + i + "}");
+            Files.writeString(new File(world, "players-old/p" + i + ".json").toPath(), "old");
+            Files.writeString(new File(world, "worlds/default/chunks/" + i + ".region.bin").toPath(), "region " + i);
+        }
+
+        for (BackupFormat format : new BackupFormat[]{BackupFormat.ZIP, BackupFormat.TAR_ZSTD, BackupFormat.TAR_LZ4}) {
+            ArchiveFormat archiveFormat = ArchiveFormat.forFormat(format);
+            File archive = new File(tempDir, "backup" + format.getExtension());
+            archiveFormat.create(world, archive, 2, CompressionPolicy.DEFAULT);
+
+            File single = new File(tempDir, "single-" + format);
+            assertEquals(1, archiveFormat.extractPath(archive, "players/p3.json", single, 2, null), format + " single");
+            assertEquals("{\"id\": 3}", Files.readString(new File(single, "players/p3.json").toPath()));
+            assertFalse(new File(single, "players/p2.json").exists());
+            assertFalse(new File(single, "worlds").exists());
+
+            File subtree = new File(tempDir, "subtree-" + format);
+            assertEquals(5, archiveFormat.extractPath(archive, "players", subtree, 2, null), format + " subtree");
+            assertFalse(new File(subtree, "players-old").exists(), format + " sibling with the same prefix");
+            assertFalse(new File(subtree, "worlds").exists());
+
+            assertEquals(0, archiveFormat.extractPath(archive, "missing.json", new File(tempDir, "none-" + format), 2, null));
+        }
+    }
+}
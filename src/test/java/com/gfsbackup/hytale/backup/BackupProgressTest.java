@@ -0,0 +1,97 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackupProgressTest {
+
+    /**
+     * Bytes and ETA follow the reads of the current phase; once the backup is done they
+     * cover the whole backup and stop changing.
+     */
+    @Test
+    public void testPhasesCountReadsAndEstimateTimeLeft() throws Exception {
+        BackupProgress progress = new BackupProgress();
+        assertEquals(BackupProgress.Phase.PREPARING, progress.getPhase());
+        assertEquals(-1, progress.getEtaMillis());
+
+        try (IoThrottle.Scope metered = progress.meter()) {
+            progress.expect(4000);
+            progress.phase(BackupProgress.Phase.CAPTURING);
+            assertEquals(0, progress.getBytesDone());
+            assertEquals(-1, progress.getEtaMillis(), "No estimate before anything was read");
+            Thread.sleep(20);
+            IoThrottle.READ.acquire(1000);
+            assertEquals(1000, progress.getBytesDone());
+            long eta = progress.getEtaMillis();
+            assertTrue(eta >= 3 * 20 && eta < 10000, "ETA " + eta);
+            assertTrue(progress.getThroughputMBps() > 0);
+
+            progress.phase(BackupProgress.Phase.ARCHIVING);
+            assertEquals(0, progress.getBytesDone());
+            IoThrottle.READ.acquire(4000);
+            IoThrottle.WRITE.acquire(2000);
+            assertEquals(4000, progress.getBytesDone());
+            assertEquals(0, progress.getEtaMillis());
+
+            progress.phase(BackupProgress.Phase.FINISHING);
+            assertEquals(-1, progress.getEtaMillis());
+            progress.phase(BackupProgress.Phase.DONE);
+        }
+        IoThrottle.READ.acquire(500);
+        assertEquals(5000, progress.getBytesDone());
+
+        Map<String, Object> map = progress.toMap();
+        assertEquals("DONE", map.get("phase"));
+        assertEquals(5000L, map.get("bytesDone"));
+        assertEquals(4000L, map.get("expectedBytes"));
+    }
+
+    /**
+     * Only the backup's own reads count: those of threads it starts, not those of a
+     * restore or download on another thread, nor anything after the scope is closed.
+     */
+    @Test
+    public void testCountsOnlyItsOwnThreads() throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread otherReader = new Thread(() -> {
+            try {
+                go.await();
+                IoThrottle.READ.acquire(7000);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        otherReader.start();
+
+        BackupProgress progress = new BackupProgress();
+        Thread worker;
+        try (IoThrottle.Scope metered = progress.meter()) {
+            progress.phase(BackupProgress.Phase.ARCHIVING);
+            go.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            worker = new Thread(() -> {
+                try {
+                    IoThrottle.READ.acquire(300);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            worker.start();
+            worker.join();
+            IoThrottle.READ.acquire(200);
+        }
+        IoThrottle.READ.acquire(100);
+
+        assertEquals(500, progress.getBytesDone());
+    }
+}
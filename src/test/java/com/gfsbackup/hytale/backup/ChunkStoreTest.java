@@ -0,0 +1,188 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupFormat;
+import com.gfsbackup.hytale.retention.ArchiveLocks;
+import com.gfsbackup.hytale.retention.BackupIndex;
+import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.gfsbackup.hytale.retention.BackupTier;
+import com.gfsbackup.hytale.retention.ReclaimQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkStoreTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * A second snapshot of a world where one region file changed in a single place should
+     * only add the chunks around the change, restore byte-for-byte, and garbage collection
+     * should keep everything the surviving manifest still needs.
+     */
+    @Test
+    public void testDeduplicationRestoreAndGarbageCollection() throws IOException {
+        File world = new File(tempDir, "universe");
+        new File(world, "chunks").mkdirs();
+
+        byte[] region = new byte[4 * 1024 * 1024];
+        new Random(3).nextBytes(region);
+        File regionFile = new File(world, "chunks/0.0.region.bin");
+        Files.write(regionFile.toPath(), region);
+        Files.writeString(new File(world, "config.json").toPath(), "{\"seed\": 1}");
+
+        ChunkStore store = new ChunkStore(new File(tempDir, "chunks"));
+        File first = new File(tempDir, "first.chunks.json");
+        ArchiveResult firstResult = store.store(world, first, 2);
+
+        region[2 * 1024 * 1024] ^= 0x55;
+        Files.write(regionFile.toPath(), region);
+        File second = new File(tempDir, "second.chunks.json");
+        ArchiveResult secondResult = store.store(world, second, 2);
+
+        assertTrue(secondResult.getCompressedBytes() < firstResult.getCompressedBytes() / 4,
+                "An unchanged world should mostly reuse existing chunks");
+
+        store.collectGarbage(List.of(second));
+        first.delete();
+
+        File restored = new File(tempDir, "restored");
+        store.restore(second, restored, 2, null);
+        assertArrayEquals(region, Files.readAllBytes(new File(restored, "chunks/0.0.region.bin").toPath()));
+        assertEquals("{\"seed\": 1}", Files.readString(new File(restored, "config.json").toPath()));
+    }
+
+    /**
+     * Boundaries depend on the content, not the offset: after a few bytes are prepended,
+     * the chunking realigns and every chunk past the edit is one the original had.
+     */
+    @Test
+    public void testCutPointsAreContentDefined() {
+        byte[] data = new byte[ChunkStore.MAX_CHUNK * 8];
+        new Random(9).nextBytes(data);
+
+        int cut = ChunkStore.cutPoint(data, 0, data.length);
+        assertTrue(cut >= ChunkStore.MIN_CHUNK && cut <= ChunkStore.MAX_CHUNK);
+
+        byte[] edited = new byte[data.length + 7];
+        System.arraycopy(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, edited, 0, 7);
+        System.arraycopy(data, 0, edited, 7, data.length);
+
+        List<String> original = chunks(data);
+        List<String> shifted = chunks(edited);
+        assertTrue(original.size() > 8, "Expected many chunks: " + original.size());
+        // Only the chunk holding the edit may differ
+        assertEquals(original.subList(1, original.size()), shifted.subList(shifted.size() - original.size() + 1, shifted.size()));
+        assertNotEquals(original.get(0), shifted.get(0));
+    }
+
+    /**
+     * A retired chunked backup that is still being read keeps all of its chunks, even when
+     * another garbage collection runs meanwhile. Its chunks go only once the reclaim queue
+     * has deleted the manifest, and the surviving backup still restores.
+     */
+    @Test
+    public void testRetiredManifestKeepsItsChunksWhileRead() throws IOException {
+        BackupIndex index = new BackupIndex(new File(tempDir, "backup-index.json"));
+        index.load();
+        ChunkStore store = new ChunkStore(new File(tempDir, "chunks"));
+        byte[][] regions = new byte[2][];
+        for (int i = 0; i < 2; i++) {
+            File world = new File(tempDir, "world-" + i);
+            world.mkdirs();
+            regions[i] = new byte[1024 * 1024];
+            new Random(i).nextBytes(regions[i]);
+            Files.write(new File(world, "0.0.region.bin").toPath(), regions[i]);
+            String filename = "backup-" + i + BackupFormat.CHUNKED.getExtension();
+            ArchiveResult result = store.store(world, new File(tempDir, filename), 2);
+            BackupMetadata metadata = new BackupMetadata(filename, BackupTier.SON, 1000L * i,
+                    result.getCompressedBytes(), result.getChecksum());
+            metadata.setFormat(BackupFormat.CHUNKED);
+            index.addBackup(metadata);
+        }
+        index.save();
+
+        Runnable collect = () -> {
+            try {
+                store.collectGarbage(BackupManager.liveChunkManifests(index, tempDir, Map.of()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        ArchiveLocks locks = new ArchiveLocks();
+        ReclaimQueue queue = new ReclaimQueue(index, tempDir, locks, Runnable::run);
+        queue.setListener(batch -> collect.run());
+        long before = countChunks();
+
+        String retired = "backup-0" + BackupFormat.CHUNKED.getExtension();
+        try (ArchiveLocks.Hold download = locks.tryRead(retired)) {
+            index.retireBackup(index.getBackupByFilename(retired));
+            queue.reclaimNow();
+            collect.run();
+
+            File restored = new File(tempDir, "restored-0");
+            store.restore(new File(tempDir, retired), restored, 2, null);
+            assertArrayEquals(regions[0], Files.readAllBytes(new File(restored, "0.0.region.bin").toPath()));
+        }
+        assertEquals(before, countChunks(), "No chunk may go while its manifest is on disk");
+
+        queue.reclaimNow();
+        assertFalse(new File(tempDir, retired).exists());
+        assertTrue(countChunks() < before, "Chunks only the reclaimed manifest used should be collected");
+
+        File restored = new File(tempDir, "restored-1");
+        store.restore(new File(tempDir, "backup-1" + BackupFormat.CHUNKED.getExtension()), restored, 2, null);
+        assertArrayEquals(regions[1], Files.readAllBytes(new File(restored, "0.0.region.bin").toPath()));
+    }
+
+    /**
+     * A manifest adopted from the backup folder is not trusted: a file or directory path
+     * that climbs out of the restore folder fails the restore before anything is written.
+     */
+    @Test
+    public void testRestoreRejectsPathsOutsideDestination() throws IOException {
+        ChunkStore store = new ChunkStore(new File(tempDir, "chunks"));
+        File dest = new File(tempDir, "restore/temp-restore");
+        File fileManifest = new File(tempDir, "file.chunks.json");
+        Files.writeString(fileManifest.toPath(), "{\"version\":1,\"directories\":[],"
+                + "\"files\":[{\"path\":\"../../escaped.txt\",\"size\":0,\"lastModified\":0,\"chunks\":[]}]}");
+        File directoryManifest = new File(tempDir, "dir.chunks.json");
+        Files.writeString(directoryManifest.toPath(), "{\"version\":1,\"directories\":[\"../escaped-dir\"],\"files\":[]}");
+
+        assertThrows(IOException.class, () -> store.restore(fileManifest, dest, 2, null));
+        assertThrows(IOException.class, () -> store.restorePath(fileManifest, "../../escaped.txt", dest, 2, null));
+        assertThrows(IOException.class, () -> store.restore(directoryManifest, dest, 2, null));
+        assertFalse(new File(tempDir, "escaped.txt").exists());
+        assertFalse(new File(tempDir, "restore/escaped-dir").exists());
+    }
+
+    private long countChunks() throws IOException {
+        try (Stream<Path> files = Files.walk(new File(tempDir, "chunks").toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static List<String> chunks(byte[] data) {
+        List<String> chunks = new ArrayList<>();
+        int offset = 0;
+        while (offset < data.length) {
+            int length = ChunkStore.cutPoint(data, offset, data.length - offset);
+            chunks.add(Arrays.hashCode(Arrays.copyOfRange(data, offset, offset + length)) + ":" + length);
+            offset += length;
+        }
+        return chunks;
+    }
+}
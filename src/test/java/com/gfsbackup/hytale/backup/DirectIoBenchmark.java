@@ -0,0 +1,146 @@
+package com.gfsbackup.hytale.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures what a backup does to the game server's read latency, with and without direct
+ * I/O. A "game" thread keeps reading random 4 KB pages from a warm file while a zip of a
+ * synthetic world is written, and for a few seconds afterwards, when evicted pages would
+ * have to come back from disk.
+ *
+ * Not a unit test. Run it on the disk the server uses, with a world larger than the free
+ * page cache (or inside a memory-limited cgroup), otherwise nothing gets evicted:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     com.gfsbackup.hytale.backup.DirectIoBenchmark /mnt/game/bench 4096 256
+ * </pre>
+ * Arguments: work directory, world size in MB, hot set size in MB.
+ */
+public class DirectIoBenchmark {
+    private static final int PAGE = 4096;
+    private static final long AFTER_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        File workDir = new File(args.length > 0 ? args[0] : "direct-io-bench");
+        int worldMb = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int hotMb = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+
+        File world = new File(workDir, "universe");
+        File hot = new File(workDir, "hot.bin");
+        createWorld(world, worldMb);
+        writeRandom(hot, hotMb * 1024L * 1024L, 1);
+
+        System.out.printf("World %d MB, hot set %d MB%n", worldMb, hotMb);
+        System.out.printf("%-9s %10s %10s %10s %10s %10s %10s%n",
+                "mode", "during p50", "p99", "max", "after p50", "p99", "max");
+        for (boolean direct : new boolean[]{false, true}) {
+            run(world, hot, new File(workDir, "bench.zip"), direct);
+        }
+    }
+
+    private static void run(File world, File hot, File zip, boolean direct) throws Exception {
+        readAll(hot);
+        DirectIo.setEnabled(direct);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[][] samples = new long[1][];
+        Thread game = new Thread(() -> samples[0] = sampleLatency(hot, running), "game-reader");
+        game.start();
+        ZipUtility.createZip(world, zip, 0);
+        running.set(false);
+        game.join();
+        long[] during = samples[0];
+
+        // Eviction shows up after the backup, once the game touches its pages again
+        running.set(true);
+        Thread after = new Thread(() -> samples[0] = sampleLatency(hot, running), "game-reader");
+        after.start();
+        Thread.sleep(AFTER_MILLIS);
+        running.set(false);
+        after.join();
+
+        System.out.printf("%-9s %10s %10s %10s %10s %10s %10s%n", direct ? "direct" : "buffered",
+                micros(during, 0.50), micros(during, 0.99), micros(during, 1.0),
+                micros(samples[0], 0.50), micros(samples[0], 0.99), micros(samples[0], 1.0));
+        DirectIo.setEnabled(false);
+        zip.delete();
+    }
+
+    private static long[] sampleLatency(File hot, AtomicBoolean running) {
+        long[] latencies = new long[1 << 20];
+        int count = 0;
+        ByteBuffer page = ByteBuffer.allocate(PAGE);
+        try (FileChannel channel = FileChannel.open(hot.toPath(), StandardOpenOption.READ)) {
+            long pages = channel.size() / PAGE;
+            while (running.get() && count < latencies.length) {
+                long position = ThreadLocalRandom.current().nextLong(pages) * PAGE;
+                page.clear();
+                long start = System.nanoTime();
+                channel.read(page, position);
+                latencies[count++] = System.nanoTime() - start;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        long[] result = Arrays.copyOf(latencies, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static String micros(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.round(quantile * (sorted.length - 1)));
+        return String.format("%.1f us", sorted[index] / 1000.0);
+    }
+
+    private static void createWorld(File world, int worldMb) throws IOException {
+        File chunks = new File(world, "chunks");
+        chunks.mkdirs();
+        int regionMb = 8;
+        for (int i = 0; i < Math.max(1, worldMb / regionMb); i++) {
+            File region = new File(chunks, i + ".region.bin");
+            if (!region.exists()) {
+                writeRandom(region, regionMb * 1024L * 1024L, i + 100);
+            }
+        }
+    }
+
+    private static void writeRandom(File file, long size, long seed) throws IOException {
+        if (file.length() == size) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        Random random = new Random(seed);
+        byte[] block = new byte[1024 * 1024];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; written += block.length) {
+                // Half random, half zeros: compresses about 2:1 like real region data
+                random.nextBytes(block);
+                Arrays.fill(block, block.length / 2, block.length, (byte) 0);
+                channel.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written)));
+            }
+        }
+    }
+
+    private static void readAll(File file) throws IOException {
+        byte[] buffer = new byte[1024 * 1024];
+        try (var in = Files.newInputStream(file.toPath())) {
+            while (in.read(buffer) >= 0) {
+                // Pull the hot set into the page cache
+            }
+        }
+    }
+}
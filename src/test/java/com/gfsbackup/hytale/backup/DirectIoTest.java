@@ -0,0 +1,78 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectIoTest {
+
+    @TempDir
+    File tempDir;
+
+    @AfterEach
+    public void disable() {
+        DirectIo.setEnabled(false);
+    }
+
+    /**
+     * Writes of a size that is not a multiple of the block size must come back at their
+     * exact length, and reads at unaligned offsets must return the same bytes as buffered
+     * reads, whether or not the filesystem supports direct I/O.
+     */
+    @Test
+    public void testUnalignedWritesAndReadsRoundTrip() throws IOException {
+        byte[] data = new byte[DirectIo.BUFFER_SIZE * 2 + 12345];
+        new Random(11).nextBytes(data);
+        File file = new File(tempDir, "data.bin");
+
+        DirectIo.setEnabled(true);
+        try (OutputStream out = DirectIo.newOutputStream(file)) {
+            out.write(data, 0, 100);
+            out.write(data, 100, data.length - 100);
+        }
+        assertEquals(data.length, file.length());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(data, DirectIo.readAll(file.toPath()));
+
+        byte[] slice = new byte[DirectIo.BUFFER_SIZE + 777];
+        int read = DirectIo.read(file.toPath(), 4097, slice, slice.length);
+        assertEquals(slice.length, read);
+        assertArrayEquals(Arrays.copyOfRange(data, 4097, 4097 + slice.length), slice);
+
+        byte[] tail = new byte[5000];
+        read = DirectIo.read(file.toPath(), data.length - 1000, tail, tail.length);
+        assertEquals(1000, read);
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 1000, data.length), Arrays.copyOf(tail, 1000));
+    }
+
+    /**
+     * A zip written and read with direct I/O on must extract byte-for-byte.
+     */
+    @Test
+    public void testZipRoundTripWithDirectIo() throws IOException {
+        File source = new File(tempDir, "universe");
+        new File(source, "chunks").mkdirs();
+        byte[] region = new byte[ParallelZipWriter.SLICE_SIZE * 3 + 999];
+        new Random(5).nextBytes(region);
+        Files.write(new File(source, "chunks/0.0.region.bin").toPath(), region);
+        Files.writeString(new File(source, "config.json").toPath(), "{\"seed\": 7}");
+
+        DirectIo.setEnabled(true);
+        File zip = new File(tempDir, "backup.zip");
+        ZipUtility.createZip(source, zip, 2);
+        File restored = new File(tempDir, "restored");
+        ZipUtility.extractZip(zip, restored);
+
+        assertArrayEquals(region, Files.readAllBytes(new File(restored, "chunks/0.0.region.bin").toPath()));
+        assertEquals("{\"seed\": 7}", Files.readString(new File(restored, "config.json").toPath()));
+    }
+}
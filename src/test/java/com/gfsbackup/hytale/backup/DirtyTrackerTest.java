@@ -0,0 +1,107 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirtyTrackerTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * The first take has no baseline and returns null. After that, writes, new files in a
+     * directory created since, and deletes are all reported, and peeking leaves them for
+     * the next take.
+     */
+    @Test
+    public void testTracksWritesNewDirectoriesAndDeletes() throws Exception {
+        File world = new File(tempDir, "world");
+        File chunks = new File(world, "chunks");
+        assertTrue(chunks.mkdirs());
+        Files.writeString(new File(chunks, "0.0.region.bin").toPath(), "a");
+        Files.writeString(new File(world, "config.json").toPath(), "{}");
+
+        try (DirtyTracker tracker = new DirtyTracker(world)) {
+            tracker.start();
+            assertNull(tracker.take(), "Nothing was tracked before the first take");
+
+            Files.writeString(new File(chunks, "0.0.region.bin").toPath(), "b");
+            assertTrue(await(tracker, "chunks/0.0.region.bin").contains("chunks/0.0.region.bin"));
+
+            // A new directory is watched from then on, and what landed in it first is reported
+            File players = new File(world, "players");
+            assertTrue(players.mkdir());
+            Files.writeString(new File(players, "early.json").toPath(), "{}");
+            Set<String> created = await(tracker, "players/early.json");
+            assertTrue(created.contains("players"));
+            assertTrue(created.contains("players/early.json"));
+            Files.writeString(new File(players, "late.json").toPath(), "{}");
+            assertTrue(await(tracker, "players/late.json").contains("players/late.json"));
+
+            Files.delete(new File(world, "config.json").toPath());
+            waitUntilPeeked(tracker, "config.json");
+            assertTrue(tracker.peek().contains("config.json"));
+            assertTrue(tracker.take().contains("config.json"), "Peeking must not consume the set");
+        }
+    }
+
+    /**
+     * After events were dropped, the next take returns null so the caller rescans, and
+     * tracking is trusted again from then on.
+     */
+    @Test
+    public void testTakeAfterOverflowIsNull() throws Exception {
+        File world = new File(tempDir, "world");
+        assertTrue(world.mkdirs());
+
+        try (DirtyTracker tracker = new DirtyTracker(world)) {
+            tracker.start();
+            assertNull(tracker.take());
+            assertEquals(Set.of(), tracker.take());
+
+            tracker.overflowed();
+            assertNull(tracker.peek());
+            assertNull(tracker.take());
+
+            Files.writeString(new File(world, "after.json").toPath(), "{}");
+            assertTrue(await(tracker, "after.json").contains("after.json"));
+        }
+    }
+
+    /**
+     * Takes until {@code path} shows up, returning everything taken meanwhile.
+     */
+    private static Set<String> await(DirtyTracker tracker, String path) throws InterruptedException {
+        Set<String> seen = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Set<String> taken = tracker.take();
+            assertNotNull(taken, "Tracking was lost");
+            seen.addAll(taken);
+            if (seen.contains(path)) {
+                return seen;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError(path + " was never reported, saw " + seen);
+    }
+
+    private static void waitUntilPeeked(DirtyTracker tracker, String path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Set<String> peeked = tracker.peek();
+            if (peeked != null && peeked.contains(path)) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError(path + " was never reported");
+    }
+}
@@ -0,0 +1,261 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.retention.ArchiveLocks;
+import com.gfsbackup.hytale.retention.BackupIndex;
+import com.gfsbackup.hytale.retention.ReclaimQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalBackupTest {
+
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * A full backup followed by two incrementals, with files modified, added and deleted in
+     * between. Each child archive holds only what changed, yet restoring, restoring a
+     * subtree and exporting any backup in the chain gives back exactly the world as it was.
+     */
+    @Test
+    public void testChainRoundTrip() throws Exception {
+        File world = new File(tempDir, "world");
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        byte[] region = new byte[ParallelZipWriter.SLICE_SIZE * 2 + 77];
+        new Random(4).nextBytes(region);
+        write(world, "chunks/0.0.region.bin", region, 1);
+        write(world, "players/a.json", "{\"hp\": 20}".getBytes(), 1);
+        write(world, "players/b.json", "{\"hp\": 10}".getBytes(), 1);
+        write(world, "config.json", "{\"seed\": 1}".getBytes(), 1);
+        new File(world, "empty").mkdirs();
+        IncrementalBackup incremental = new IncrementalBackup(backups);
+
+        incremental.create(world, new File(backups, "full.zip"), null, 2, CompressionPolicy.DEFAULT);
+        Map<String, byte[]> fullState = tree(world);
+
+        // Same size, newer mtime: must be seen as modified
+        write(world, "players/a.json", "{\"hp\": 19}".getBytes(), 2);
+        write(world, "players/c.json", "{\"hp\": 5}".getBytes(), 2);
+        Files.delete(new File(world, "players/b.json").toPath());
+        incremental.create(world, new File(backups, "inc1.zip"), "full.zip", 2, CompressionPolicy.DEFAULT);
+        Map<String, byte[]> inc1State = tree(world);
+        assertEquals(Set.of("players/a.json", "players/c.json"), fileEntries(new File(backups, "inc1.zip")));
+
+        write(world, "config.json", "{\"seed\": 1, \"pvp\": true}".getBytes(), 3);
+        incremental.create(world, new File(backups, "inc2.zip"), "inc1.zip", 2, CompressionPolicy.DEFAULT);
+        Map<String, byte[]> inc2State = tree(world);
+        assertEquals(Set.of("config.json"), fileEntries(new File(backups, "inc2.zip")));
+
+        assertTreeEquals(fullState, restore(incremental, "full.zip", "full"));
+        assertTreeEquals(inc1State, restore(incremental, "inc1.zip", "inc1"));
+        File restored = new File(tempDir, "inc2");
+        ExtractionProgress progress = new ExtractionProgress();
+        incremental.restore("inc2.zip", restored, 2, progress);
+        assertTreeEquals(inc2State, tree(restored));
+        assertTrue(progress.isFinished());
+        assertTrue(new File(restored, "empty").isDirectory());
+        assertFalse(new File(restored, "players/b.json").exists(), "Deleted files must stay deleted");
+        assertEquals(BASE_TIME + 3000, new File(restored, "config.json").lastModified(), "Exact mtime comes from the manifest");
+
+        // A subtree spans archives: a.json and c.json from inc1, nothing from full
+        File players = new File(tempDir, "players-only");
+        assertEquals(2, incremental.restorePath("inc2.zip", "players", players, 2, null));
+        assertEquals(Set.of("players/a.json", "players/c.json"), tree(players).keySet());
+        assertEquals("{\"hp\": 19}", Files.readString(new File(players, "players/a.json").toPath()));
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        incremental.exportZip("inc2.zip", exported);
+        Map<String, byte[]> exportedState = new TreeMap<>();
+        Set<String> exportedDirectories = new TreeSet<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(exported.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    exportedDirectories.add(entry.getName());
+                } else {
+                    exportedState.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        assertTreeEquals(inc2State, exportedState);
+        assertTrue(exportedDirectories.contains("empty/"), "A download must keep the empty directories a restore recreates");
+    }
+
+    /**
+     * Directory entries of the newest archive are resolved like file entries: one that
+     * climbs out of the restore folder fails the restore and creates nothing outside it.
+     */
+    @Test
+    public void testRestoreRejectsDirectoriesOutsideDestination() throws Exception {
+        File world = new File(tempDir, "world");
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        write(world, "config.json", "{\"seed\": 1}".getBytes(), 1);
+        IncrementalBackup incremental = new IncrementalBackup(backups);
+        File full = new File(backups, "full.zip");
+        incremental.create(world, full, null, 2, CompressionPolicy.DEFAULT);
+
+        // Same files, plus a directory entry a tampered archive could carry
+        File tampered = new File(tempDir, "tampered.zip");
+        try (ZipFile zip = new ZipFile(full);
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tampered))) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                zip.getInputStream(entry).transferTo(out);
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("../../escaped/"));
+            out.closeEntry();
+        }
+        Files.move(tampered.toPath(), full.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        File dest = new File(tempDir, "restore/temp-restore");
+        assertThrows(IOException.class, () -> incremental.restore("full.zip", dest, 2, null));
+        assertFalse(new File(tempDir, "escaped").exists());
+    }
+
+    /**
+     * With a tracked change set only the listed paths are looked at: a listed file that is
+     * gone drops out, and an unlisted file keeps the parent's copy even if it changed.
+     */
+    @Test
+    public void testTrackedChangeSet() throws Exception {
+        File world = new File(tempDir, "world");
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        write(world, "players/a.json", "a1".getBytes(), 1);
+        write(world, "players/b.json", "b1".getBytes(), 1);
+        write(world, "players/c.json", "c1".getBytes(), 1);
+        IncrementalBackup incremental = new IncrementalBackup(backups);
+        incremental.create(world, new File(backups, "full.zip"), null, 2, CompressionPolicy.DEFAULT);
+
+        write(world, "players/a.json", "a2".getBytes(), 2);
+        write(world, "players/c.json", "c2".getBytes(), 2);
+        Files.delete(new File(world, "players/b.json").toPath());
+        incremental.create(world, new File(backups, "inc.zip"), "full.zip", 2, CompressionPolicy.DEFAULT,
+                Set.of("players/a.json", "players/b.json"), List.of("players"));
+        assertEquals(Set.of("players/a.json"), fileEntries(new File(backups, "inc.zip")));
+
+        Map<String, byte[]> restored = restore(incremental, "inc.zip", "restored");
+        assertEquals(Set.of("players/a.json", "players/c.json"), restored.keySet());
+        assertEquals("a2", new String(restored.get("players/a.json")));
+        assertEquals("c1", new String(restored.get("players/c.json")), "Unlisted files come from the parent");
+    }
+
+    /**
+     * Once nothing reads from a chain any more, its archives are handed to the reclaim
+     * queue rather than unlinked on the spot: they stay pending across a restart, an
+     * archive being read survives the pass, and each deletion also drops its manifest.
+     */
+    @Test
+    public void testReleasedChainArchivesAreReclaimed() throws Exception {
+        File world = new File(tempDir, "world");
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        write(world, "config.json", "{\"seed\": 1}".getBytes(), 1);
+        IncrementalBackup incremental = new IncrementalBackup(backups);
+        incremental.create(world, new File(backups, "full.zip"), null, 2, CompressionPolicy.DEFAULT);
+        write(world, "config.json", "{\"seed\": 2}".getBytes(), 2);
+        incremental.create(world, new File(backups, "inc1.zip"), "full.zip", 2, CompressionPolicy.DEFAULT);
+
+        assertTrue(incremental.collectOrphans(Set.of("full.zip", "inc1.zip")).isEmpty());
+        Map<String, Long> released = incremental.collectOrphans(Set.of());
+        assertEquals(Map.of("full.zip", new File(backups, "full.zip").length(),
+                "inc1.zip", new File(backups, "inc1.zip").length()), released);
+        assertTrue(new File(backups, "full.zip").exists(), "Finding orphans must not delete them");
+
+        File indexFile = new File(backups, "backup-index.json");
+        BackupIndex index = new BackupIndex(indexFile);
+        index.load();
+        released.forEach(index::retireArchive);
+        index.save();
+        BackupIndex reloaded = new BackupIndex(indexFile);
+        reloaded.load();
+        assertEquals(released, reloaded.getPendingDeletions());
+
+        ArchiveLocks locks = new ArchiveLocks();
+        ReclaimQueue queue = new ReclaimQueue(reloaded, backups, locks, Runnable::run);
+        queue.setListener(batch -> batch.forEach(incremental::deleteManifest));
+        try (ArchiveLocks.Hold restore = locks.tryRead("full.zip")) {
+            queue.reclaimNow();
+        }
+        assertTrue(new File(backups, "full.zip").exists(), "An archive in use must not be deleted");
+        assertTrue(incremental.hasManifest("full.zip"));
+        assertFalse(new File(backups, "inc1.zip").exists());
+        assertFalse(incremental.hasManifest("inc1.zip"));
+
+        queue.reclaimNow();
+        assertFalse(new File(backups, "full.zip").exists());
+        assertFalse(incremental.hasManifest("full.zip"));
+        assertEquals(released.values().stream().mapToLong(Long::longValue).sum(),
+                queue.metrics().get("totalReclaimedBytes"));
+        assertTrue(reloaded.getPendingDeletions().isEmpty());
+    }
+
+    private Map<String, byte[]> restore(IncrementalBackup incremental, String filename, String into) throws IOException {
+        File dest = new File(tempDir, into);
+        incremental.restore(filename, dest, 2, null);
+        return tree(dest);
+    }
+
+    private static void write(File root, String name, byte[] data, int version) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+        assertTrue(file.setLastModified(BASE_TIME + version * 1000L));
+    }
+
+    private static Set<String> fileEntries(File zip) throws IOException {
+        Set<String> names = new TreeSet<>();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            zipFile.stream().filter(e -> !e.isDirectory()).forEach(e -> names.add(e.getName()));
+        }
+        return names;
+    }
+
+    private static Map<String, byte[]> tree(File root) throws IOException {
+        Map<String, byte[]> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(root.toPath().relativize(path).toString().replace(File.separatorChar, '/'),
+                            Files.readAllBytes(path));
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void assertTreeEquals(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+            assertTrue(Arrays.equals(file.getValue(), actual.get(file.getKey())), file.getKey() + " differs");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupFormat;
+import com.gfsbackup.hytale.retention.BackupIndex;
+import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.gfsbackup.hytale.retention.BackupTier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexReconcilerTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * Archives a crash left unindexed are adopted once they pass the completeness check,
+     * cut-off ones are not, and indexed backups whose file is gone are marked missing
+     * until it comes back.
+     */
+    @Test
+    public void testAdoptsOrphansAndMarksMissing() throws Exception {
+        File world = createWorld();
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        ChunkStore chunkStore = new ChunkStore(new File(backups, "chunks"));
+
+        BackupIndex index = new BackupIndex(new File(backups, "backup-index.json"));
+        index.load();
+        ZipUtility.createZip(world, new File(backups, "2026-01-01_00-00-00.zip"));
+        index.addBackup(new BackupMetadata("2026-01-01_00-00-00.zip", BackupTier.SON, 1000, 100, "c0"));
+        index.addBackup(new BackupMetadata("2026-01-01_01-00-00.zip", BackupTier.SON, 2000, 100, "c1"));
+        index.save();
+
+        ZipUtility.createZip(world, new File(backups, "2026-01-02_03-04-05.zip"));
+        Files.write(new File(backups, "2026-01-02_04-00-00.zip").toPath(), new byte[4096]);
+        chunkStore.store(world, new File(backups, "2026-01-02_05-00-00.chunks.json"), 2);
+        ArchiveResult snapshot = new SnapshotStore().create(world, new File(backups, "2026-01-02_06-00-00.snapshot"), null, 2);
+        // A conversion of the first backup that was cut off before the index moved over
+        Files.write(new File(backups, "2026-01-01_00-00-00.tar.zst").toPath(), new byte[100]);
+
+        IndexReconciler reconciler = new IndexReconciler(backups, index, chunkStore, new IncrementalBackup(backups), 2);
+        IndexReconciler.Result result = reconciler.reconcile();
+
+        assertEquals(3, result.getAdopted());
+        assertEquals(1, result.getMissing());
+        assertEquals(3, result.getUnverified().size());
+        assertTrue(index.getBackupByFilename("2026-01-01_01-00-00.zip").isMissing());
+        assertFalse(index.getBackupByFilename("2026-01-01_00-00-00.zip").isMissing());
+        assertNull(index.getBackupByFilename("2026-01-02_04-00-00.zip"), "A cut-off zip must not be adopted");
+        assertFalse(new File(backups, "2026-01-01_00-00-00.tar.zst").exists());
+
+        BackupMetadata zip = index.getBackupByFilename("2026-01-02_03-04-05.zip");
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").parse("2026-01-02_03-04-05").getTime(), zip.getCreatedAt());
+        assertNull(zip.getChecksum());
+        assertEquals(ZipUtility.calculateChecksum(new File(backups, zip.getFilename())), reconciler.verify(zip).getChecksum());
+
+        BackupMetadata adoptedSnapshot = index.getBackupByFilename("2026-01-02_06-00-00.snapshot");
+        assertEquals(BackupFormat.SNAPSHOT, adoptedSnapshot.getFormat());
+        IndexReconciler.Verified verified = reconciler.verify(adoptedSnapshot);
+        assertNull(verified.getChecksum(), "A listing hash must not pass for a content checksum");
+        assertEquals(snapshot.getListingChecksum(), verified.getListingChecksum());
+        assertEquals(snapshot.getUncompressedBytes(), verified.getSizeBytes());
+        assertEquals(BackupFormat.CHUNKED, index.getBackupByFilename("2026-01-02_05-00-00.chunks.json").getFormat());
+
+        // The flag survives a restart, and clears once the file is put back
+        BackupIndex reloaded = new BackupIndex(new File(backups, "backup-index.json"));
+        reloaded.load();
+        assertEquals(5, reloaded.getTotalBackups());
+        assertTrue(reloaded.getBackupByFilename("2026-01-01_01-00-00.zip").isMissing());
+        ZipUtility.createZip(world, new File(backups, "2026-01-01_01-00-00.zip"));
+        IndexReconciler.Result again = new IndexReconciler(backups, reloaded, chunkStore, new IncrementalBackup(backups), 2).reconcile();
+        assertEquals(1, again.getFound());
+        assertEquals(0, again.getAdopted());
+        assertFalse(reloaded.getBackupByFilename("2026-01-01_01-00-00.zip").isMissing());
+    }
+
+    /**
+     * Leftovers that failed the check are not opened again on the next start unless the
+     * file changed, which is what keeps restarts over a large backup folder fast.
+     */
+    @Test
+    public void testCachedVerdictsSkipRechecks() throws Exception {
+        File backups = new File(tempDir, "backups");
+        backups.mkdirs();
+        for (int i = 0; i < 200; i++) {
+            Files.write(new File(backups, String.format("leftover-%03d.zip", i)).toPath(), new byte[2048]);
+        }
+        ChunkStore chunkStore = new ChunkStore(new File(backups, "chunks"));
+
+        IndexReconciler.Result first = reconcile(backups, chunkStore);
+        assertEquals(200, first.getChecked());
+        assertEquals(0, first.getAdopted());
+
+        IndexReconciler.Result second = reconcile(backups, chunkStore);
+        assertEquals(0, second.getChecked());
+
+        File changed = new File(backups, "leftover-007.zip");
+        ZipUtility.createZip(createWorld(), changed);
+        IndexReconciler.Result third = reconcile(backups, chunkStore);
+        assertEquals(1, third.getChecked());
+        assertEquals(1, third.getAdopted());
+    }
+
+    private IndexReconciler.Result reconcile(File backups, ChunkStore chunkStore) throws IOException {
+        BackupIndex index = new BackupIndex(new File(backups, "backup-index.json"));
+        index.load();
+        return new IndexReconciler(backups, index, chunkStore, new IncrementalBackup(backups), 2).reconcile();
+    }
+
+    private File createWorld() throws IOException {
+        File world = new File(tempDir, "world");
+        File chunks = new File(world, "chunks");
+        chunks.mkdirs();
+        Files.writeString(new File(chunks, "0.region.bin").toPath(), "region data ".repeat(200));
+        Files.writeString(new File(world, "config.json").toPath(), "{}");
+        return world;
+    }
+}
@@ -0,0 +1,105 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IoThrottleTest {
+
+    @AfterEach
+    public void unlimit() {
+        IoThrottle.READ.configure(0, true);
+        IoThrottle.WRITE.configure(0, true);
+        IoThrottle.OPS.configure(0, true);
+    }
+
+    /**
+     * Without idle burst, 2 MB through a 4 MB/s bucket must take about half a second and
+     * show up in the throttling metrics.
+     */
+    @Test
+    public void testPacesTransfersAndReportsThrottling() throws IOException {
+        IoThrottle.READ.configure(4, false);
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            IoThrottle.READ.acquire(256 * 1024);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis >= 400, "Took only " + elapsedMillis + " ms");
+        Map<String, Object> metrics = IoThrottle.READ.toMap();
+        assertTrue((Long) metrics.get("throttledMillis") >= 400);
+        assertTrue((Long) metrics.get("throttleEvents") > 0);
+    }
+
+    /**
+     * Small requests that never touch the byte limits are still paced by the operations
+     * bucket: 11 writes at 20 per second take about half a second.
+     */
+    @Test
+    public void testLimitsOperationsPerSecond() throws IOException {
+        IoThrottle.OPS.configure(20, false);
+        long before = (Long) IoThrottle.OPS.toMap().get("operations");
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            IoThrottle.WRITE.acquire(512);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis >= 400, "Took only " + elapsedMillis + " ms");
+        Map<String, Object> metrics = IoThrottle.metrics();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> ops = (Map<String, Object>) metrics.get("ops");
+        assertEquals(11L, (Long) ops.get("operations") - before);
+        assertEquals(20.0, (Double) ops.get("limitPerSecond"), 0.001);
+        assertTrue((Long) ops.get("throttleEvents") > 0);
+    }
+
+    /**
+     * A limit only slows the threads inside its scope, and threads they start: 1 MB at
+     * 4 MB/s takes about a quarter of a second there, while the same reads on a thread
+     * outside the scope run at the unlimited shared rate.
+     */
+    @Test
+    public void testLimitOnlyAppliesInsideItsScope() throws Exception {
+        IoThrottle.Limit limit = new IoThrottle.Limit(4, false);
+        Thread outside = new Thread(IoThrottleTest::readOneMegabyte);
+        long insideMillis;
+        long outsideMillis;
+        try (IoThrottle.Scope scope = IoThrottle.limit(limit)) {
+            long start = System.nanoTime();
+            Thread worker = new Thread(IoThrottleTest::readOneMegabyte);
+            worker.start();
+            worker.join();
+            insideMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Created before the scope opened, like another operation's thread
+            start = System.nanoTime();
+            outside.start();
+            outside.join();
+            outsideMillis = (System.nanoTime() - start) / 1_000_000;
+        }
+
+        assertTrue(insideMillis >= 150, "Inherited limit took only " + insideMillis + " ms");
+        assertTrue(outsideMillis < 100, "Reads outside the scope were slowed: " + outsideMillis + " ms");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> read = (Map<String, Object>) limit.toMap().get("read");
+        assertEquals(1024L * 1024, read.get("bytes"));
+        assertEquals(0.0, (Double) IoThrottle.READ.toMap().get("limitMBps"), 0.001);
+    }
+
+    private static void readOneMegabyte() {
+        try {
+            for (int i = 0; i < 4; i++) {
+                IoThrottle.READ.acquire(256 * 1024);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SaveWaiterTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * An idle world settles after one window; a world that keeps being written for a while
+     * is waited out, with both polling and a watch.
+     */
+    @Test
+    public void testWaitsUntilWritesStop() throws Exception {
+        File world = createWorld();
+        assertWaitsForWriter(world, new SaveWaiter(world, null, 2));
+
+        try (DirtyTracker tracker = new DirtyTracker(world)) {
+            tracker.start();
+            assertWaitsForWriter(world, new SaveWaiter(world, tracker, 2));
+        }
+    }
+
+    /**
+     * A world that never goes quiet must not stall the backup past the hard timeout.
+     */
+    @Test
+    public void testGivesUpAtTimeout() throws Exception {
+        File world = createWorld();
+        Thread writer = startWriter(world, 60_000);
+        try {
+            long waited = new SaveWaiter(world, null, 2).awaitQuiet(300, 800);
+            assertTrue(waited >= 800 && waited < 5000, "waited " + waited + " ms");
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+
+    private void assertWaitsForWriter(File world, SaveWaiter waiter) throws Exception {
+        long idle = waiter.awaitQuiet(200, 10_000);
+        assertTrue(idle >= 200 && idle < 2000, "idle world waited " + idle + " ms");
+
+        Thread writer = startWriter(world, 800);
+        long busy = waiter.awaitQuiet(200, 10_000);
+        writer.join();
+        assertTrue(busy >= 900 && busy < 5000, "busy world waited " + busy + " ms");
+    }
+
+    private File createWorld() throws IOException {
+        File chunks = new File(tempDir, "universe/worlds/default/chunks");
+        chunks.mkdirs();
+        Files.writeString(new File(chunks, "0.region.bin").toPath(), "region");
+        return new File(tempDir, "universe");
+    }
+
+    /**
+     * Appends to a region file every 50 ms for {@code millis}, the way a save trickles out.
+     */
+    private Thread startWriter(File world, long millis) {
+        File region = new File(world, "worlds/default/chunks/0.region.bin");
+        Thread writer = new Thread(() -> {
+            long end = System.currentTimeMillis() + millis;
+            try {
+                while (System.currentTimeMillis() < end) {
+                    Files.writeString(region.toPath(), "chunk\n", StandardOpenOption.APPEND);
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Stopped by the test
+            }
+        });
+        writer.start();
+        return writer;
+    }
+}
@@ -0,0 +1,73 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotStoreTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * The second snapshot should hard-link the untouched region and copy only the changed
+     * one. Deleting the first snapshot must leave the second complete.
+     */
+    @Test
+    public void testUnchangedFilesAreLinkedAndSurviveSiblingDeletion() throws Exception {
+        File world = new File(tempDir, "universe");
+        new File(world, "chunks").mkdirs();
+        File still = new File(world, "chunks/0.0.region.bin");
+        File busy = new File(world, "chunks/1.0.region.bin");
+        Files.write(still.toPath(), new byte[64 * 1024]);
+        Files.writeString(busy.toPath(), "before");
+
+        SnapshotStore store = new SnapshotStore();
+        File first = new File(tempDir, "first.snapshot");
+        store.create(world, first, null, 2);
+
+        Files.writeString(busy.toPath(), "after!");
+        Files.setLastModifiedTime(busy.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        File second = new File(tempDir, "second.snapshot");
+        ArchiveResult result = store.create(world, second, first, 2);
+
+        assertEquals(6, result.getCompressedBytes(), "Only the changed file should be copied");
+        Object firstKey = Files.readAttributes(new File(first, "chunks/0.0.region.bin").toPath(), BasicFileAttributes.class).fileKey();
+        Object secondKey = Files.readAttributes(new File(second, "chunks/0.0.region.bin").toPath(), BasicFileAttributes.class).fileKey();
+        if (firstKey != null) {
+            assertEquals(firstKey, secondKey, "Unchanged file should be a hard link to the previous snapshot");
+        }
+
+        SnapshotStore.delete(first);
+        assertFalse(first.exists());
+        assertEquals(64 * 1024, new File(second, "chunks/0.0.region.bin").length());
+        assertEquals("after!", Files.readString(new File(second, "chunks/1.0.region.bin").toPath()));
+
+        File restored = new File(tempDir, "restored");
+        store.restore(second, restored, 2, null);
+        assertEquals("after!", Files.readString(new File(restored, "chunks/1.0.region.bin").toPath()));
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        store.exportZip(second, zip, 2);
+        int files = 0;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    files++;
+                }
+            }
+        }
+        assertEquals(2, files);
+    }
+}
@@ -0,0 +1,78 @@
+package com.gfsbackup.hytale.backup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldFingerprintTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * The fingerprint must be stable for an untouched world and change when a file is
+     * touched, resized, added or when an empty directory appears.
+     */
+    @Test
+    public void testFingerprintTracksMetadataChanges() throws IOException {
+        File world = new File(tempDir, "universe");
+        for (int i = 0; i < 20; i++) {
+            File dir = new File(world, "worlds/default/chunks/" + i);
+            dir.mkdirs();
+            Files.writeString(new File(dir, "region.bin").toPath(), "region " + i);
+        }
+        File level = new File(world, "level.json");
+        Files.writeString(level.toPath(), "{}");
+
+        String first = WorldFingerprint.compute(world, 4);
+        assertEquals(first, WorldFingerprint.compute(world, 1));
+
+        Files.setLastModifiedTime(level.toPath(), FileTime.fromMillis(level.lastModified() + 5000));
+        String touched = WorldFingerprint.compute(world, 4);
+        assertNotEquals(first, touched);
+
+        Files.writeString(level.toPath(), "{\"x\": 1}");
+        Files.setLastModifiedTime(level.toPath(), FileTime.fromMillis(level.lastModified()));
+        assertNotEquals(touched, WorldFingerprint.compute(world, 4));
+
+        String beforeDir = WorldFingerprint.compute(world, 4);
+        new File(world, "empty").mkdirs();
+        assertNotEquals(beforeDir, WorldFingerprint.compute(world, 4));
+    }
+
+    /**
+     * Updating the kept listing from a set of dirty paths must land on the same fingerprint
+     * as a fresh walk and report exactly the files that changed, including everything under
+     * a deleted directory.
+     */
+    @Test
+    public void testUpdateFromDirtyPathsMatchesFullScan() throws IOException {
+        File world = new File(tempDir, "universe");
+        new File(world, "chunks/a").mkdirs();
+        new File(world, "chunks/b").mkdirs();
+        Files.writeString(new File(world, "chunks/a/0.bin").toPath(), "zero");
+        Files.writeString(new File(world, "chunks/b/1.bin").toPath(), "one");
+        Files.writeString(new File(world, "chunks/b/2.bin").toPath(), "two");
+
+        WorldFingerprint state = WorldFingerprint.scan(world, 2);
+
+        Files.writeString(new File(world, "chunks/a/0.bin").toPath(), "zero, longer");
+        Files.writeString(new File(world, "chunks/a/new.bin").toPath(), "new");
+        Files.delete(new File(world, "chunks/b/1.bin").toPath());
+        Files.delete(new File(world, "chunks/b/2.bin").toPath());
+        Files.delete(new File(world, "chunks/b").toPath());
+
+        Set<String> changed = state.update(List.of("chunks/a/0.bin", "chunks/a/new.bin", "chunks/b"));
+        assertEquals(Set.of("chunks/a/0.bin", "chunks/a/new.bin", "chunks/b/1.bin", "chunks/b/2.bin"), changed);
+        assertEquals(WorldFingerprint.compute(world, 2), state.digest());
+        assertEquals(List.of("chunks", "chunks/a"), state.directories());
+    }
+}
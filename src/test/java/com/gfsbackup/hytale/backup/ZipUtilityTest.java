@@ -0,0 +1,147 @@
+package com.gfsbackup.hytale.backup;
+
+import com.gfsbackup.hytale.config.BackupConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipUtilityTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * A world with small files, an empty file and a region file big enough to be split
+     * into several slices must come back byte-for-byte, through both the central
+     * directory (ZipFile, as extractZip uses) and a streaming reader (ZipInputStream).
+     */
+    @Test
+    public void testParallelZipRoundTrip() throws Exception {
+        File world = new File(tempDir, "universe");
+        File chunks = new File(world, "worlds/default/chunks");
+        chunks.mkdirs();
+        new File(world, "players").mkdirs();
+
+        Random random = new Random(42);
+        byte[] region = new byte[ParallelZipWriter.SLICE_SIZE * 3 + 1234];
+        for (int i = 0; i < region.length; i++) {
+            region[i] = (byte) ((i / 512) % 13 + (random.nextInt(64) == 0 ? random.nextInt() : 0));
+        }
+        Files.write(new File(chunks, "0.0.region.bin").toPath(), region);
+        Files.write(new File(world, "players/empty.json").toPath(), new byte[0]);
+        for (int i = 0; i < 20; i++) {
+            Files.write(new File(world, "players/player-" + i + ".json").toPath(),
+                    ("{\"id\": " + i + "}").getBytes());
+        }
+
+        File zip = new File(tempDir, "backup.zip");
+        ArchiveResult result = ZipUtility.createZip(world, zip, 4);
+
+        assertEquals(zip.length(), result.getCompressedBytes(), "Reported size should match the file");
+        assertTrue(result.getCompressedBytes() < result.getUncompressedBytes(), "Region data should compress");
+        assertEquals(ZipUtility.calculateChecksum(zip), result.getChecksum(),
+                "Checksum computed while writing should match a read-back of the file");
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ZipEntry entry = zipFile.getEntry("worlds/default/chunks/0.0.region.bin");
+            assertNotNull(entry);
+            assertArrayEquals(region, zipFile.getInputStream(entry).readAllBytes());
+            assertEquals(0, zipFile.getEntry("players/empty.json").getSize());
+        }
+
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.getName().equals("worlds/default/chunks/0.0.region.bin")) {
+                    assertArrayEquals(region, in.readAllBytes());
+                }
+            }
+        }
+
+        File restored = new File(tempDir, "restored");
+        ExtractionProgress progress = new ExtractionProgress();
+        ZipUtility.extractZip(zip, restored, 4, progress);
+        assertTrue(progress.isFinished());
+        assertEquals(result.getUncompressedBytes(), progress.getBytesDone());
+        assertArrayEquals(region, Files.readAllBytes(new File(restored, "worlds/default/chunks/0.0.region.bin").toPath()));
+        assertEquals("{\"id\": 7}", Files.readString(new File(restored, "players/player-7.json").toPath()));
+    }
+
+    /**
+     * Random data is incompressible: with the adaptive policy small files should be stored
+     * and large sliced ones written at level 0, while text still gets deflated. Everything
+     * must read back through both readers.
+     */
+    @Test
+    public void testAdaptiveCompressionStoresIncompressibleData() throws Exception {
+        File world = new File(tempDir, "universe");
+        world.mkdirs();
+
+        Random random = new Random(11);
+        byte[] noise = new byte[200_000];
+        random.nextBytes(noise);
+        byte[] bigNoise = new byte[ParallelZipWriter.SLICE_SIZE * 2 + 4096];
+        random.nextBytes(bigNoise);
+        String text = "{\"block\": \"stone\"}\n".repeat(5000);
+        Files.write(new File(world, "noise.bin").toPath(), noise);
+        Files.write(new File(world, "big.region.bin").toPath(), bigNoise);
+        Files.writeString(new File(world, "blocks.json").toPath(), text);
+
+        File zip = new File(tempDir, "backup.zip");
+        ArchiveResult result = ZipUtility.createZip(world, zip, 2,
+                new CompressionPolicy(true, List.of()), (name, attrs) -> true, null);
+
+        assertEquals(noise.length + bigNoise.length, result.getStoredBytes());
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("noise.bin").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("blocks.json").getMethod());
+            assertTrue(zipFile.getEntry("blocks.json").getCompressedSize() < text.length() / 10);
+            assertArrayEquals(noise, zipFile.getInputStream(zipFile.getEntry("noise.bin")).readAllBytes());
+        }
+
+        File restored = new File(tempDir, "restored");
+        ZipUtility.extractZip(zip, restored);
+        assertArrayEquals(noise, Files.readAllBytes(new File(restored, "noise.bin").toPath()));
+        assertArrayEquals(bigNoise, Files.readAllBytes(new File(restored, "big.region.bin").toPath()));
+        assertEquals(text, Files.readString(new File(restored, "blocks.json").toPath()));
+    }
+
+    @Test
+    public void testCompressionRulesOverrideSampling() {
+        BackupConfig.CompressionRule rule = new BackupConfig.CompressionRule();
+        rule.setPattern("**.json");
+        rule.setLevel(0);
+        CompressionPolicy policy = new CompressionPolicy(true, List.of(rule));
+
+        byte[] text = "aaaaaaaaaaaaaaaa".repeat(100).getBytes();
+        assertEquals(CompressionPolicy.STORE, policy.levelFor("players/a.json", text, text.length));
+        assertNotEquals(CompressionPolicy.STORE, policy.levelFor("players/a.txt", text, text.length));
+    }
+
+    @Test
+    public void testCrc32Combine() {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+
+        CRC32 whole = new CRC32();
+        whole.update(data);
+        CRC32 first = new CRC32();
+        first.update(data, 0, 40_000);
+        CRC32 second = new CRC32();
+        second.update(data, 40_000, 60_000);
+
+        assertEquals(whole.getValue(), ParallelZipWriter.crc32Combine(first.getValue(), second.getValue(), 60_000));
+    }
+}
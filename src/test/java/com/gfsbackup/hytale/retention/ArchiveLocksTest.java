@@ -0,0 +1,54 @@
+package com.gfsbackup.hytale.retention;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveLocksTest {
+
+    /**
+     * Retention must be refused an archive someone is reading, without waiting, while
+     * unrelated archives stay available; a delete waits for the reader instead.
+     */
+    @Test
+    public void testWritersYieldToReaders() throws Exception {
+        ArchiveLocks locks = new ArchiveLocks();
+        ArchiveLocks.Hold reading = locks.read(List.of("child.zip", "parent.zip"));
+
+        assertNull(locks.tryWrite("parent.zip"));
+        try (ArchiveLocks.Hold other = locks.tryWrite(unlockedName(locks))) {
+            assertNotNull(other);
+        }
+        try (ArchiveLocks.Hold shared = locks.tryRead("parent.zip")) {
+            assertNotNull(shared);
+        }
+
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> locks.write("child.zip").close());
+        Thread.sleep(100);
+        assertFalse(delete.isDone());
+        reading.close();
+        delete.get(5, TimeUnit.SECONDS);
+        try (ArchiveLocks.Hold free = locks.tryWrite("parent.zip")) {
+            assertNotNull(free);
+        }
+    }
+
+    /**
+     * A name that doesn't share a stripe with the locked archives, so the test doesn't
+     * depend on how names hash.
+     */
+    private static String unlockedName(ArchiveLocks locks) {
+        for (int i = 0; ; i++) {
+            String name = "unrelated-" + i + ".zip";
+            ArchiveLocks.Hold hold = locks.tryWrite(name);
+            if (hold != null) {
+                hold.close();
+                return name;
+            }
+        }
+    }
+}
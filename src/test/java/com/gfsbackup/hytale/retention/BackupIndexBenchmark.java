@@ -0,0 +1,133 @@
+package com.gfsbackup.hytale.retention;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Times the operations the web dashboard and retention lean on, at a size a long-running
+ * server with frequent sons could reach, against the linear scans the index used to do.
+ *
+ * Not a unit test; run it with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     com.gfsbackup.hytale.retention.BackupIndexBenchmark 100000
+ * </pre>
+ */
+public class BackupIndexBenchmark {
+    private static final BackupTier[] TIERS = BackupTier.values();
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        List<BackupMetadata> backups = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            backups.add(new BackupMetadata(String.format("%08d.zip", i), TIERS[i % TIERS.length],
+                    1_700_000_000_000L + i * 60_000L, 1000 + i, "checksum-" + i));
+        }
+        BackupIndex index = new BackupIndex(new File("unused-backup-index.json"));
+        index.setBackups(backups);
+        LinearIndex linear = new LinearIndex(new ArrayList<>(backups));
+
+        Random random = new Random(1);
+        int[] picks = random.ints(100_000, 0, size).toArray();
+
+        System.out.printf("%,d backups%n", size);
+        System.out.printf("%-26s %14s %14s%n", "operation", "linear", "indexed");
+        compare("getBackupByFilename", 2000,
+                i -> linear.getBackupByFilename(name(picks[i % picks.length])),
+                i -> index.getBackupByFilename(name(picks[i % picks.length])));
+        compare("updateBackup", 2000,
+                i -> linear.updateBackup(backups.get(picks[i % picks.length])),
+                i -> index.updateBackup(backups.get(picks[i % picks.length])));
+        compare("stats (3 tier counts)", 50,
+                i -> linear.tierCounts(),
+                i -> {
+                    for (BackupTier tier : TIERS) {
+                        index.countByTier(tier);
+                    }
+                });
+        compare("getBackupsByTier", 50,
+                i -> linear.getBackupsByTier(TIERS[i % TIERS.length]),
+                i -> index.getBackupsByTier(TIERS[i % TIERS.length]));
+        compare("latest backup", 50,
+                i -> linear.latest(),
+                i -> index.getLatestBackup());
+    }
+
+    private static String name(int i) {
+        return String.format("%08d.zip", i);
+    }
+
+    private static void compare(String operation, int iterations, IntConsumer linear, IntConsumer indexed) {
+        System.out.printf("%-26s %14s %14s%n", operation, time(iterations, linear), time(iterations, indexed));
+    }
+
+    private static String time(int iterations, IntConsumer operation) {
+        // Warm up so the JIT has compiled both sides
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(i);
+        }
+        double nanos = (System.nanoTime() - start) / (double) iterations;
+        return nanos >= 1_000_000
+                ? String.format("%.2f ms/op", nanos / 1_000_000)
+                : String.format("%.2f us/op", nanos / 1_000);
+    }
+
+    /**
+     * The list-scanning lookups BackupIndex used before it kept maps.
+     */
+    private static final class LinearIndex {
+        private final List<BackupMetadata> backups;
+        private long totalSizeBytes;
+
+        LinearIndex(List<BackupMetadata> backups) {
+            this.backups = backups;
+        }
+
+        BackupMetadata getBackupByFilename(String filename) {
+            return backups.stream()
+                    .filter(b -> b.getFilename().equals(filename))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        void updateBackup(BackupMetadata metadata) {
+            for (int i = 0; i < backups.size(); i++) {
+                if (backups.get(i).getFilename().equals(metadata.getFilename())) {
+                    backups.set(i, metadata);
+                    break;
+                }
+            }
+            totalSizeBytes = backups.stream().mapToLong(BackupMetadata::getSizeBytes).sum();
+        }
+
+        List<BackupMetadata> getBackupsByTier(BackupTier tier) {
+            return backups.stream()
+                    .filter(b -> b.getTier() == tier)
+                    .sorted(Comparator.comparingLong(BackupMetadata::getCreatedAt).reversed())
+                    .collect(Collectors.toList());
+        }
+
+        void tierCounts() {
+            for (BackupTier tier : TIERS) {
+                getBackupsByTier(tier).size();
+            }
+        }
+
+        BackupMetadata latest() {
+            return backups.stream()
+                    .max(Comparator.comparingLong(BackupMetadata::getCreatedAt))
+                    .orElse(null);
+        }
+    }
+}
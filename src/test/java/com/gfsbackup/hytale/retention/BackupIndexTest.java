@@ -0,0 +1,168 @@
+package com.gfsbackup.hytale.retention;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackupIndexTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * Saved changes live in the journal until compaction and must come back on load, in
+     * order, including promotions and removals. A half-written last line is dropped.
+     */
+    @Test
+    public void testJournalReplaysOnLoad() throws IOException {
+        File indexFile = new File(tempDir, "backup-index.json");
+        BackupIndex index = new BackupIndex(indexFile);
+        index.load();
+
+        for (int i = 0; i < 5; i++) {
+            index.addBackup(new BackupMetadata("backup-" + i + ".zip", BackupTier.SON, 1000L * i, 100, "c" + i));
+        }
+        index.save();
+        BackupMetadata promoted = index.getBackupByFilename("backup-1.zip");
+        promoted.promote(BackupTier.FATHER);
+        index.updateBackup(promoted);
+        index.removeBackup(index.getBackupByFilename("backup-0.zip"));
+        index.recordUnchanged(9000);
+        index.save();
+
+        assertFalse(indexFile.exists(), "Small change sets should not rewrite the snapshot");
+        File journal = new File(tempDir, "backup-index.journal");
+        Files.writeString(journal.toPath(), "{\"seq\":99,\"op\":\"add\",\"bac", StandardOpenOption.APPEND);
+
+        BackupIndex reloaded = new BackupIndex(indexFile);
+        reloaded.load();
+        assertEquals(4, reloaded.getTotalBackups());
+        assertEquals(400, reloaded.getTotalSizeBytes());
+        assertNull(reloaded.getBackupByFilename("backup-0.zip"));
+        assertEquals(BackupTier.FATHER, reloaded.getBackupByFilename("backup-1.zip").getTier());
+        assertEquals(1, reloaded.getUnchangedSkips());
+        assertEquals(9000, reloaded.getLastUnchanged());
+        assertTrue(Files.readString(journal.toPath()).endsWith("\n"), "Torn record should be truncated");
+
+        // Appends after the truncated tail must still replay
+        reloaded.addBackup(new BackupMetadata("backup-5.zip", BackupTier.SON, 5000, 100, "c5"));
+        reloaded.save();
+        BackupIndex again = new BackupIndex(indexFile);
+        again.load();
+        assertEquals(5, again.getTotalBackups());
+    }
+
+    /**
+     * Compaction writes a snapshot and empties the journal. If the process dies after the
+     * rename but before the journal is emptied, replaying it must not apply anything twice.
+     */
+    @Test
+    public void testCompactionIsCrashSafe() throws IOException {
+        File indexFile = new File(tempDir, "backup-index.json");
+        File journal = new File(tempDir, "backup-index.journal");
+        BackupIndex index = new BackupIndex(indexFile);
+        index.load();
+        for (int i = 0; i < 3; i++) {
+            index.addBackup(new BackupMetadata("backup-" + i + ".zip", BackupTier.SON, 1000L * i, 100, "c" + i));
+            index.recordUnchanged(2000L + i);
+        }
+        index.save();
+        byte[] beforeCompaction = Files.readAllBytes(journal.toPath());
+
+        index.compact();
+        assertTrue(indexFile.exists());
+        assertEquals(0, journal.length());
+
+        Files.write(journal.toPath(), beforeCompaction);
+        BackupIndex reloaded = new BackupIndex(indexFile);
+        reloaded.load();
+        assertEquals(3, reloaded.getTotalBackups());
+        assertEquals(3, reloaded.getUnchangedSkips());
+        assertEquals(2002, reloaded.getLastUnchanged());
+
+        // New records continue the sequence past what the snapshot holds
+        reloaded.removeBackup(reloaded.getBackupByFilename("backup-2.zip"));
+        reloaded.save();
+        BackupIndex again = new BackupIndex(indexFile);
+        again.load();
+        assertEquals(2, again.getTotalBackups());
+    }
+
+    /**
+     * Tier lists, counts and totals must follow promotions and in-place renames (a format
+     * conversion changes the filename before calling updateBackup), also after a reload.
+     */
+    @Test
+    public void testLookupsFollowPromotionsAndRenames() throws IOException {
+        File indexFile = new File(tempDir, "backup-index.json");
+        BackupIndex index = new BackupIndex(indexFile);
+        index.load();
+        for (int i = 0; i < 4; i++) {
+            index.addBackup(new BackupMetadata("backup-" + i + ".zip", BackupTier.SON, 1000L * i, 100, "c" + i));
+        }
+
+        BackupMetadata converted = index.getBackupByFilename("backup-0.zip");
+        converted.promote(BackupTier.GRANDFATHER);
+        converted.setFilename("backup-0.tar.zst");
+        converted.setSizeBytes(40);
+        index.updateBackup(converted);
+        index.save();
+
+        assertEquals(List.of("backup-3.zip", "backup-2.zip", "backup-1.zip"),
+                index.getBackupsByTier(BackupTier.SON).stream().map(BackupMetadata::getFilename).toList());
+        assertEquals(1, index.countByTier(BackupTier.GRANDFATHER));
+        assertNull(index.getBackupByFilename("backup-0.zip"));
+        assertSame(converted, index.getBackupByFilename("backup-0.tar.zst"));
+        assertEquals(340, index.getTotalSizeBytes());
+        assertEquals("backup-3.zip", index.getLatestBackup().getFilename());
+
+        BackupIndex reloaded = new BackupIndex(indexFile);
+        reloaded.load();
+        assertEquals(4, reloaded.getTotalBackups());
+        assertEquals(340, reloaded.getTotalSizeBytes());
+        assertNull(reloaded.getBackupByFilename("backup-0.zip"));
+        assertEquals(BackupTier.GRANDFATHER, reloaded.getBackupByFilename("backup-0.tar.zst").getTier());
+
+        reloaded.removeBackup(reloaded.getBackupByFilename("backup-3.zip"));
+        assertEquals("backup-2.zip", reloaded.getLatestBackup().getFilename());
+        assertEquals(0, reloaded.countByTier(BackupTier.FATHER));
+    }
+
+    /**
+     * Readers of a snapshot must see neither unsaved changes nor in-place edits to the
+     * metadata objects the index hands to the retention code.
+     */
+    @Test
+    public void testSnapshotIsIsolatedUntilSave() throws IOException {
+        BackupIndex index = new BackupIndex(new File(tempDir, "backup-index.json"));
+        index.load();
+        index.addBackup(new BackupMetadata("backup-0.zip", BackupTier.SON, 1000, 100, "c0"));
+        index.addBackup(new BackupMetadata("backup-1.zip", BackupTier.SON, 2000, 100, "c1"));
+        index.save();
+        BackupIndex.Snapshot before = index.snapshot();
+
+        BackupMetadata live = index.getBackupByFilename("backup-0.zip");
+        live.promote(BackupTier.FATHER);
+        index.updateBackup(live);
+        index.removeBackup(index.getBackupByFilename("backup-1.zip"));
+
+        assertSame(before, index.snapshot());
+        assertEquals(BackupTier.SON, before.get("backup-0.zip").getTier());
+        assertEquals(2, before.countByTier(BackupTier.SON));
+        assertThrows(UnsupportedOperationException.class, () -> before.getAllBackups().clear());
+
+        index.save();
+        BackupIndex.Snapshot after = index.snapshot();
+        assertEquals(1, after.getTotalBackups());
+        assertEquals(BackupTier.FATHER, after.get("backup-0.zip").getTier());
+        assertEquals(0, after.countByTier(BackupTier.SON));
+        assertEquals(BackupTier.SON, before.get("backup-0.zip").getTier());
+    }
+}
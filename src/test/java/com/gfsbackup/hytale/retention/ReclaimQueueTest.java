@@ -0,0 +1,78 @@
+package com.gfsbackup.hytale.retention;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReclaimQueueTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * Retired backups leave the index at once but their files stay until a pass runs. The
+     * pending list survives a restart, an archive that is being read is left for the next
+     * pass, and each pass reports what it reclaimed.
+     */
+    @Test
+    public void testRetiredArchivesAreReclaimedInBackground() throws IOException {
+        File indexFile = new File(tempDir, "backup-index.json");
+        BackupIndex index = new BackupIndex(indexFile);
+        index.load();
+        for (int i = 0; i < 3; i++) {
+            File file = new File(tempDir, "backup-" + i + ".zip");
+            Files.write(file.toPath(), new byte[1000]);
+            index.addBackup(new BackupMetadata(file.getName(), BackupTier.SON, 1000L * i, 1000, "c" + i));
+        }
+        index.save();
+
+        index.retireBackup(index.getBackupByFilename("backup-0.zip"));
+        index.retireBackup(index.getBackupByFilename("backup-1.zip"));
+        index.save();
+        assertEquals(1, index.getTotalBackups());
+        assertEquals(Set.of("backup-0.zip", "backup-1.zip"), index.getPendingDeletions().keySet());
+        assertEquals(2000, index.snapshot().getPendingDeletionBytes());
+        assertTrue(new File(tempDir, "backup-0.zip").exists());
+
+        // A restart before the pass ran still knows what to delete
+        BackupIndex reloaded = new BackupIndex(indexFile);
+        reloaded.load();
+        assertEquals(1, reloaded.getTotalBackups());
+        assertEquals(Set.of("backup-0.zip", "backup-1.zip"), reloaded.getPendingDeletions().keySet());
+
+        List<Runnable> passes = new ArrayList<>();
+        ArchiveLocks locks = new ArchiveLocks();
+        ReclaimQueue queue = new ReclaimQueue(reloaded, tempDir, locks, passes::add);
+        queue.schedule();
+        queue.schedule();
+        assertEquals(1, passes.size(), "A pass already waiting should absorb further requests");
+
+        try (ArchiveLocks.Hold download = locks.tryRead("backup-1.zip")) {
+            passes.remove(0).run();
+        }
+        ReclaimQueue.Pass pass = queue.getLastPass();
+        assertEquals(1, pass.getDeleted());
+        assertEquals(1000, pass.getReclaimedBytes());
+        assertEquals(1, pass.getStillPending());
+        assertFalse(new File(tempDir, "backup-0.zip").exists());
+        assertTrue(new File(tempDir, "backup-1.zip").exists(), "An archive in use must not be deleted");
+
+        queue.schedule();
+        passes.remove(0).run();
+        assertFalse(new File(tempDir, "backup-1.zip").exists());
+        assertEquals(2000L, queue.metrics().get("totalReclaimedBytes"));
+
+        BackupIndex again = new BackupIndex(indexFile);
+        again.load();
+        assertTrue(again.getPendingDeletions().isEmpty());
+        assertEquals(1, again.getTotalBackups());
+    }
+}
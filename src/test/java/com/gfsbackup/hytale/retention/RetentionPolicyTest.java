@@ -1,6 +1,7 @@
 package com.gfsbackup.hytale.retention;
 
 import com.gfsbackup.hytale.config.BackupConfig;
+import com.gfsbackup.hytale.config.BackupFormat;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -10,6 +11,10 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -99,10 +104,11 @@ public class RetentionPolicyTest {
         System.out.println("Total SONs: " + index.getBackupsByTier(BackupTier.SON).size());
 
         // Apply retention again
-        // This should:
-        // 1. Promote the oldest SON from day 1 to FATHER (first time we have >12 SONs from different days)
-        // 2. Keep 12 newest SONs (all from day 2)
-        // Result: 12 SONs from day 2, 1 FATHER from day 1
+        // This should, in one pass:
+        // 1. Delete the 11 remaining SONs from day 1 (day 1 already has its FATHER)
+        // 2. Promote the oldest SON from day 2, which just fell out of the SON window
+        // 3. Keep 12 newest SONs (all from day 2)
+        // Result: 12 SONs from day 2, 1 FATHER per day
         policy.apply();
 
         System.out.println("\n=== AFTER SECOND RETENTION POLICY ===");
@@ -116,15 +122,19 @@ public class RetentionPolicyTest {
             System.out.println("  FATHER: " + father.getFilename() + " from " + fatherDate);
         }
 
-        // KEY ASSERTION: We should have exactly ONE FATHER, not multiple from the same day
-        assertEquals(1, fathers.size(),
-            "Should have exactly ONE FATHER after promotions from 2 days of backups");
+        // KEY ASSERTION: one FATHER per day, never several from the same day
+        assertEquals(12, index.getBackupsByTier(BackupTier.SON).size());
+        assertEquals(2, fathers.size(),
+            "Should have exactly one FATHER for each of the 2 days of backups");
+        long dayMillis = config.getTiers().getFather().getIntervalMillis();
+        assertNotEquals(fathers.get(0).getCreatedAt() / dayMillis, fathers.get(1).getCreatedAt() / dayMillis,
+            "The FATHERs should be from different days");
 
-        // The FATHER should be from day 1 (yesterday)
-        Instant fatherTime = Instant.ofEpochMilli(fathers.get(0).getCreatedAt());
+        // The older FATHER is still the one promoted on day 1
+        Instant fatherTime = Instant.ofEpochMilli(fathers.get(1).getCreatedAt());
         LocalDate fatherDate = fatherTime.atZone(ZoneId.systemDefault()).toLocalDate();
         assertEquals(today, fatherDate,
-            "The FATHER should be from the first day (today in test)");
+            "The oldest FATHER should be from the first day (today in test)");
     }
 
     /**
@@ -194,4 +204,131 @@ public class RetentionPolicyTest {
         assertNotEquals(day1, day2, "Each FATHER should be from a different day");
         assertNotEquals(day0, day2, "Each FATHER should be from a different day");
     }
+
+    /**
+     * Two years of backups every 8 hours, with a two-month outage, handed to retention all
+     * at once (as after downtime or a config change) must end up exactly where running
+     * retention after every backup would have, within every limit, in a single pass.
+     */
+    @Test
+    public void testCatchUpMatchesContinuousRetention() throws IOException {
+        BackupConfig config = new BackupConfig();
+        config.getTiers().getSon().setRetentionCount(12);
+        config.getTiers().getFather().setRetentionCount(7);
+        config.getTiers().getGrandfather().setRetentionCount(26);
+
+        File continuousDir = new File(tempDir, "continuous");
+        File batchDir = new File(tempDir, "batch");
+        continuousDir.mkdirs();
+        batchDir.mkdirs();
+        BackupIndex continuous = new BackupIndex(new File(continuousDir, "backup-index.json"));
+        BackupIndex batch = new BackupIndex(new File(batchDir, "backup-index.json"));
+        RetentionPolicy continuousPolicy = new RetentionPolicy(config, continuous, continuousDir);
+        RetentionPolicy batchPolicy = new RetentionPolicy(config, batch, batchDir);
+
+        long start = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+        long step = TimeUnit.HOURS.toMillis(8);
+        int count = 0;
+        for (long time = start; time < start + TimeUnit.DAYS.toMillis(730); time += step) {
+            long day = (time - start) / TimeUnit.DAYS.toMillis(1);
+            if (day >= 300 && day < 360) {
+                continue;
+            }
+            String filename = String.format("backup-%05d.zip", count++);
+            new File(continuousDir, filename).createNewFile();
+            new File(batchDir, filename).createNewFile();
+            continuous.addBackup(new BackupMetadata(filename, BackupTier.SON, time, 1000, "c"));
+            continuousPolicy.apply();
+            batch.addBackup(new BackupMetadata(filename, BackupTier.SON, time, 1000, "c"));
+        }
+
+        batchPolicy.apply();
+
+        for (BackupTier tier : BackupTier.values()) {
+            assertEquals(names(continuous.getBackupsByTier(tier)), names(batch.getBackupsByTier(tier)),
+                    "Catch-up retention differs from continuous retention in " + tier);
+        }
+        assertEquals(12, batch.countByTier(BackupTier.SON));
+        assertEquals(7, batch.countByTier(BackupTier.FATHER));
+        assertEquals(26, batch.countByTier(BackupTier.GRANDFATHER));
+        assertOnePerBucket(batch.getBackupsByTier(BackupTier.FATHER), config.getTiers().getFather().getIntervalMillis());
+        assertOnePerBucket(batch.getBackupsByTier(BackupTier.GRANDFATHER), config.getTiers().getGrandfather().getIntervalMillis());
+        assertEquals(45, batchDir.list((dir, name) -> name.endsWith(".zip")).length,
+                "Archives dropped from the index should be deleted");
+
+        // Nothing left to do on the next pass
+        List<String> before = names(batch.getAllBackups());
+        batchPolicy.apply();
+        assertEquals(before, names(batch.getAllBackups()));
+    }
+
+    /**
+     * A growing world pushes the backups over their byte budgets while the counts are still
+     * within limits. Large, aging SONs go first, the first of them promoted as its day's
+     * FATHER; the newest backup and the much cheaper higher tiers stay. The next backup's
+     * size is predicted from the recent growth.
+     */
+    @Test
+    public void testByteBudgetsEvictCheapestFirst() throws IOException {
+        long mb = 1024 * 1024;
+        BackupConfig config = new BackupConfig();
+        config.getTiers().getSon().setMaxSizeMB(1200);
+        config.getAdvanced().setMaxTotalSizeMB(1300);
+        BackupIndex index = new BackupIndex(new File(tempDir, "backup-index.json"));
+        RetentionPolicy policy = new RetentionPolicy(config, index, tempDir);
+
+        long now = Instant.parse("2026-03-01T12:00:00Z").toEpochMilli();
+        for (int i = 0; i < 3; i++) {
+            add(index, "grandfather-" + i + ".zip", BackupTier.GRANDFATHER, now - TimeUnit.DAYS.toMillis(8 + 7L * i), 10 * mb);
+        }
+        for (int i = 0; i < 5; i++) {
+            add(index, "father-" + i + ".zip", BackupTier.FATHER, now - TimeUnit.DAYS.toMillis(1 + i), 50 * mb);
+        }
+        for (int i = 0; i < 10; i++) {
+            add(index, String.format("son-%02d.zip", i), BackupTier.SON,
+                    now - TimeUnit.MINUTES.toMillis(30L * (9 - i)), (100 + 10 * i) * mb);
+        }
+        assertEquals(200 * mb, policy.predictNextBackupSize(BackupFormat.ZIP));
+
+        policy.apply();
+
+        assertEquals(3, index.countByTier(BackupTier.GRANDFATHER));
+        assertEquals(6, index.countByTier(BackupTier.FATHER));
+        assertEquals(1, names(index.getBackupsByTier(BackupTier.FATHER)).stream().filter(n -> n.startsWith("son-")).count());
+        assertTrue(index.getTotalSizeBytes() <= 1300 * mb, "Over the total budget: " + index.getTotalSizeBytes() / mb);
+        assertTrue(index.getSizeBytesByTier(BackupTier.SON) <= 1200 * mb);
+        assertEquals("son-09.zip", index.getLatestBackup().getFilename());
+        assertEquals(6, index.countByTier(BackupTier.SON), "Only as many SONs as the budgets required");
+        assertEquals(List.of("son-09.zip", "son-08.zip"), names(index.getBackupsByTier(BackupTier.SON)).subList(0, 2));
+        assertEquals(7, tempDir.list((dir, name) -> name.startsWith("son-")).length,
+                "Evicted archives should be deleted");
+
+        // Making room ahead of a backup retires from the same end, never the newest
+        List<String> sons = names(index.getBackupsByTier(BackupTier.SON));
+        long freed = policy.evict(300 * mb);
+        assertTrue(freed >= 300 * mb);
+        assertEquals("son-09.zip", index.getLatestBackup().getFilename());
+        assertEquals(6, index.countByTier(BackupTier.FATHER));
+        assertTrue(index.getBackupsByTier(BackupTier.SON).size() < sons.size());
+        assertEquals(freed, index.getPendingDeletions().values().stream().mapToLong(Long::longValue).sum(),
+                "Retired, not yet reclaimed");
+    }
+
+    private void add(BackupIndex index, String filename, BackupTier tier, long createdAt, long sizeBytes)
+            throws IOException {
+        index.addBackup(new BackupMetadata(filename, tier, createdAt, sizeBytes, "c"));
+        new File(tempDir, filename).createNewFile();
+    }
+
+    private static List<String> names(List<BackupMetadata> backups) {
+        return backups.stream().map(BackupMetadata::getFilename).toList();
+    }
+
+    private static void assertOnePerBucket(List<BackupMetadata> backups, long intervalMillis) {
+        Set<Long> buckets = new HashSet<>();
+        for (BackupMetadata backup : backups) {
+            assertTrue(buckets.add(backup.getCreatedAt() / intervalMillis),
+                    "Two backups in the same period: " + backup.getFilename());
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package com.gfsbackup.hytale.retention;
+
+import com.gfsbackup.hytale.config.BackupConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionSimulatorTest {
+
+    private static final long START = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Three years of 30-minute backups with a two-month outage end with every tier at its
+     * count, the same way on every run, and the outage shows up as missing weeks in the
+     * archive tier.
+     */
+    @Test
+    public void testMultiYearScheduleIsDeterministic() {
+        BackupConfig config = new BackupConfig();
+        config.getTiers().getGrandfather().setRetentionCount(104);
+        RetentionSimulator simulator = new RetentionSimulator(config);
+        simulator.setStart(START);
+        simulator.setInitialSizeBytes(300 * MB);
+        simulator.setGrowthBytesPerDay(MB);
+        simulator.addOutage(START + 700 * DAY, START + 760 * DAY);
+
+        RetentionSimulator.Report report = simulator.run(1095 * DAY);
+        System.out.print(report);
+
+        assertEquals((1095 - 60) * 48, report.getCreated());
+        assertEquals(12, report.getKept(BackupTier.SON));
+        assertEquals(7, report.getKept(BackupTier.FATHER));
+        assertEquals(104, report.getKept(BackupTier.GRANDFATHER));
+        assertEquals(report.getCreated() - 123, report.getTotalDeleted());
+        assertTrue(report.getGaps(BackupTier.FATHER).isEmpty());
+        List<Long> gaps = report.getGaps(BackupTier.GRANDFATHER);
+        assertTrue(gaps.size() >= 8 && gaps.size() <= 9, "Expected the outage's weeks as gaps: " + gaps.size());
+        for (long gap : gaps) {
+            assertTrue(gap >= START + 693 * DAY && gap < START + 760 * DAY);
+        }
+        assertEquals(1095 - 60, report.getStorage().size(), "One storage sample per day with backups");
+        RetentionSimulator.Sample last = report.getStorage().get(report.getStorage().size() - 1);
+        assertTrue(last.getBackups() >= 122 && last.getBackups() <= 123);
+        assertTrue(last.getBytes() > 122 * 300 * MB && last.getBytes() <= report.getPeakBytes());
+
+        RetentionSimulator.Report again = simulator.run(1095 * DAY);
+        for (BackupTier tier : BackupTier.values()) {
+            assertEquals(report.getKept(tier), again.getKept(tier));
+            assertEquals(report.getDeleted(tier), again.getDeleted(tier));
+            assertEquals(report.getGaps(tier), again.getGaps(tier));
+        }
+        assertEquals(report.getPeakBytes(), again.getPeakBytes());
+    }
+
+    /**
+     * With a total budget the stored bytes never exceed it after a pass, however much the
+     * world grows.
+     */
+    @Test
+    public void testBudgetHoldsOverTime() {
+        BackupConfig config = new BackupConfig();
+        config.getAdvanced().setMaxTotalSizeMB(8000);
+        RetentionSimulator simulator = new RetentionSimulator(config);
+        simulator.setStart(START);
+        simulator.setGrowthBytesPerDay(2 * MB);
+
+        RetentionSimulator.Report report = simulator.run(365 * DAY);
+        System.out.print(report);
+
+        assertTrue(report.getPeakBytes() <= 8000 * MB, "Peak " + report.getPeakBytes() / MB + " MB");
+        assertTrue(report.getKept(BackupTier.GRANDFATHER) > 0, "Budget evictions starved the archive tier");
+    }
+
+    /**
+     * Performance regression guard for the retention engine: tens of thousands of SONs in
+     * the index, retention after each of three years of backups. A pass that walks or
+     * copies the whole index makes this take minutes instead of seconds.
+     */
+    @Test
+    public void testLargeIndexStaysFast() {
+        BackupConfig config = new BackupConfig();
+        config.getTiers().getSon().setRetentionCount(20000);
+        config.getTiers().getFather().setRetentionCount(2000);
+        config.getTiers().getGrandfather().setRetentionCount(500);
+        RetentionSimulator simulator = new RetentionSimulator(config);
+        simulator.setStart(START);
+
+        RetentionSimulator.Report report = simulator.run(1095 * DAY);
+        System.out.print(report);
+
+        assertEquals(20000, report.getKept(BackupTier.SON));
+        assertEquals(1095 * 48 - 20000, report.getTotalDeleted() + report.getKept(BackupTier.FATHER));
+        assertTrue(report.getElapsedMillis() < 15000, "Simulation took " + report.getElapsedMillis() + " ms");
+    }
+}
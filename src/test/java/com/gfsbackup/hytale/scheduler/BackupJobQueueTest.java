@@ -0,0 +1,166 @@
+package com.gfsbackup.hytale.scheduler;
+
+import com.gfsbackup.hytale.retention.BackupMetadata;
+import com.gfsbackup.hytale.retention.BackupTier;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackupJobQueueTest {
+
+    /**
+     * Requests that arrive while a backup is capturing or queued ride along with it: a
+     * scheduled run joins the capture in progress, and repeated manual clicks share the
+     * one queued job, which never skips an unchanged world.
+     */
+    @Test
+    public void testRequestsCoalesceIntoPendingJobs() throws Exception {
+        CountDownLatch capturing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Boolean> starts = new CopyOnWriteArrayList<>();
+        BackupJobQueue queue = new BackupJobQueue((skipIfUnchanged, progress) -> {
+            starts.add(skipIfUnchanged);
+            if (starts.size() == 1) {
+                capturing.countDown();
+                release.await();
+            }
+            return CompletableFuture.completedFuture(backup("backup-" + starts.size() + ".zip"));
+        }, true);
+
+        BackupJob first = queue.submit(BackupJob.Priority.SCHEDULED);
+        assertTrue(capturing.await(5, TimeUnit.SECONDS));
+        assertEquals(BackupJob.State.RUNNING, first.getState());
+        assertSame(first, queue.submit(BackupJob.Priority.SCHEDULED));
+
+        BackupJob second = queue.submit(BackupJob.Priority.MANUAL);
+        assertNotSame(first, second);
+        assertSame(second, queue.submit(BackupJob.Priority.MANUAL));
+        assertSame(second, queue.submit(BackupJob.Priority.SCHEDULED));
+        assertEquals(BackupJob.State.QUEUED, second.getState());
+        assertNull(second.getProgress());
+        assertTrue(first.toMap().containsKey("progress"));
+        assertEquals(2, first.getRequests());
+        assertEquals(3, second.getRequests());
+
+        release.countDown();
+        assertEquals("backup-1.zip", first.getResult().get(5, TimeUnit.SECONDS).getFilename());
+        assertEquals("backup-2.zip", second.getResult().get(5, TimeUnit.SECONDS).getFilename());
+        assertEquals(List.of(true, false), starts);
+        assertEquals(BackupJob.State.COMPLETED, second.getState());
+        assertEquals("backup-2.zip", second.getFilename());
+        assertSame(second, queue.getJob(second.getId()));
+        assertEquals(List.of(second, first), queue.getJobs());
+        queue.shutdown();
+    }
+
+    /**
+     * A manual request takes over a queued scheduled job and its id. Queued jobs can be
+     * cancelled, running ones can't, and an unchanged world ends a scheduled job as skipped.
+     */
+    @Test
+    public void testManualTakesOverScheduledAndQueuedJobsCancel() throws Exception {
+        CompletableFuture<BackupMetadata> archiving = new CompletableFuture<>();
+        CountDownLatch captured = new CountDownLatch(1);
+        List<Boolean> starts = new CopyOnWriteArrayList<>();
+        BackupJobQueue queue = new BackupJobQueue((skipIfUnchanged, progress) -> {
+            starts.add(skipIfUnchanged);
+            if (starts.size() == 1) {
+                captured.countDown();
+                return archiving;
+            }
+            return CompletableFuture.completedFuture(null);
+        }, true);
+
+        BackupJob running = queue.submit(BackupJob.Priority.MANUAL);
+        assertTrue(captured.await(5, TimeUnit.SECONDS));
+        // Captured and archiving: later requests no longer join it
+        BackupJob queued = waitForNewJob(queue, running);
+        assertEquals(BackupJob.Priority.SCHEDULED, queued.getPriority());
+        assertTrue(queued.isSkipIfUnchanged());
+
+        assertSame(queued, queue.submit(BackupJob.Priority.MANUAL));
+        assertEquals(BackupJob.Priority.MANUAL, queued.getPriority());
+        assertFalse(queued.isSkipIfUnchanged());
+        assertEquals(2, queued.getRequests());
+
+        assertFalse(queue.cancel(running.getId()));
+        assertTrue(queue.cancel(queued.getId()));
+        assertFalse(queue.cancel(queued.getId()));
+        assertFalse(queue.cancel(12345));
+        assertEquals(BackupJob.State.CANCELLED, queued.getState());
+        assertThrows(CancellationException.class, () -> queued.getResult().get());
+
+        archiving.complete(backup("backup-1.zip"));
+        assertNotNull(running.getResult().get(5, TimeUnit.SECONDS));
+        assertEquals(BackupJob.State.COMPLETED, running.getState());
+
+        BackupJob unchanged = queue.submit(BackupJob.Priority.SCHEDULED);
+        assertNull(unchanged.getResult().get(5, TimeUnit.SECONDS));
+        assertEquals(BackupJob.State.SKIPPED, unchanged.getState());
+        assertEquals(List.of(false, true), starts);
+        queue.shutdown();
+    }
+
+    /**
+     * A failed backup fails only its job, with its own message even when it has a cause,
+     * and the queue keeps running the next one, even after an Error.
+     */
+    @Test
+    public void testFailedJobDoesNotStopQueue() throws Exception {
+        List<Boolean> starts = new CopyOnWriteArrayList<>();
+        BackupJobQueue queue = new BackupJobQueue((skipIfUnchanged, progress) -> {
+            starts.add(skipIfUnchanged);
+            if (starts.size() == 1) {
+                throw new IOException("Not enough disk space", new IOException("No space left on device"));
+            }
+            if (starts.size() == 2) {
+                throw new LinkageError("Broken plugin jar");
+            }
+            return CompletableFuture.completedFuture(backup("backup-3.zip"));
+        }, false);
+
+        BackupJob failed = queue.submit(BackupJob.Priority.MANUAL);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.getResult().get(5, TimeUnit.SECONDS));
+        assertEquals("Not enough disk space", e.getCause().getMessage());
+        assertEquals(BackupJob.State.FAILED, failed.getState());
+        assertEquals("Not enough disk space", failed.getError());
+
+        BackupJob broken = queue.submit(BackupJob.Priority.MANUAL);
+        assertThrows(ExecutionException.class, () -> broken.getResult().get(5, TimeUnit.SECONDS));
+        assertEquals("Broken plugin jar", broken.getError());
+
+        BackupJob next = queue.submit(BackupJob.Priority.MANUAL);
+        assertEquals("backup-3.zip", next.getResult().get(5, TimeUnit.SECONDS).getFilename());
+        queue.shutdown();
+        assertThrows(IllegalStateException.class, () -> queue.submit(BackupJob.Priority.SCHEDULED));
+    }
+
+    /**
+     * Submits scheduled requests until one is no longer merged into {@code running}, which
+     * happens once the worker has finished its capture.
+     */
+    private static BackupJob waitForNewJob(BackupJobQueue queue, BackupJob running) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            BackupJob job = queue.submit(BackupJob.Priority.SCHEDULED);
+            if (job != running) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Capture never finished");
+    }
+
+    private static BackupMetadata backup(String filename) {
+        return new BackupMetadata(filename, BackupTier.SON, System.currentTimeMillis(), 1000, "c");
+    }
+}